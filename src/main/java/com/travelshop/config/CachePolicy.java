@@ -0,0 +1,91 @@
+package com.travelshop.config;
+
+import lombok.Data;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 单个业务的缓存策略，对应配置 cache.policy.defaults 和 cache.policy.business.{业务编码}
+ * 业务未配置的字段继承默认策略
+ */
+@Data
+public class CachePolicy {
+
+    /**
+     * 缓存键前缀，BusinessType之外的业务（如门票）按前缀识别所属策略
+     */
+    private String keyPrefix;
+
+    /**
+     * 本地缓存最大条目数
+     */
+    private long localMaxSize = 10000;
+
+    /**
+     * 本地缓存过期时间(秒)
+     */
+    private long localExpireSeconds = 60;
+
+    /**
+     * Redis缓存时间(秒)
+     */
+    private long ttlSeconds = 30 * 60;
+
+    /**
+     * 热点数据的Redis缓存时间(秒)
+     */
+    private long hotTtlSeconds = 10 * 60;
+
+    /**
+     * 过期时间随机偏移比例，防止缓存雪崩
+     */
+    private double jitterRatio = 0.2;
+
+    /**
+     * 空值缓存时间(秒)
+     */
+    private long nullTtlSeconds = 60;
+
+    /**
+     * 过期方式：物理过期或逻辑过期
+     */
+    private ExpiryStyle expiryStyle = ExpiryStyle.PHYSICAL;
+
+    /**
+     * 布隆过滤器误判率
+     */
+    private double bloomFalseProbability = 0.01;
+
+    public boolean isLogicalExpire() {
+        return expiryStyle == ExpiryStyle.LOGICAL;
+    }
+
+    /**
+     * 在给定过期时间上叠加随机偏移
+     */
+    public long withJitter(long seconds) {
+        if (jitterRatio <= 0 || seconds <= 0) {
+            return seconds;
+        }
+        return seconds + (long) (ThreadLocalRandom.current().nextDouble() * jitterRatio * seconds);
+    }
+
+    public CachePolicy copy() {
+        CachePolicy policy = new CachePolicy();
+        policy.setKeyPrefix(keyPrefix);
+        policy.setLocalMaxSize(localMaxSize);
+        policy.setLocalExpireSeconds(localExpireSeconds);
+        policy.setTtlSeconds(ttlSeconds);
+        policy.setHotTtlSeconds(hotTtlSeconds);
+        policy.setJitterRatio(jitterRatio);
+        policy.setNullTtlSeconds(nullTtlSeconds);
+        policy.setExpiryStyle(expiryStyle);
+        policy.setBloomFalseProbability(bloomFalseProbability);
+        return policy;
+    }
+
+    public enum ExpiryStyle {
+        PHYSICAL,
+        LOGICAL
+    }
+}
@@ -8,9 +8,25 @@ import com.alibaba.csp.sentinel.slots.system.SystemRuleManager;
 import com.alibaba.csp.sentinel.util.TimeUtil;
 import com.travelshop.dto.Result;
 import com.travelshop.utils.BloomFilter;
+import com.travelshop.utils.CacheExecutors;
+import com.travelshop.utils.CacheMessage;
+import com.travelshop.utils.CacheMetrics;
+import com.travelshop.utils.CachePolicyRegistry;
+import com.travelshop.utils.CachePrewarmer;
 import com.travelshop.utils.ESDataInitializer;
+import com.travelshop.utils.HotKeyDetector;
+import com.travelshop.utils.SeckillOrderConsumer;
+import com.travelshop.utils.SegmentedStock;
+import com.travelshop.utils.SoldOutRegistry;
+import com.travelshop.utils.StockReconciler;
+import com.travelshop.utils.StockReservation;
+import com.travelshop.utils.TicketStockWriteBehind;
+import com.travelshop.utils.UnifiedCache;
+import com.travelshop.utils.codec.CacheCodecs;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import javax.annotation.Resource;
@@ -30,6 +46,34 @@ public class SystemController {
 
     @Resource
     private BloomFilter bloomFilter;
+    @Resource
+    private UnifiedCache unifiedCache;
+    @Resource
+    private CacheCodecs cacheCodecs;
+    @Resource
+    private CachePolicyRegistry cachePolicyRegistry;
+    @Resource
+    private CacheMessage cacheMessage;
+    @Resource
+    private CachePrewarmer cachePrewarmer;
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+    @Resource
+    private CacheMetrics cacheMetrics;
+    @Resource
+    private CacheExecutors cacheExecutors;
+    @Resource
+    private SeckillOrderConsumer seckillOrderConsumer;
+    @Resource
+    private SoldOutRegistry soldOutRegistry;
+    @Resource
+    private SegmentedStock segmentedStock;
+    @Resource
+    private TicketStockWriteBehind ticketStockWriteBehind;
+    @Resource
+    private StockReconciler stockReconciler;
+    @Resource
+    private StockReservation stockReservation;
     private ESDataInitializer esDataInitializer;
 
     @GetMapping("/admin/es/init")
@@ -44,6 +88,110 @@ public class SystemController {
         return Result.ok(health);
     }
 
+    @GetMapping("/cache/single-flight")
+    public Result getSingleFlightStats() {
+        return Result.ok(unifiedCache.getSingleFlightStats());
+    }
+
+    @GetMapping("/cache/local")
+    public Result getLocalCacheStats() {
+        return Result.ok(unifiedCache.getLocalCacheStats());
+    }
+
+    @GetMapping("/cache/policy")
+    public Result getCachePolicies() {
+        return Result.ok(cachePolicyRegistry.getPolicies());
+    }
+
+    @PostMapping("/cache/policy/reload")
+    public Result reloadCachePolicies() {
+        return Result.ok(cachePolicyRegistry.reload());
+    }
+
+    @GetMapping("/cache/messages")
+    public Result getCacheMessageStats() {
+        return Result.ok(cacheMessage.getStats());
+    }
+
+    @GetMapping("/cache/prewarm")
+    public Result getPrewarmProgress(@RequestParam(defaultValue = "0") int shardIndex,
+                                     @RequestParam(defaultValue = "1") int shardTotal) {
+        return Result.ok(cachePrewarmer.getProgress(shardIndex, shardTotal));
+    }
+
+    @GetMapping("/cache/cleanup")
+    public Result getCleanupProgress(@RequestParam(defaultValue = "cache:logic:*") String pattern) {
+        return Result.ok(unifiedCache.getCleanupProgress(pattern));
+    }
+
+    @GetMapping("/cache/hotkeys")
+    public Result getHotKeys() {
+        return Result.ok(hotKeyDetector.getHotKeys());
+    }
+
+    @GetMapping("/cache/executors")
+    public Result getCacheExecutors() {
+        return Result.ok(cacheExecutors.getStats());
+    }
+
+    @GetMapping("/seckill/consumer")
+    public Result getSeckillConsumerStats() {
+        return Result.ok(seckillOrderConsumer.getStats());
+    }
+
+    @GetMapping("/seckill/sold-out")
+    public Result getSoldOut() {
+        return Result.ok(soldOutRegistry.getStats());
+    }
+
+    @GetMapping("/stock/segments")
+    public Result getStockSegments() {
+        return Result.ok(segmentedStock.getStats());
+    }
+
+    @GetMapping("/stock/write-behind")
+    public Result getStockWriteBehind() {
+        return Result.ok(ticketStockWriteBehind.getStats());
+    }
+
+    @GetMapping("/stock/reconcile")
+    public Result getStockReconcileReports() {
+        return Result.ok(stockReconciler.getReports());
+    }
+
+    @GetMapping("/stock/reservations")
+    public Result getStockReservationStats() {
+        return Result.ok(stockReservation.getStats());
+    }
+
+    @PostMapping("/stock/segments/split")
+    public Result splitStock(@RequestParam Long skuId) {
+        return Result.ok(segmentedStock.split(skuId));
+    }
+
+    @PostMapping("/stock/segments/merge")
+    public Result mergeStock(@RequestParam Long skuId) {
+        return Result.ok(segmentedStock.merge(skuId));
+    }
+
+    @GetMapping("/cache/codec")
+    public Result getCodecStats() {
+        return Result.ok(cacheCodecs.getStats());
+    }
+
+    /**
+     * 多级缓存指标：按业务的各层命中率、回源耗时分布和本地缓存容量
+     */
+    @GetMapping("/cache/metrics")
+    public Result getCacheMetrics() {
+        Map<String, Object> metrics = new HashMap<>();
+        metrics.put("business", cacheMetrics.snapshot());
+        metrics.put("localCache", unifiedCache.getLocalCacheStats());
+        metrics.put("codec", cacheCodecs.getStats());
+        metrics.put("executors", cacheExecutors.getStats());
+        return Result.ok(metrics);
+    }
+
     @GetMapping("/metrics")
     public Result getMetrics() {
         Map<String, Object> metrics = new HashMap<>();
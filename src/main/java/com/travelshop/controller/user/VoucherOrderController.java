@@ -5,6 +5,7 @@ import com.travelshop.dto.Result;
 import com.travelshop.dto.UserDTO;
 import com.travelshop.entity.VoucherOrder;
 import com.travelshop.service.IOrderService;
+import com.travelshop.service.ISeckillVoucherService;
 import com.travelshop.service.IVoucherOrderService;
 import com.travelshop.service.IVoucherService;
 import com.travelshop.utils.UserHolder;
@@ -23,12 +24,23 @@ public class VoucherOrderController {
     private final IOrderService orderService;
     private final IVoucherOrderService voucherOrderService;
     private final IVoucherService voucherService;
+    private final ISeckillVoucherService seckillVoucherService;
 
     @PostMapping("seckill/{id}")
     public Result seckillVoucher(@PathVariable("id") Long voucherId) {
         return orderService.seckillVoucher(voucherId);
     }
 
+    /**
+     * 查询秒杀下单结果
+     * @param orderId 秒杀下单返回的订单ID
+     * @return PENDING(处理中) / SUCCESS(下单成功) / FAILED(下单失败)
+     */
+    @GetMapping("seckill/result/{orderId}")
+    public Result querySeckillResult(@PathVariable("orderId") Long orderId) {
+        return seckillVoucherService.querySeckillResult(orderId, UserHolder.getUser().getId());
+    }
+
     /**
      * 优惠券核销
      */
@@ -4,11 +4,13 @@ import com.travelshop.entity.Order;
 import com.travelshop.entity.OrderItem;
 import com.travelshop.entity.PaymentRecord;
 import com.travelshop.enums.OrderStatus;
+import com.travelshop.enums.ProductType;
 import com.travelshop.mapper.OrderItemMapper;
 import com.travelshop.mapper.OrderMapper;
 import com.travelshop.service.PaymentService;
 import com.travelshop.service.strategy.ProductTypeHandler;
 import com.travelshop.service.strategy.ProductTypeHandlerFactory;
+import com.travelshop.utils.StockReservation;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.event.EventListener;
@@ -18,6 +20,7 @@ import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.stream.Collectors;
 
 /**
  * 支付事件监听器
@@ -31,6 +34,7 @@ public class PaymentEventListener {
     private final OrderItemMapper orderItemMapper;
     private final ProductTypeHandlerFactory productTypeHandlerFactory;
     private final PaymentService paymentService;
+    private final StockReservation stockReservation;
 
     /**
      * 处理支付成功事件
@@ -76,9 +80,13 @@ public class PaymentEventListener {
         updateOrder.setPayType(event.getPayType());
         orderMapper.updateById(updateOrder);
 
+        // 4. 普通商品的库存预留批量转为实际扣减
+        List<OrderItem> orderItems = orderItemMapper.selectByOrderId(orderId);
+        stockReservation.confirm(order, orderItems.stream()
+                .filter(item -> ProductType.NORMAL.getCode().equals(item.getProductType()))
+                .collect(Collectors.toList()));
 
         // 5. 处理订单项相关业务
-        List<OrderItem> orderItems = orderItemMapper.selectByOrderId(orderId);
         for (OrderItem item : orderItems) {
             try {
                 ProductTypeHandler handler = productTypeHandlerFactory.getHandler(item.getProductType());
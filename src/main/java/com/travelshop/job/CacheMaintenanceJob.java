@@ -1,5 +1,6 @@
 package com.travelshop.job;
 
+import com.travelshop.utils.CachePrewarmer;
 import com.travelshop.utils.UnifiedCache;
 import com.xxl.job.core.context.XxlJobHelper;
 import com.xxl.job.core.handler.annotation.XxlJob;
@@ -8,7 +9,9 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 /**
  * 缓存维护任务
@@ -20,29 +23,39 @@ public class CacheMaintenanceJob {
 
     private final StringRedisTemplate stringRedisTemplate;
     private final UnifiedCache unifiedCache;
+    private final CachePrewarmer cachePrewarmer;
 
     /**
      * 缓存清理任务 - 清理过期缓存逻辑键
+     * 参数格式：匹配模式[,时间预算毫秒]，例如 shop:*,50000；超出预算后下次执行从断点继续
      */
     @XxlJob("cacheCleanupJob")
     public void cacheCleanupJob() {
         log.info("开始执行缓存清理任务");
 
         // 获取参数
-        String pattern = XxlJobHelper.getJobParam();
-        if (pattern == null || pattern.trim().isEmpty()) {
-            pattern = "cache:logic:*"; // 默认清理所有逻辑键
+        String param = XxlJobHelper.getJobParam();
+        String pattern = "cache:logic:*"; // 默认清理所有逻辑键
+        long budgetMillis = 0;
+        if (param != null && !param.trim().isEmpty()) {
+            String[] items = param.split(",");
+            if (!items[0].trim().isEmpty()) {
+                pattern = items[0].trim();
+            }
+            if (items.length > 1) {
+                budgetMillis = Long.parseLong(items[1].trim());
+            }
         }
 
         try {
-            long startTime = System.currentTimeMillis();
-
             // 执行清理逻辑
-            Set<String> keys = unifiedCache.cleanupExpiredLogicKeys(pattern);
+            Map<String, Object> result = unifiedCache.cleanupExpiredLogicKeys(pattern, budgetMillis);
 
-            long costTime = System.currentTimeMillis() - startTime;
-            log.info("缓存清理任务完成，共清理{}个过期逻辑键，耗时{}ms", keys.size(), costTime);
-            XxlJobHelper.log("缓存清理任务完成，共清理{}个过期逻辑键，耗时{}ms", keys.size(), costTime);
+            log.info("缓存清理任务完成，{}", result);
+            XxlJobHelper.log("缓存清理任务完成，扫描{}个键，清理{}个过期逻辑键，耗时{}ms，速度{}个/秒，{}",
+                    result.get("scanned"), result.get("expired"), result.get("costMillis"), result.get("keysPerSecond"),
+                    Boolean.TRUE.equals(result.get("finished")) ? "已扫描完成" : "未扫描完成，下次从游标" + result.get("cursor") + "继续");
+            XxlJobHelper.log("累计进度: {}", result.get("progress"));
         } catch (Exception e) {
             log.error("缓存清理任务执行异常", e);
             XxlJobHelper.log("缓存清理任务执行异常: " + e.getMessage());
@@ -61,14 +74,25 @@ public class CacheMaintenanceJob {
         int shardIndex = XxlJobHelper.getShardIndex();
         int shardTotal = XxlJobHelper.getShardTotal();
 
-        // 获取任务参数，例如: shop,voucher,blog
-        String businessType = XxlJobHelper.getJobParam();
+        // 获取任务参数，例如: shop,voucher,blog,ticket；追加 reset 表示忽略上次未完成的进度
+        String param = XxlJobHelper.getJobParam();
+        List<String> businesses = new ArrayList<>();
+        boolean reset = false;
+        if (param != null && !param.trim().isEmpty()) {
+            for (String item : param.split(",")) {
+                if ("reset".equalsIgnoreCase(item.trim())) {
+                    reset = true;
+                } else if (!item.trim().isEmpty()) {
+                    businesses.add(item.trim());
+                }
+            }
+        }
 
         try {
             long startTime = System.currentTimeMillis();
 
-            // 根据业务类型执行不同的预热逻辑
-            int count = unifiedCache.prewarmHotData(businessType, shardIndex, shardTotal);
+            // 按业务选出热点数据，分批加载并限速写入
+            int count = cachePrewarmer.prewarm(businesses, shardIndex, shardTotal, reset);
 
             long costTime = System.currentTimeMillis() - startTime;
             log.info("热点数据预热任务完成，共预热{}个热点数据，耗时{}ms", count, costTime);
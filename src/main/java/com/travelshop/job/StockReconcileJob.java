@@ -0,0 +1,67 @@
+package com.travelshop.job;
+
+import com.travelshop.utils.StockReconciler;
+import com.xxl.job.core.context.XxlJobHelper;
+import com.xxl.job.core.handler.annotation.XxlJob;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 库存对账任务
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class StockReconcileJob {
+
+    private final StockReconciler stockReconciler;
+
+    /**
+     * Redis预扣库存与数据库库存对账
+     * 参数格式：业务[,业务][,repair]，例如 ticket,seckill,repair；不传业务时对账全部，带 repair 时修复确认的漂移
+     */
+    @XxlJob("stockReconcileJob")
+    public void stockReconcileJob() {
+        log.info("开始执行库存对账任务");
+
+        String param = XxlJobHelper.getJobParam();
+        List<String> businesses = new ArrayList<>();
+        boolean repair = false;
+        if (param != null && !param.trim().isEmpty()) {
+            for (String item : param.split(",")) {
+                if ("repair".equalsIgnoreCase(item.trim())) {
+                    repair = true;
+                } else if (!item.trim().isEmpty()) {
+                    businesses.add(item.trim());
+                }
+            }
+        }
+        if (businesses.isEmpty()) {
+            businesses.add(StockReconciler.BUSINESS_TICKET);
+            businesses.add(StockReconciler.BUSINESS_SECKILL);
+        }
+
+        boolean failed = false;
+        for (String business : businesses) {
+            try {
+                Map<String, Object> report = stockReconciler.reconcile(business, repair);
+                XxlJobHelper.log("库存对账[{}]完成，比较{}个，漂移{}个(超卖风险{}，少卖{})，累计差异{}，最大差异{}，修复{}个，跳过{}个，耗时{}ms",
+                        business, report.get("compared"), report.get("drifted"), report.get("oversell"),
+                        report.get("undersell"), report.get("totalAbsDrift"), report.get("maxAbsDrift"),
+                        report.get("repaired"), report.get("repairSkipped"), report.get("costMillis"));
+            } catch (Exception e) {
+                log.error("库存对账[{}]执行异常", business, e);
+                XxlJobHelper.log("库存对账[" + business + "]执行异常: " + e.getMessage());
+                failed = true;
+            }
+        }
+        if (failed) {
+            XxlJobHelper.handleFail();
+        }
+    }
+}
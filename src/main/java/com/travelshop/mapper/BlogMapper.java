@@ -2,6 +2,7 @@ package com.travelshop.mapper;
 
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.travelshop.entity.Blog;
+import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
 
 import java.util.List;
@@ -9,4 +10,19 @@ import java.util.List;
 public interface BlogMapper extends BaseMapper<Blog> {
     @Select("SELECT id FROM tb_blog")
     List<Long> selectAllIds();
+
+    /**
+     * 按主键游标分页查询ID，用于流式重建布隆过滤器
+     */
+    @Select("SELECT id FROM tb_blog WHERE id > #{lastId} ORDER BY id LIMIT #{limit}")
+    List<Long> selectIdsAfter(@Param("lastId") Long lastId, @Param("limit") int limit);
+
+    @Select("SELECT COUNT(*) FROM tb_blog")
+    long countAllIds();
+
+    /**
+     * 按点赞数查询当前分片的热门博客ID，用于缓存预热
+     */
+    @Select("SELECT id FROM tb_blog WHERE MOD(id, #{shardTotal}) = #{shardIndex} ORDER BY liked DESC LIMIT #{limit}")
+    List<Long> selectHotIds(@Param("shardIndex") int shardIndex, @Param("shardTotal") int shardTotal, @Param("limit") int limit);
 }
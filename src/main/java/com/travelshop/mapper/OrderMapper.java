@@ -14,6 +14,7 @@ import org.apache.ibatis.annotations.Update;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -90,6 +91,16 @@ public interface OrderMapper extends BaseMapper<Order> {
     @Select("SELECT * FROM tb_order WHERE status = #{status} AND create_time < #{deadline} AND is_deleted = 0")
     List<Order> selectTimeoutOrders(@Param("status") Integer status, @Param("deadline") LocalDateTime deadline);
 
+    /**
+     * 查询并锁定订单状态，与支付、取消的状态更新串行
+     */
+    @Select("<script>" +
+            "SELECT id, status FROM tb_order WHERE id IN " +
+            "<foreach collection='ids' item='id' open='(' separator=',' close=')'>#{id}</foreach>" +
+            " FOR UPDATE" +
+            "</script>")
+    List<Order> selectStatusForUpdate(@Param("ids") Collection<Long> ids);
+
     /**
      * 分页查询订单列表
      */
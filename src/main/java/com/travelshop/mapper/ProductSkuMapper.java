@@ -6,6 +6,8 @@ import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Update;
 
+import java.util.Map;
+
 /**
  * 商品规格数据访问接口
  */
@@ -42,4 +44,42 @@ public interface ProductSkuMapper extends BaseMapper<ProductSku> {
     @Update("UPDATE tb_product_sku SET stock_locked = stock_locked - #{count}, " +
             "update_time = NOW() WHERE id = #{skuId} AND stock_locked >= #{count}")
     boolean unlockStock(@Param("skuId") Long skuId, @Param("count") Integer count);
+
+    /**
+     * 批量解锁商品库存，一条语句更新多个规格
+     * @param counts 规格ID -> 解锁数量
+     * @return 更新的行数
+     */
+    @Update("<script>" +
+            "UPDATE tb_product_sku SET stock_locked = GREATEST(stock_locked - CASE id " +
+            "<foreach collection='counts' index='skuId' item='count'> WHEN #{skuId} THEN #{count} </foreach>" +
+            " END, 0), update_time = NOW() WHERE id IN " +
+            "<foreach collection='counts' index='skuId' item='count' open='(' separator=',' close=')'>#{skuId}</foreach>" +
+            "</script>")
+    int unlockStocks(@Param("counts") Map<Long, Integer> counts);
+
+    /**
+     * 批量确认已锁定的库存，一条语句更新多个规格
+     * @param counts 规格ID -> 确认数量
+     * @return 更新的行数
+     */
+    @Update("<script>" +
+            "UPDATE tb_product_sku SET stock = stock - CASE id " +
+            "<foreach collection='counts' index='skuId' item='count'> WHEN #{skuId} THEN #{count} </foreach>" +
+            " END, stock_locked = GREATEST(stock_locked - CASE id " +
+            "<foreach collection='counts' index='skuId' item='count'> WHEN #{skuId} THEN #{count} </foreach>" +
+            " END, 0), update_time = NOW() WHERE id IN " +
+            "<foreach collection='counts' index='skuId' item='count' open='(' separator=',' close=')'>#{skuId}</foreach>" +
+            "</script>")
+    int confirmLockedStocks(@Param("counts") Map<Long, Integer> counts);
+
+    /**
+     * 直接扣减可用库存（锁定已释放时使用）
+     * @param skuId 规格ID
+     * @param count 扣减数量
+     * @return 是否成功
+     */
+    @Update("UPDATE tb_product_sku SET stock = stock - #{count}, update_time = NOW() " +
+            "WHERE id = #{skuId} AND stock - stock_locked >= #{count}")
+    boolean deductStock(@Param("skuId") Long skuId, @Param("count") Integer count);
 }
\ No newline at end of file
@@ -2,8 +2,23 @@ package com.travelshop.mapper;
 
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.travelshop.entity.SeckillVoucher;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
 
 
 public interface SeckillVoucherMapper extends BaseMapper<SeckillVoucher> {
 
+    /**
+     * 批量扣减库存，库存不足时不扣减
+     */
+    @Update("UPDATE tb_seckill_voucher SET stock = stock - #{count}, update_time = NOW() " +
+            "WHERE voucher_id = #{voucherId} AND stock >= #{count}")
+    int decreaseStock(@Param("voucherId") Long voucherId, @Param("count") int count);
+
+    /**
+     * 查询并锁定库存行，需在事务中调用
+     */
+    @Select("SELECT stock FROM tb_seckill_voucher WHERE voucher_id = #{voucherId} FOR UPDATE")
+    Integer selectStockForUpdate(@Param("voucherId") Long voucherId);
 }
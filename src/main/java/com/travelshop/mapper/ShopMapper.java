@@ -2,6 +2,7 @@ package com.travelshop.mapper;
 
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.travelshop.entity.Shop;
+import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
 
 import java.util.List;
@@ -14,4 +15,19 @@ public interface ShopMapper extends BaseMapper<Shop> {
     @Select("SELECT id FROM tb_shop")
     List<Long> selectAllIds();
 
+    /**
+     * 按主键游标分页查询ID，用于流式重建布隆过滤器
+     */
+    @Select("SELECT id FROM tb_shop WHERE id > #{lastId} ORDER BY id LIMIT #{limit}")
+    List<Long> selectIdsAfter(@Param("lastId") Long lastId, @Param("limit") int limit);
+
+    @Select("SELECT COUNT(*) FROM tb_shop")
+    long countAllIds();
+
+    /**
+     * 按销量查询当前分片的热门商铺ID，用于缓存预热
+     */
+    @Select("SELECT id FROM tb_shop WHERE MOD(id, #{shardTotal}) = #{shardIndex} ORDER BY sold DESC LIMIT #{limit}")
+    List<Long> selectHotIds(@Param("shardIndex") int shardIndex, @Param("shardTotal") int shardTotal, @Param("limit") int limit);
+
 }
@@ -7,7 +7,9 @@ import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
 import org.apache.ibatis.annotations.Update;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /**
  * 门票规格数据访问层
@@ -43,9 +45,30 @@ public interface TicketSkuMapper extends BaseMapper<TicketSku> {
     int lockStock(@Param("skuId") Long skuId, @Param("count") Integer count);
 
     /**
-     * 解锁库存（订单超时未支付时使用）
+     * 锁定库存，扣除已在Redis预扣、还未写回的数量后库存仍充足时才锁定
      */
-    @Update("UPDATE tb_ticket_sku SET stock = stock + #{count}, stock_locked = stock_locked - #{count} " +
-            "WHERE id = #{skuId}")
-    Integer selectStockById(Long skuId);
+    @Update("UPDATE tb_ticket_sku SET stock = stock - #{count}, stock_locked = stock_locked + #{count} " +
+            "WHERE id = #{skuId} AND stock - #{pending} >= #{count}")
+    int lockStockExcludingPending(@Param("skuId") Long skuId, @Param("count") Integer count, @Param("pending") long pending);
+
+    /**
+     * 应用Redis预扣库存的合并结果，flush_seq 为已应用的最后一条扣减记录序号，重放时不会重复扣减
+     * 需要字段 flush_seq，见 db/migration/V1__tb_ticket_sku_flush_seq.sql
+     */
+    @Update("UPDATE tb_ticket_sku SET stock = stock - #{count}, stock_locked = stock_locked + #{count}, " +
+            "flush_seq = #{flushSeq} WHERE id = #{skuId} AND flush_seq < #{flushSeq}")
+    int applyDeduction(@Param("skuId") Long skuId, @Param("count") long count, @Param("flushSeq") long flushSeq);
+
+    /**
+     * 批量查询已应用的扣减记录序号
+     */
+    @Select("<script>SELECT id, flush_seq FROM tb_ticket_sku WHERE id IN " +
+            "<foreach collection='skuIds' item='skuId' open='(' separator=',' close=')'>#{skuId}</foreach></script>")
+    List<Map<String, Object>> selectFlushSeq(@Param("skuIds") Collection<Long> skuIds);
+
+    /**
+     * 查询可用库存
+     */
+    @Select("SELECT stock FROM tb_ticket_sku WHERE id = #{skuId}")
+    Integer selectStockById(@Param("skuId") Long skuId);
 }
\ No newline at end of file
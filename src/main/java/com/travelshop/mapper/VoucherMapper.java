@@ -16,4 +16,21 @@ public interface VoucherMapper extends BaseMapper<Voucher> {
 
     @Select("SELECT id FROM tb_voucher WHERE status = 1")
     List<Long> selectAllIds();
+
+    /**
+     * 按主键游标分页查询ID，用于流式重建布隆过滤器
+     */
+    @Select("SELECT id FROM tb_voucher WHERE status = 1 AND id > #{lastId} ORDER BY id LIMIT #{limit}")
+    List<Long> selectIdsAfter(@Param("lastId") Long lastId, @Param("limit") int limit);
+
+    @Select("SELECT COUNT(*) FROM tb_voucher WHERE status = 1")
+    long countAllIds();
+
+    /**
+     * 查询当前分片未结束的秒杀券ID，按开始时间排序，用于缓存预热
+     */
+    @Select("SELECT v.id FROM tb_voucher v JOIN tb_seckill_voucher sv ON v.id = sv.voucher_id " +
+            "WHERE v.status = 1 AND sv.end_time > NOW() AND MOD(v.id, #{shardTotal}) = #{shardIndex} " +
+            "ORDER BY sv.begin_time LIMIT #{limit}")
+    List<Long> selectHotIds(@Param("shardIndex") int shardIndex, @Param("shardTotal") int shardTotal, @Param("limit") int limit);
 }
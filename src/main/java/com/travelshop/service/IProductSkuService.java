@@ -3,6 +3,9 @@ package com.travelshop.service;
 import com.baomidou.mybatisplus.extension.service.IService;
 import com.travelshop.entity.ProductSku;
 
+import java.util.List;
+import java.util.Map;
+
 /**
  * 商品规格服务接口
  */
@@ -31,4 +34,19 @@ public interface IProductSkuService extends IService<ProductSku> {
      * @return 是否成功
      */
     boolean confirmStock(Long skuId, Integer count);
+
+    /**
+     * 释放过期的库存预留：批量解锁库存，订单仍由超时未支付订单任务取消
+     * @param reservations 订单ID -> (规格ID -> 预留数量)
+     * @return 解锁了库存的订单数
+     */
+    int releaseReservations(Map<Long, Map<Long, Integer>> reservations);
+
+    /**
+     * 支付后批量将库存预留转为实际扣减
+     * @param reserved 仍持有预留的规格ID -> 数量，从锁定库存中扣减
+     * @param released 预留已过期释放的规格ID -> 数量，从可用库存中扣减
+     * @return 可用库存不足、扣减失败的规格ID
+     */
+    List<Long> confirmReservations(Map<Long, Integer> reserved, Map<Long, Integer> released);
 }
\ No newline at end of file
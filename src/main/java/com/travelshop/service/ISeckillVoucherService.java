@@ -1,6 +1,7 @@
 package com.travelshop.service;
 
 import com.baomidou.mybatisplus.extension.service.IService;
+import com.travelshop.dto.Result;
 import com.travelshop.entity.SeckillVoucher;
 
 /**
@@ -11,4 +12,27 @@ import com.travelshop.entity.SeckillVoucher;
  */
 public interface ISeckillVoucherService extends IService<SeckillVoucher> {
 
+    /**
+     * 秒杀下单：Redis中校验库存和一人一单并扣减库存，订单通过Stream异步写入数据库
+     * @param voucherId 秒杀券ID
+     * @param userId 用户ID
+     * @return 订单ID，下单结果通过 querySeckillResult 查询
+     */
+    Result seckill(Long voucherId, Long userId);
+
+    /**
+     * 查询秒杀下单结果
+     * @param orderId 订单ID
+     * @param userId 当前用户ID
+     * @return PENDING / SUCCESS / FAILED
+     */
+    Result querySeckillResult(Long orderId, Long userId);
+
+    /**
+     * 扣减数据库库存，库存不足时扣减剩余的全部库存
+     * @param voucherId 秒杀券ID
+     * @param count 需要扣减的数量
+     * @return 实际扣减的数量
+     */
+    int decreaseStockUpTo(Long voucherId, int count);
 }
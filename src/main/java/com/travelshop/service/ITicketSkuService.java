@@ -4,6 +4,8 @@ import com.baomidou.mybatisplus.extension.service.IService;
 import com.travelshop.entity.TicketSku;
 
 import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
 
 /**
  * <p>
@@ -43,6 +45,13 @@ public interface ITicketSkuService extends IService<TicketSku> {
      */
     boolean increaseStock(Long skuId, Integer count);
 
+    /**
+     * 应用Redis预扣库存的扣减记录，每个SKU合并为一次更新，已应用过的记录跳过
+     * @param deductions 规格ID -> (扣减记录序号 -> 数量)
+     * @return 实际扣减的数量，规格ID -> 数量
+     */
+    Map<Long, Long> applyDeductions(Map<Long, SortedMap<Long, Integer>> deductions);
+
     /**
      * 检查库存是否充足
      * @param skuId 规格ID
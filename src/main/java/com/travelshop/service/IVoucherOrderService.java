@@ -4,6 +4,7 @@ import com.baomidou.mybatisplus.extension.service.IService;
 import com.travelshop.entity.VoucherOrder;
 
 import java.util.List;
+import java.util.Set;
 
 public interface IVoucherOrderService extends IService<VoucherOrder> {
 
@@ -34,4 +35,11 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
      * @return 优惠券列表
      */
     List<VoucherOrder> getUserVouchers(Long id);
-}
\ No newline at end of file
+
+    /**
+     * 批量保存秒杀订单并按优惠券合并扣减数据库库存，已存在的订单跳过
+     * @param orders 秒杀订单
+     * @return 因数据库库存不足未能保存的订单ID
+     */
+    Set<Long> saveSeckillOrders(List<VoucherOrder> orders);
+}
@@ -10,12 +10,14 @@ import com.travelshop.dto.UserDTO;
 import com.travelshop.entity.Blog;
 import com.travelshop.entity.Follow;
 import com.travelshop.entity.User;
+import com.travelshop.enums.BusinessType;
 import com.travelshop.mapper.BlogMapper;
 import com.travelshop.service.IBlogService;
 import com.travelshop.service.IFollowService;
 import com.travelshop.service.IUserService;
 import com.travelshop.utils.RedisConstants;
 import com.travelshop.utils.SystemConstants;
+import com.travelshop.utils.UnifiedCache;
 import com.travelshop.utils.UserHolder;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ZSetOperations;
@@ -25,6 +27,7 @@ import javax.annotation.Resource;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -41,6 +44,8 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     private IFollowService followService;
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private UnifiedCache unifiedCache;
 
     @Override
     public Result queryHotBlog(Integer current) {
@@ -172,12 +177,17 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
                 os=1;
             }
         }
-        //根据 查询blog
-        List<Blog> blogs=new ArrayList<>(ids.size());
-        for (Long id : ids) {
-            Blog blog = getById(id);
-            blogs.add(blog);
-        }
+        //根据id批量查询blog，缓存中的对象是共享的，复制后再设置点赞状态
+        Map<Long, Blog> blogMap = unifiedCache.queryBatch(
+                BusinessType.BLOG.getCode(),
+                BusinessType.CACHE_BLOG_KEY,
+                ids,
+                Blog.class,
+                missIds -> listByIds(missIds).stream().collect(Collectors.toMap(Blog::getId, blog -> blog))
+        );
+        List<Blog> blogs = blogMap.values().stream()
+                .map(blog -> BeanUtil.copyProperties(blog, Blog.class))
+                .collect(Collectors.toList());
         blogs.forEach(this::isBlogLiked);
         //封装 返回
         ScrollResult scrollResult = new ScrollResult();
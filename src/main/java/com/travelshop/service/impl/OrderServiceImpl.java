@@ -15,9 +15,11 @@ import com.travelshop.mapper.VoucherOrderMapper;
 import com.travelshop.service.*;
 import com.travelshop.service.strategy.ProductTypeHandler;
 import com.travelshop.service.strategy.ProductTypeHandlerFactory;
+import com.travelshop.utils.SoldOutRegistry;
 import com.travelshop.utils.UserHolder;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -44,6 +46,11 @@ public class OrderServiceImpl extends ServiceImpl<OrderMapper, Order> implements
     private final IOrderStateService orderStateService;
     private final ProductTypeHandlerFactory productTypeHandlerFactory;
     private final PaymentService paymentService;
+    private final SoldOutRegistry soldOutRegistry;
+
+    // 秒杀下单方式：redis(Redis扣减库存，订单异步写库) / db(数据库扣减库存，同步写库)
+    @Value("${seckill.mode:db}")
+    private String seckillMode;
 
 
 
@@ -382,6 +389,14 @@ public class OrderServiceImpl extends ServiceImpl<OrderMapper, Order> implements
 
     @Override
     public Result seckillVoucher(long voucherId) {
+        // 本节点已知售罄，直接拒绝
+        String soldOutKey = SoldOutRegistry.voucherKey(voucherId);
+        if (soldOutRegistry.isSoldOut(soldOutKey)) {
+            return Result.fail("库存不足");
+        }
+        if ("redis".equalsIgnoreCase(seckillMode)) {
+            return seckillVoucherService.seckill(voucherId, UserHolder.getUser().getId());
+        }
         // 1. 查询优惠券信息
         Voucher voucher = voucherService.getById(voucherId);
         if (voucher == null) {
@@ -410,6 +425,7 @@ public class OrderServiceImpl extends ServiceImpl<OrderMapper, Order> implements
 
         // 5. 判断库存是否充足
         if (seckillVoucher.getStock() < 1) {
+            soldOutRegistry.markSoldOut(soldOutKey);
             return Result.fail("库存不足");
         }
 
@@ -420,6 +436,7 @@ public class OrderServiceImpl extends ServiceImpl<OrderMapper, Order> implements
                 .gt("stock", 0)
                 .update();
         if (!success) {
+            soldOutRegistry.markSoldOut(soldOutKey);
             return Result.fail("库存不足");
         }
 
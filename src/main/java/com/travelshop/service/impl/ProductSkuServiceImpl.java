@@ -1,7 +1,9 @@
 package com.travelshop.service.impl;
 
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.travelshop.entity.Order;
 import com.travelshop.entity.ProductSku;
+import com.travelshop.mapper.OrderMapper;
 import com.travelshop.mapper.ProductSkuMapper;
 import com.travelshop.service.IProductSkuService;
 import lombok.RequiredArgsConstructor;
@@ -9,6 +11,11 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * 商品规格服务实现类
  */
@@ -18,6 +25,7 @@ import org.springframework.transaction.annotation.Transactional;
 public class ProductSkuServiceImpl extends ServiceImpl<ProductSkuMapper, ProductSku> implements IProductSkuService {
 
     private final ProductSkuMapper productSkuMapper;
+    private final OrderMapper orderMapper;
 
     @Override
     @Transactional(rollbackFor = Exception.class)
@@ -39,4 +47,41 @@ public class ProductSkuServiceImpl extends ServiceImpl<ProductSkuMapper, Product
         log.info("确认商品库存扣减: skuId={}, count={}", skuId, count);
         return productSkuMapper.confirmLockedStock(skuId, count);
     }
+
+    @Override
+    @Transactional(rollbackFor = Exception.class)
+    public int releaseReservations(Map<Long, Map<Long, Integer>> reservations) {
+        if (reservations.isEmpty()) {
+            return 0;
+        }
+        // 1. 锁定订单行，支付和取消对同一订单的状态更新在本事务提交后才能进行
+        List<Order> orders = orderMapper.selectStatusForUpdate(reservations.keySet());
+
+        // 2. 预留归属于本次释放，只要订单存在就解锁库存(订单创建回滚留下的预留没有对应订单，不解锁)
+        // 订单本身不在这里取消，由超时未支付订单任务走完整的取消流程(门票、优惠券等订单项的处理)
+        Map<Long, Integer> unlockCounts = new HashMap<>();
+        for (Order order : orders) {
+            reservations.get(order.getId()).forEach((skuId, count) -> unlockCounts.merge(skuId, count, Integer::sum));
+        }
+        if (!unlockCounts.isEmpty()) {
+            productSkuMapper.unlockStocks(unlockCounts);
+        }
+        log.info("释放过期库存预留: 订单{}个, 规格{}个", orders.size(), unlockCounts.size());
+        return orders.size();
+    }
+
+    @Override
+    @Transactional(rollbackFor = Exception.class)
+    public List<Long> confirmReservations(Map<Long, Integer> reserved, Map<Long, Integer> released) {
+        if (!reserved.isEmpty()) {
+            productSkuMapper.confirmLockedStocks(reserved);
+        }
+        List<Long> failedSkuIds = new ArrayList<>();
+        for (Map.Entry<Long, Integer> entry : released.entrySet()) {
+            if (!productSkuMapper.deductStock(entry.getKey(), entry.getValue())) {
+                failedSkuIds.add(entry.getKey());
+            }
+        }
+        return failedSkuIds;
+    }
 }
\ No newline at end of file
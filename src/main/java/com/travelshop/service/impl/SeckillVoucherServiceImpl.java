@@ -1,15 +1,41 @@
 package com.travelshop.service.impl;
 
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.travelshop.dto.Result;
 import com.travelshop.entity.SeckillVoucher;
+import com.travelshop.entity.Voucher;
+import com.travelshop.entity.VoucherOrder;
 import com.travelshop.mapper.SeckillVoucherMapper;
+import com.travelshop.mapper.VoucherMapper;
+import com.travelshop.mapper.VoucherOrderMapper;
 import com.travelshop.service.ISeckillVoucherService;
+import com.travelshop.utils.DistributedLock;
+import com.travelshop.utils.RedisIdWorker;
+import com.travelshop.utils.SoldOutRegistry;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisZSetCommands.Limit;
+import org.springframework.data.redis.connection.stream.MapRecord;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.travelshop.utils.RedisConstants.SECKILL_ORDER_STREAM;
+import static com.travelshop.utils.RedisConstants.SECKILL_RESULT_KEY;
+import static com.travelshop.utils.RedisConstants.SECKILL_STOCK_KEY;
+import static com.travelshop.utils.RedisConstants.SECKILL_STOCK_LOCK_KEY;
 
 
 @Service
@@ -17,7 +43,28 @@ import org.springframework.stereotype.Service;
 @RequiredArgsConstructor
 public class SeckillVoucherServiceImpl extends ServiceImpl<SeckillVoucherMapper, SeckillVoucher> implements ISeckillVoucherService {
 
+    public static final String RESULT_PENDING = "PENDING";
+    public static final String RESULT_SUCCESS = "SUCCESS";
+    public static final String RESULT_FAILED = "FAILED";
+
+    // 脚本返回值
+    private static final long SECKILL_OK = 0;
+    private static final long SECKILL_NO_STOCK = 1;
+    private static final long SECKILL_REPEAT = 2;
+    private static final long SECKILL_STOCK_NOT_LOADED = 3;
+
     private final StringRedisTemplate stringRedisTemplate;
+    private final RedisIdWorker redisIdWorker;
+    private final VoucherOrderMapper voucherOrderMapper;
+    private final VoucherMapper voucherMapper;
+    private final SoldOutRegistry soldOutRegistry;
+    private final DistributedLock distributedLock;
+
+    // 秒杀时间窗口本地缓存，避免每次下单都查询数据库
+    private final Cache<Long, SeckillVoucher> seckillVoucherCache = Caffeine.newBuilder()
+            .maximumSize(1000)
+            .expireAfterWrite(30, TimeUnit.SECONDS)
+            .build();
 
     // 定义脚本变量
     private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
@@ -31,5 +78,146 @@ public class SeckillVoucherServiceImpl extends ServiceImpl<SeckillVoucherMapper,
         SECKILL_SCRIPT.setResultType(Long.class);
     }
 
+    @Override
+    public Result seckill(Long voucherId, Long userId) {
+        // 1. 校验秒杀时间
+        SeckillVoucher seckillVoucher = seckillVoucherCache.get(voucherId, this::loadSeckillVoucher);
+        if (seckillVoucher == null) {
+            return Result.fail("秒杀券不存在");
+        }
+        LocalDateTime now = LocalDateTime.now();
+        if (now.isBefore(seckillVoucher.getBeginTime())) {
+            return Result.fail("秒杀未开始");
+        }
+        if (now.isAfter(seckillVoucher.getEndTime())) {
+            return Result.fail("秒杀已结束");
+        }
+
+        // 2. 一次脚本调用完成库存校验、一人一单校验、扣减库存和发送订单消息
+        long orderId = redisIdWorker.nextId("order");
+        long code = executeSeckill(voucherId, userId, orderId);
+        if (code == SECKILL_STOCK_NOT_LOADED) {
+            // 库存未加载到Redis(如Redis数据丢失)，用数据库库存初始化后重试一次
+            loadStock(voucherId);
+            code = executeSeckill(voucherId, userId, orderId);
+        }
+        if (code == SECKILL_NO_STOCK) {
+            soldOutRegistry.markSoldOut(SoldOutRegistry.voucherKey(voucherId));
+            return Result.fail("库存不足");
+        }
+        if (code == SECKILL_REPEAT) {
+            return Result.fail("不能重复下单");
+        }
+        if (code != SECKILL_OK) {
+            return Result.fail("秒杀失败，请稍后重试");
+        }
+        // 3. 返回订单ID，客户端轮询下单结果
+        return Result.ok(orderId);
+    }
+
+    private long executeSeckill(Long voucherId, Long userId, long orderId) {
+        Long result = stringRedisTemplate.execute(SECKILL_SCRIPT, Collections.emptyList(),
+                voucherId.toString(), userId.toString(), String.valueOf(orderId));
+        return result == null ? -1 : result;
+    }
+
+    /**
+     * 查询秒杀券，优惠券不存在或不是秒杀券(type=2)时返回null
+     */
+    private SeckillVoucher loadSeckillVoucher(Long voucherId) {
+        Voucher voucher = voucherMapper.selectById(voucherId);
+        if (voucher == null || voucher.getType() == null || voucher.getType() != 2) {
+            return null;
+        }
+        return getById(voucherId);
+    }
 
+    /**
+     * 用数据库库存初始化Redis库存
+     * Stream中还未写库的订单已在Redis扣过库存、数据库尚未扣减，需要从数据库库存中减去。
+     * 先统计在途订单再查库存：期间写库的订单会被多减一次(少卖)，反过来则会多算库存(超卖)。
+     * 与库存对账修复使用同一把锁，未获取到锁时不加载，本次下单按失败处理
+     */
+    private void loadStock(Long voucherId) {
+        String lockKey = SECKILL_STOCK_LOCK_KEY + voucherId;
+        if (!distributedLock.tryLock(lockKey, 10)) {
+            return;
+        }
+        try {
+            long inflight = countInflightOrders(voucherId);
+            SeckillVoucher seckillVoucher = getById(voucherId);
+            if (seckillVoucher == null) {
+                return;
+            }
+            long stock = Math.max(seckillVoucher.getStock() - inflight, 0);
+            Boolean loaded = stringRedisTemplate.opsForValue()
+                    .setIfAbsent(SECKILL_STOCK_KEY + voucherId, String.valueOf(stock));
+            if (Boolean.TRUE.equals(loaded)) {
+                log.warn("秒杀券{}的Redis库存不存在，已从数据库加载：{}，扣除在途订单{}个", voucherId, stock, inflight);
+            }
+        } finally {
+            distributedLock.unlock(lockKey);
+        }
+    }
+
+    /**
+     * 统计Stream中该秒杀券还未写库的订单数，写库后的消息会被删除
+     */
+    private long countInflightOrders(Long voucherId) {
+        String id = voucherId.toString();
+        long count = 0;
+        Range<String> range = Range.unbounded();
+        while (true) {
+            List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream()
+                    .range(SECKILL_ORDER_STREAM, range, Limit.limit().count(1000));
+            if (records == null || records.isEmpty()) {
+                return count;
+            }
+            for (MapRecord<String, Object, Object> record : records) {
+                if (id.equals(String.valueOf(record.getValue().get("voucherId")))) {
+                    count++;
+                }
+            }
+            if (records.size() < 1000) {
+                return count;
+            }
+            String last = records.get(records.size() - 1).getId().getValue();
+            range = Range.of(Range.Bound.exclusive(last), Range.Bound.unbounded());
+        }
+    }
+
+    @Override
+    public Result querySeckillResult(Long orderId, Long userId) {
+        Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(SECKILL_RESULT_KEY + orderId);
+        Map<String, Object> result = new HashMap<>();
+        result.put("orderId", orderId);
+        if (entries.isEmpty()) {
+            // 结果已过期，以数据库中的订单为准
+            VoucherOrder voucherOrder = voucherOrderMapper.selectById(orderId);
+            if (voucherOrder == null || !voucherOrder.getUserId().equals(userId)) {
+                return Result.fail("订单不存在");
+            }
+            result.put("status", RESULT_SUCCESS);
+            result.put("voucherId", voucherOrder.getVoucherId());
+            return Result.ok(result);
+        }
+        if (!userId.toString().equals(entries.get("userId"))) {
+            return Result.fail("订单不存在");
+        }
+        result.put("status", entries.get("status"));
+        result.put("voucherId", Long.valueOf(entries.get("voucherId").toString()));
+        return Result.ok(result);
+    }
+
+    @Override
+    @Transactional(rollbackFor = Exception.class)
+    public int decreaseStockUpTo(Long voucherId, int count) {
+        // 锁定库存行后按剩余库存扣减，事务提交前其他扣减等待
+        Integer stock = baseMapper.selectStockForUpdate(voucherId);
+        int deducted = stock == null ? 0 : Math.min(count, Math.max(stock, 0));
+        if (deducted > 0 && baseMapper.decreaseStock(voucherId, deducted) == 0) {
+            return 0;
+        }
+        return deducted;
+    }
 }
@@ -5,6 +5,7 @@ import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.travelshop.dto.Result;
 import com.travelshop.entity.Shop;
+import com.travelshop.enums.BusinessType;
 import com.travelshop.mapper.ShopMapper;
 import com.travelshop.service.IShopService;
 import com.travelshop.utils.SystemConstants;
@@ -19,9 +20,9 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
+import java.time.LocalDateTime;
 import java.util.*;
 
-import static com.travelshop.utils.RedisConstants.CACHE_SHOP_KEY;
 import static com.travelshop.utils.RedisConstants.SHOP_GEO_KEY;
 
 /**
@@ -38,7 +39,7 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
 
     @Override
     public Result queryById(Long id) {
-        Shop shop = cache.getFromLogicalCache(CACHE_SHOP_KEY + id, Shop.class);
+        Shop shop = cache.getFromLogicalCache(BusinessType.SHOP.buildCacheKey(id), Shop.class);
         if (shop == null) {
             return Result.fail("店铺不存在");
         }
@@ -51,10 +52,12 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         if (id == null) {
             return Result.fail("id不能为空");
         }
+        //更新时间精确到秒，与数据库中的值一致，作为缓存版本
+        shop.setUpdateTime(LocalDateTime.now().withNano(0));
         //更新数据库
         updateById(shop);
-        //删除缓存
-        stringRedisTemplate.delete(CACHE_SHOP_KEY + shop.getId());
+        //删除缓存并记录新版本，并发重建读到的旧数据不会再写回
+        cache.deleteCache(BusinessType.SHOP.buildCacheKey(id), UnifiedCache.versionOf(shop));
         return Result.ok();
     }
 
@@ -19,7 +19,6 @@ import org.springframework.transaction.annotation.Transactional;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.concurrent.ThreadLocalRandom;
-import java.util.concurrent.TimeUnit;
 
 @Slf4j
 @Service
@@ -145,21 +144,15 @@ public class TicketServiceImpl extends ServiceImpl<TicketMapper, Ticket> impleme
         // 1. 判断是否热门门票
         boolean isHot = heatManager.isHotTicket(id);
 
-        // 2. 根据热度选择不同缓存参数
+        // 2. 查询，热门门票使用逻辑过期，缓存时间由门票缓存策略决定
         String keyPrefix = "cache:ticket";
-        long timeout = isHot ? 30L : 10L;
-        boolean useLogicalExpire = isHot; // 热门门票使用逻辑过期
-
-        // 3. 查询
-        Ticket ticket = unifiedCache.queryWithBloomFilter(
+        Ticket ticket = unifiedCache.queryWithHeatAware(
                 "ticket",
                 keyPrefix,
                 id,
                 Ticket.class,
                 this::getById,
-                useLogicalExpire,
-                timeout,
-                TimeUnit.MINUTES
+                isHot
         );
 
         // 4. 记录访问以更新热度
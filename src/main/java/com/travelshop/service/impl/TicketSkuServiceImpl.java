@@ -4,12 +4,16 @@ import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.travelshop.entity.TicketSku;
 import com.travelshop.mapper.TicketSkuMapper;
 import com.travelshop.service.ITicketSkuService;
+import com.travelshop.utils.SoldOutRegistry;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
 
 /**
  * <p>
@@ -21,6 +25,8 @@ import java.util.List;
 @RequiredArgsConstructor
 public class TicketSkuServiceImpl extends ServiceImpl<TicketSkuMapper, TicketSku> implements ITicketSkuService {
 
+    private final SoldOutRegistry soldOutRegistry;
+
     @Override
     public List<TicketSku> queryByTicketId(Long ticketId) {
         if (ticketId == null) {
@@ -81,9 +87,38 @@ public class TicketSkuServiceImpl extends ServiceImpl<TicketSkuMapper, TicketSku
 
         // 增加库存（退款时使用）
         int affected = baseMapper.increaseStock(skuId, count);
+        if (affected > 0) {
+            soldOutRegistry.reset(SoldOutRegistry.ticketSkuKey(skuId));
+        }
         return affected > 0;
     }
 
+    @Override
+    @Transactional(rollbackFor = Exception.class)
+    public Map<Long, Long> applyDeductions(Map<Long, SortedMap<Long, Integer>> deductions) {
+        Map<Long, Long> applied = new HashMap<>();
+        if (deductions.isEmpty()) {
+            return applied;
+        }
+        Map<Long, Long> flushed = new HashMap<>();
+        for (Map<String, Object> row : baseMapper.selectFlushSeq(deductions.keySet())) {
+            flushed.put(((Number) row.get("id")).longValue(), ((Number) row.get("flush_seq")).longValue());
+        }
+        for (Map.Entry<Long, SortedMap<Long, Integer>> entry : deductions.entrySet()) {
+            Long skuId = entry.getKey();
+            // 只应用序号大于已应用序号的记录
+            SortedMap<Long, Integer> pending = entry.getValue().tailMap(flushed.getOrDefault(skuId, 0L) + 1);
+            if (pending.isEmpty()) {
+                continue;
+            }
+            long count = pending.values().stream().mapToLong(Integer::longValue).sum();
+            if (baseMapper.applyDeduction(skuId, count, pending.lastKey()) > 0) {
+                applied.put(skuId, count);
+            }
+        }
+        return applied;
+    }
+
     @Override
     public boolean checkStock(Long skuId, Integer count) {
         if (skuId == null || count == null || count <= 0) {
@@ -7,17 +7,23 @@ import com.travelshop.entity.TicketSku;
 import com.travelshop.mapper.TicketMapper;
 import com.travelshop.mapper.TicketSkuMapper;
 import com.travelshop.service.TicketStockService;
+import com.travelshop.dto.UserDTO;
+import com.travelshop.utils.SegmentedStock;
+import com.travelshop.utils.SoldOutRegistry;
 import com.travelshop.utils.TicketHeatManager;
+import com.travelshop.utils.TicketStockWriteBehind;
+import com.travelshop.utils.UserHolder;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.core.io.ClassPathResource;
-import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PostConstruct;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
 
 @Service
 @Slf4j
@@ -27,7 +33,11 @@ public class TicketStockServiceImpl extends ServiceImpl<TicketMapper, Ticket> im
     private final TicketMapper ticketMapper;
     private final TicketSkuMapper ticketSkuMapper;
     private final TicketHeatManager heatManager;
-    private final RedisTemplate redisTemplate;
+    // 与Lua脚本共用字符串序列化，默认RedisTemplate的JDK序列化会让脚本读不出数字
+    private final StringRedisTemplate redisTemplate;
+    private final SoldOutRegistry soldOutRegistry;
+    private final SegmentedStock segmentedStock;
+    private final TicketStockWriteBehind stockWriteBehind;
     private DefaultRedisScript<Long> stockScript;
 
     @PostConstruct
@@ -49,16 +59,25 @@ public class TicketStockServiceImpl extends ServiceImpl<TicketMapper, Ticket> im
             // 获取门票下的所有SKU
             List<TicketSku> skuList = ticketSkuMapper.queryByTicketId(ticketId);
             for (TicketSku sku : skuList) {
-                String stockKey = "ticket:stock:" + sku.getId();
-                // 将库存加载到Redis
-                redisTemplate.opsForValue().set(stockKey, sku.getStock().toString());
-                log.info("预热门票[{}]的SKU[{}]库存: {}", ticketId, sku.getId(), sku.getStock());
+                if (segmentedStock.segmentsOf(sku.getId()) > 0) {
+                    // 已拆分为分段库存，库存在各分段中
+                    continue;
+                }
+                // 将库存加载到Redis，已加载的库存不覆盖
+                if (loadSingleStock(sku.getId())) {
+                    log.info("预热门票[{}]的SKU[{}]库存", ticketId, sku.getId());
+                }
             }
         }
     }
 
     @Override
     public boolean lockStock(Long skuId, Integer count) {
+        // 本节点已知售罄，直接拒绝
+        String soldOutKey = SoldOutRegistry.ticketSkuKey(skuId);
+        if (soldOutRegistry.isSoldOut(soldOutKey)) {
+            return false;
+        }
         // 根据skuId获取门票ID
         TicketSku sku = ticketSkuMapper.selectById(skuId);
         if (sku == null) return false;
@@ -66,43 +85,98 @@ public class TicketStockServiceImpl extends ServiceImpl<TicketMapper, Ticket> im
         boolean isHot = heatManager.isHotTicket(sku.getTicketId());
 
         if (isHot) {
-            // 热门门票使用Redis预减库存
-            String stockKey = "ticket:stock:" + skuId;
-
-            // 检查库存是否已预加载
-            Boolean hasKey = redisTemplate.hasKey(stockKey);
-            if (Boolean.FALSE.equals(hasKey)) {
-                // 如未预加载则实时加载
-                Integer stock = ticketSkuMapper.selectStockById(skuId);
-                if (stock == null || stock < count) {
-                    return false;
+            segmentedStock.record(skuId);
+            if (segmentedStock.segmentsOf(skuId) > 0) {
+                // 访问量极高的SKU使用分段库存
+                long remaining = lockSegmentedStock(skuId, count);
+                if (remaining != SegmentedStock.NOT_LOADED || segmentedStock.segmentsOf(skuId) > 0) {
+                    return remaining >= 0;
                 }
-                // 设置到Redis
-                redisTemplate.opsForValue().set(stockKey, stock.toString());
+                // 分段已合并回单key，按单key扣减
+            }
+
+            // 热门门票使用Redis预减库存
+            String stockKey = SegmentedStock.SINGLE_KEY_PREFIX + skuId;
+
+            // 检查库存是否已预加载，如未预加载则实时加载
+            if (Boolean.FALSE.equals(redisTemplate.hasKey(stockKey)) && !loadSingleStock(skuId)) {
+                // 其他节点刚拆分为分段库存，或正在拆分/合并
+                return segmentedStock.segmentsOf(skuId) > 0 && lockSegmentedStock(skuId, count) >= 0;
             }
 
             // 执行库存校验和预减的Lua脚本
-            Object result = redisTemplate.execute(
+            Long result = redisTemplate.execute(
                     stockScript,
                     Collections.singletonList(stockKey),
                     count.toString()
             );
 
-            if (result != null && (Long) result == 1) {
+            // 脚本返回扣减后的剩余库存，-1表示已售罄，-2表示库存不足以扣减本次数量，-3表示库存未加载
+            long remaining = result == null ? SegmentedStock.INSUFFICIENT : result;
+            if (remaining == 0 || remaining == -1) {
+                soldOutRegistry.markSoldOut(soldOutKey);
+            }
+            if (remaining >= 0) {
                 // 异步更新数据库
                 asyncUpdateStock(skuId, count);
                 return true;
             }
             return false;
         } else {
-            // 普通门票直接操作数据库
-            return ticketSkuMapper.lockStock(skuId, count) > 0;
+            // 普通门票直接操作数据库，刚从热门降级时还有写回中的预扣数量
+            long pending = stockWriteBehind.pendingCount(skuId);
+            if (ticketSkuMapper.lockStockExcludingPending(skuId, count, pending) > 0) {
+                return true;
+            }
+            Integer stock = ticketSkuMapper.selectStockById(skuId);
+            if (stock != null && stock - pending <= 0) {
+                soldOutRegistry.markSoldOut(soldOutKey);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 分段扣减，按用户哈希选择分段，全部分段售罄时标记售罄
+     */
+    private long lockSegmentedStock(Long skuId, Integer count) {
+        UserDTO user = UserHolder.getUser();
+        long routing = user != null ? user.getId() : ThreadLocalRandom.current().nextLong();
+        long remaining = segmentedStock.decrease(skuId, count, routing);
+        if (remaining == SegmentedStock.SOLD_OUT) {
+            soldOutRegistry.markSoldOut(SoldOutRegistry.ticketSkuKey(skuId));
+        }
+        if (remaining >= 0) {
+            asyncUpdateStock(skuId, count);
+        }
+        return remaining;
+    }
+
+    /**
+     * 从数据库加载单key库存，扣除写回中的预扣数量(先读预扣数量再读库存)，已加载的库存不覆盖
+     * 持有分段库存锁并确认未拆分后再写入，避免拆分取走单key后又被重新加载，库存同时存在于单key和分段中
+     * @return 是否已加载，已拆分为分段库存或其他节点正在拆分/合并时返回false
+     */
+    private boolean loadSingleStock(Long skuId) {
+        if (!segmentedStock.tryLock(skuId)) {
+            return false;
+        }
+        try {
+            if (segmentedStock.refresh(skuId) > 0) {
+                return false;
+            }
+            long pending = stockWriteBehind.pendingCount(skuId);
+            Integer dbStock = ticketSkuMapper.selectStockById(skuId);
+            long stock = Math.max((dbStock == null ? 0 : dbStock) - pending, 0);
+            redisTemplate.opsForValue().setIfAbsent(SegmentedStock.SINGLE_KEY_PREFIX + skuId, String.valueOf(stock));
+            return true;
+        } finally {
+            segmentedStock.unlock(skuId);
         }
     }
 
     private void asyncUpdateStock(Long skuId, Integer count) {
-        // 异步更新数据库库存
-        // 这里可以使用消息队列或线程池等方式异步更新数据库
-        log.info("异步更新SKU[{}]库存: -{}", skuId, count);
+        // 记录扣减，由写回任务按SKU合并后异步更新数据库
+        stockWriteBehind.append(skuId, count);
     }
 }
\ No newline at end of file
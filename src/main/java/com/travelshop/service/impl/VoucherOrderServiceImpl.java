@@ -5,19 +5,27 @@ import com.travelshop.entity.VoucherOrder;
 import com.travelshop.mapper.VoucherOrderMapper;
 import com.travelshop.service.ISeckillVoucherService;
 import com.travelshop.service.IVoucherOrderService;
+import com.travelshop.utils.SoldOutRegistry;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 @Service
 @Slf4j
 @RequiredArgsConstructor
 public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, VoucherOrder> implements IVoucherOrderService {
     private final ISeckillVoucherService seckillVoucherService;
+    private final SoldOutRegistry soldOutRegistry;
 
 
     @Override
@@ -45,6 +53,8 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
                 .eq("voucher_id", voucherOrder.getVoucherId())
                 .update();
 
+        soldOutRegistry.reset(SoldOutRegistry.voucherKey(voucherOrder.getVoucherId()));
+
         // 更新状态
         return baseMapper.updateStatusToRefunded(id, LocalDateTime.now()) > 0;
     }
@@ -52,4 +62,39 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     public List<VoucherOrder> getUserVouchers(Long userId) {
         return baseMapper.getUserVouchers(userId);
     }
-}
\ No newline at end of file
+
+    @Override
+    @Transactional(rollbackFor = Exception.class)
+    public Set<Long> saveSeckillOrders(List<VoucherOrder> orders) {
+        Set<Long> failed = new HashSet<>();
+        if (orders.isEmpty()) {
+            return failed;
+        }
+        // 消息重复投递时订单可能已经写入，跳过已存在的订单，库存也不再扣减
+        Set<Long> existing = listByIds(orders.stream().map(VoucherOrder::getId).collect(Collectors.toList()))
+                .stream().map(VoucherOrder::getId).collect(Collectors.toSet());
+        Map<Long, List<VoucherOrder>> byVoucher = new LinkedHashMap<>();
+        for (VoucherOrder order : orders) {
+            if (!existing.contains(order.getId())) {
+                byVoucher.computeIfAbsent(order.getVoucherId(), k -> new ArrayList<>()).add(order);
+            }
+        }
+
+        List<VoucherOrder> toSave = new ArrayList<>();
+        for (Map.Entry<Long, List<VoucherOrder>> entry : byVoucher.entrySet()) {
+            List<VoucherOrder> voucherOrders = entry.getValue();
+            // 同一优惠券的订单合并为一次扣减，库存不足时按Stream顺序成交剩余库存，只有超出的订单失败
+            int deducted = seckillVoucherService.decreaseStockUpTo(entry.getKey(), voucherOrders.size());
+            toSave.addAll(voucherOrders.subList(0, deducted));
+            if (deducted < voucherOrders.size()) {
+                log.error("秒杀券{}数据库库存不足，Redis库存与数据库不一致，{}个订单失败",
+                        entry.getKey(), voucherOrders.size() - deducted);
+                voucherOrders.subList(deducted, voucherOrders.size()).forEach(order -> failed.add(order.getId()));
+            }
+        }
+        if (!toSave.isEmpty()) {
+            saveBatch(toSave);
+        }
+        return failed;
+    }
+}
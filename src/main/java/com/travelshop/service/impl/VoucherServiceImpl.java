@@ -1,6 +1,7 @@
 package com.travelshop.service.impl;
 
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.travelshop.dto.Result;
 import com.travelshop.entity.SeckillVoucher;
 import com.travelshop.entity.Voucher;
@@ -39,7 +40,7 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
                 "shop",
                 BusinessType.CACHE_SHOP_KEY,
                 shopId,
-                List.class,  // 这里只能指定为List.class，无法直接指定泛型
+                new TypeReference<List<Voucher>>() {},
                 id -> getBaseMapper().queryVoucherOfShop(shopId),
                 false,
                 30L,
@@ -10,6 +10,7 @@ import com.travelshop.mapper.ProductSkuMapper;
 import com.travelshop.service.IProductService;
 import com.travelshop.service.IProductSkuService;
 import com.travelshop.service.strategy.ProductTypeHandler;
+import com.travelshop.utils.StockReservation;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
@@ -25,6 +26,7 @@ public class GeneralProductHandler implements ProductTypeHandler {
     private final IProductService productService;
     private final IProductSkuService productSkuService;
     private final ProductSkuMapper productSkuMapper;
+    private final StockReservation stockReservation;
 
     @Override
     public ProductType getProductType() {
@@ -87,21 +89,17 @@ public class GeneralProductHandler implements ProductTypeHandler {
                     item.getProductId(), item.getSkuId(), item.getCount());
             throw new RuntimeException("锁定商品库存失败");
         }
+
+        // 写入库存预留，超时未支付时自动释放
+        stockReservation.reserve(order.getId(), item.getSkuId(), item.getCount());
     }
 
     @Override
     public void processAfterPayment(Order order, OrderItem item) {
-        // 1. 支付成功后，实际扣减库存（如果没有在创建订单时预扣）
-        log.info("支付成功，扣减商品库存: productId={}, skuId={}, count={}",
+        // 1. 锁定的库存已在支付事件中通过库存预留批量转为实际扣减
+        log.info("支付成功，商品库存已确认扣减: productId={}, skuId={}, count={}",
                 item.getProductId(), item.getSkuId(), item.getCount());
 
-        // 如果已经锁定库存，则将锁定状态改为已扣减
-        boolean success = productSkuMapper.confirmLockedStock(item.getSkuId(), item.getCount());
-        if (!success) {
-            log.error("更新商品库存状态失败: productId={}, skuId={}, count={}",
-                    item.getProductId(), item.getSkuId(), item.getCount());
-        }
-
         // 2. 更新商品销量
         productService.increaseSales(item.getProductId(), item.getCount());
 
@@ -113,8 +111,9 @@ public class GeneralProductHandler implements ProductTypeHandler {
         log.info("取消订单，恢复商品库存: productId={}, skuId={}, count={}",
                 item.getProductId(), item.getSkuId(), item.getCount());
 
-        // 释放锁定的库存
-        boolean success = productSkuMapper.unlockStock(item.getSkuId(), item.getCount());
+        // 释放锁定的库存，预留已过期释放的部分不再重复解锁，没有预留记录时按订单项数量解锁
+        int count = stockReservation.cancel(order.getId(), item.getSkuId(), item.getCount());
+        boolean success = count == 0 || productSkuMapper.unlockStock(item.getSkuId(), count);
         if (!success) {
             log.error("恢复商品库存失败: productId={}, skuId={}, count={}",
                     item.getProductId(), item.getSkuId(), item.getCount());
@@ -8,6 +8,7 @@ import com.travelshop.service.ITicketService;
 import com.travelshop.service.ITicketSkuService;
 import com.travelshop.service.ITicketUsageService;
 import com.travelshop.service.strategy.ProductTypeHandler;
+import com.travelshop.utils.SoldOutRegistry;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Component;
 
@@ -25,6 +26,7 @@ public class TicketProductHandler implements ProductTypeHandler {
     private final ITicketSkuService ticketSkuService;
     private final ITicketUsageService ticketUsageService;
     private final TicketSkuMapper ticketSkuMapper;
+    private final SoldOutRegistry soldOutRegistry;
 
     @Override
     public ProductType getProductType() {
@@ -100,6 +102,7 @@ public class TicketProductHandler implements ProductTypeHandler {
     public void processAfterCancellation(Order order, OrderItem item) {
         // 恢复门票库存
         ticketSkuMapper.increaseStock(item.getSkuId(), item.getCount());
+        soldOutRegistry.reset(SoldOutRegistry.ticketSkuKey(item.getSkuId()));
         // 更新门票使用记录状态
         ticketUsageService.markAsRefunded(order.getId());
     }
@@ -8,6 +8,7 @@ import com.travelshop.service.ISeckillVoucherService;
 import com.travelshop.service.IVoucherOrderService;
 import com.travelshop.service.IVoucherService;
 import com.travelshop.service.strategy.ProductTypeHandler;
+import com.travelshop.utils.SoldOutRegistry;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Component;
 
@@ -25,6 +26,7 @@ public class VoucherProductHandler implements ProductTypeHandler {
     private final IVoucherOrderService voucherOrderService;
     private final ISeckillVoucherService seckillVoucherService;
     private final VoucherOrderMapper voucherOrderMapper;
+    private final SoldOutRegistry soldOutRegistry;
 
     @Override
     public ProductType getProductType() {
@@ -107,6 +109,7 @@ public class VoucherProductHandler implements ProductTypeHandler {
                     .setSql("stock = stock + " + item.getCount())
                     .eq("voucher_id", item.getProductId())
                     .update();
+            soldOutRegistry.reset(SoldOutRegistry.voucherKey(item.getProductId()));
         }
 
         // 更新优惠券订单状态
@@ -2,71 +2,224 @@ package com.travelshop.utils;
 
 import com.travelshop.enums.BusinessType;
 import lombok.extern.slf4j.Slf4j;
-import org.redisson.api.RBloomFilter;
-import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationContext;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.BitFieldSubCommands;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * 布隆过滤器
+ * Redis中使用计数布隆过滤器（BITFIELD u4）作为跨节点的数据源，支持真正的删除；
+ * 每个节点在本地维护一份镜像，读路径只查询本地镜像
+ */
 @Slf4j
 @Component
 public class BloomFilter {
 
     private final StringRedisTemplate stringRedisTemplate;
-    private final RedissonClient redissonClient;
     private final ApplicationContext applicationContext;
+    private final CacheMessage cacheMessageService;
+    private final DistributedLock distributedLock;
+    private final CachePolicyRegistry cachePolicyRegistry;
+    private final CacheExecutors cacheExecutors;
+
+    private static final DefaultRedisScript<Long> ADD_SCRIPT;
+    private static final DefaultRedisScript<Long> REMOVE_SCRIPT;
+    private static final DefaultRedisScript<Long> SWITCH_SCRIPT;
+
+    static {
+        ADD_SCRIPT = new DefaultRedisScript<>();
+        ADD_SCRIPT.setLocation(new ClassPathResource("counting_bloom_add.lua"));
+        ADD_SCRIPT.setResultType(Long.class);
+
+        REMOVE_SCRIPT = new DefaultRedisScript<>();
+        REMOVE_SCRIPT.setLocation(new ClassPathResource("counting_bloom_remove.lua"));
+        REMOVE_SCRIPT.setResultType(Long.class);
+
+        SWITCH_SCRIPT = new DefaultRedisScript<>();
+        SWITCH_SCRIPT.setLocation(new ClassPathResource("counting_bloom_switch.lua"));
+        SWITCH_SCRIPT.setResultType(Long.class);
+    }
 
-    private static final ScheduledExecutorService CACHE_REBUILD_EXECUTOR = Executors.newScheduledThreadPool(10);
-
-    // 布隆过滤器集合
-    private final Map<String, RBloomFilter<String>> bloomFilters = new ConcurrentHashMap<>();
-    // 记录已删除的key
-    private final Set<String> deletedKeys = new HashSet<>();
+    // 本地计数布隆过滤器镜像，读路径只查本地
+    private final Map<String, CountingBloomFilter> localFilters = new ConcurrentHashMap<>();
+    // 重建期间本地镜像的新增/删除按发生顺序记录，重建完成后按原顺序回放到新的本地过滤器
+    private final Map<String, List<PendingOp>> rebuildPendingOps = new HashMap<>();
+    // 本地镜像更新与重建切换互斥，保证回放和替换之间没有丢失的更新
+    private final Map<String, Object> localUpdateLocks = new ConcurrentHashMap<>();
+    // 布隆过滤器新增/删除元素的广播操作类型
+    public static final String BLOOM_ADD_OPERATION = "bloomAdd";
+    private static final String BLOOM_REMOVE_OPERATION = "bloomRemove";
     // 布隆过滤器统计信息的key前缀
     private static final String BLOOM_STATS_PREFIX = "bloom:stats:";
-    // 布隆过滤器名称前缀
-    private static final String BLOOM_FILTER_PREFIX = "bloom:filter:";
+    // 计数布隆过滤器名称前缀，元数据存放在 {name}:meta
+    private static final String BLOOM_FILTER_PREFIX = "bloom:cbf:";
+    private static final String BLOOM_META_SUFFIX = ":meta";
+    // 重建时使用的影子过滤器后缀
+    private static final String BLOOM_SHADOW_SUFFIX = ":shadow";
+    private static final String BLOOM_REBUILD_LOCK_PREFIX = "bloom:rebuild:lock:";
+    private static final long REBUILD_LOCK_SECONDS = 600;
+    // 重建时每批加载的ID数量
+    private static final int REBUILD_BATCH_SIZE = 1000;
+    private static final BitFieldSubCommands.BitFieldType COUNTER_TYPE = BitFieldSubCommands.BitFieldType.unsigned(4);
     // 重建状态
     private final Map<String, Boolean> rebuildingStatus = new ConcurrentHashMap<>();
+    // 本地统计计数，key为业务编码，每个业务一组计数器，启动时创建
+    private final Map<String, LocalStats> localStats = new ConcurrentHashMap<>();
+    // 本地统计刷新到Redis的间隔(秒)
+    @Value("${bloom.stats.flush-interval-seconds:5}")
+    private long statsFlushIntervalSeconds;
 
 
 
-    public BloomFilter(StringRedisTemplate stringRedisTemplate, RedissonClient redissonClient,
-                       ApplicationContext applicationContext) {
+    public BloomFilter(StringRedisTemplate stringRedisTemplate, ApplicationContext applicationContext,
+                       CacheMessage cacheMessageService, DistributedLock distributedLock,
+                       CachePolicyRegistry cachePolicyRegistry, CacheExecutors cacheExecutors) {
         this.stringRedisTemplate = stringRedisTemplate;
-        this.redissonClient = redissonClient;
         this.applicationContext = applicationContext;
+        this.cacheMessageService = cacheMessageService;
+        this.distributedLock = distributedLock;
+        this.cachePolicyRegistry = cachePolicyRegistry;
+        this.cacheExecutors = cacheExecutors;
+        for (BusinessType businessType : BusinessType.values()) {
+            localStats.put(businessType.getCode(), new LocalStats());
+        }
     }
 
     @PostConstruct
     public void init() {
         rebuildAllBloomFilters();
+        // 订阅其他节点的新增/删除消息，保持本地镜像同步
+        cacheMessageService.subscribeToChanges(this::handleCacheMessage);
+        // 定期批量刷新统计数据
+        cacheExecutors.bloomScheduler().scheduleAtFixedRate(() -> {
+            try {
+                flushBloomStats();
+            } catch (Exception e) {
+                log.error("定时刷新布隆过滤器统计异常", e);
+            }
+        }, statsFlushIntervalSeconds, statsFlushIntervalSeconds, TimeUnit.SECONDS);
         log.info("初始化布隆过滤器完成");
     }
 
+    @PreDestroy
+    public void destroy() {
+        // 关闭前刷新剩余统计
+        flushBloomStats();
+    }
+
+    private void handleCacheMessage(Map<String, List<String>> changes) {
+        List<String> addKeys = changes.get(BLOOM_ADD_OPERATION);
+        if (addKeys != null) {
+            for (String key : addKeys) {
+                BusinessType businessType = BusinessType.getByKey(key);
+                if (businessType != null) {
+                    addToLocalFilter(businessType.getCode(), key);
+                }
+            }
+        }
+        List<String> removeKeys = changes.get(BLOOM_REMOVE_OPERATION);
+        if (removeKeys != null) {
+            for (String key : removeKeys) {
+                BusinessType businessType = BusinessType.getByKey(key);
+                if (businessType != null) {
+                    removeFromLocalFilter(businessType.getCode(), key);
+                }
+            }
+        }
+    }
+
+    /**
+     * 数据新增时加入布隆过滤器，每条数据只能计数一次
+     * 只在数据库新增事件(按消息ID去重)中调用，不能用是否已存在来去重：误判为已存在的key没有计数，
+     * 删除与其共享计数器的key后会被误判为不存在
+     */
     public void addBloomFilter(String businessCode, String key) {
-        RBloomFilter<String> bloomFilter = getOrCreateBloomFilter(businessCode);
-        bloomFilter.add(key);
-        // 从删除列表中移除
-        deletedKeys.remove(key);
+        addToLocalFilter(businessCode, key);
+        executeFilterScript(ADD_SCRIPT, businessCode, key);
+        // 通知其他节点更新本地镜像，Redis中已存在时其他节点的镜像也可能缺少该key
+        cacheMessageService.publishCacheChange(BLOOM_ADD_OPERATION, key);
+    }
+
+    /**
+     * 确保已存在的数据在布隆过滤器中，用于缓存回填等非新增场景
+     * 已存在的数据在新增事件或全量重建时已计数，只有本地镜像判断不存在时(如事件丢失)才补充计数
+     */
+    public void ensureInBloomFilter(String businessCode, String key) {
+        if (!localMightContain(businessCode, key)) {
+            addBloomFilter(businessCode, key);
+        }
+    }
+
+    private boolean localMightContain(String businessCode, String key) {
+        CountingBloomFilter localFilter = localFilters.get(businessCode);
+        return localFilter != null && localFilter.mightContain(key);
+    }
+
+    private void addToLocalFilter(String businessCode, String key) {
+        updateLocalFilter(businessCode, new PendingOp(true, key));
+    }
+
+    private void removeFromLocalFilter(String businessCode, String key) {
+        updateLocalFilter(businessCode, new PendingOp(false, key));
+    }
+
+    private void updateLocalFilter(String businessCode, PendingOp op) {
+        synchronized (localUpdateLock(businessCode)) {
+            List<PendingOp> pending = rebuildPendingOps.get(businessCode);
+            if (pending != null) {
+                pending.add(op);
+            }
+            CountingBloomFilter localFilter = localFilters.get(businessCode);
+            if (localFilter != null) {
+                op.applyTo(localFilter);
+            }
+        }
+    }
+
+    private Object localUpdateLock(String businessCode) {
+        return localUpdateLocks.computeIfAbsent(businessCode, k -> new Object());
+    }
+
+    /**
+     * 执行添加/删除脚本，影子过滤器存在(正在重建)时脚本同时更新影子过滤器
+     */
+    private Long executeFilterScript(DefaultRedisScript<Long> script, String businessCode, String key) {
+        String filterName = BLOOM_FILTER_PREFIX + businessCode;
+        String shadowName = filterName + BLOOM_SHADOW_SUFFIX;
+        long[] hashes = CountingBloomFilter.hashes(key);
+        Long result = stringRedisTemplate.execute(script,
+                Arrays.asList(filterName, filterName + BLOOM_META_SUFFIX, shadowName, shadowName + BLOOM_META_SUFFIX),
+                String.valueOf(hashes[0]), String.valueOf(hashes[1]));
+        if (result != null && result == -1L) {
+            log.warn("布隆过滤器[{}]尚未初始化，key: {}", businessCode, key);
+        }
+        return result;
     }
 
     public <ID> void batchAddToBloomFilter(BusinessType businessType, Iterable<ID> ids) {
         String businessCode = businessType.getCode();
-        RBloomFilter<String> bloomFilter = getOrCreateBloomFilter(businessCode);
         int count = 0;
 
         for (ID id : ids) {
             String key = businessType.buildCacheKey(id);
-            bloomFilter.add(key);
+            addBloomFilter(businessCode, key);
             count++;
         }
 
@@ -75,56 +228,36 @@ public class BloomFilter {
         }
     }
 
+    /**
+     * 从布隆过滤器中删除元素
+     * 只在业务数据真正被删除时调用一次，Redis计数器递减后广播给所有节点更新本地镜像
+     */
     public void deleteFromBloomFilter(String key) {
-        if (deletedKeys.add(key)) {
-            BusinessType businessType = BusinessType.getByKey(key);
-            if (businessType != null) {
-                String businessCode = businessType.getCode();
-
-                // 增加业务特定的删除计数
-                incrementBloomDeleteStats(businessCode);
-                long businessDeletedCount = getBloomDeleteStats(businessCode);
-
-                RBloomFilter<String> filter = bloomFilters.get(businessCode);
-                if (filter != null && filter.count() > 0) {
-                    // 计算特定业务的删除比例
-                    if ((double) businessDeletedCount / filter.count() > getBusinessRebuildThreshold(businessCode)) {
-                        log.info("业务[{}]删除元素数量超过阈值，触发重建", businessCode);
-                        CACHE_REBUILD_EXECUTOR.execute(() -> rebuildSingleBloomFilter(businessType));
-                        // 重置该业务的删除计数
-                        stringRedisTemplate.opsForValue().set(BLOOM_STATS_PREFIX + businessCode + ":deleted", "0");
-                    }
-                }
-            }
+        BusinessType businessType = BusinessType.getByKey(key);
+        if (businessType == null) {
+            return;
         }
-    }
-
-    // 获取业务特定的重建阈值
-    private double getBusinessRebuildThreshold(String businessCode) {
-        // 可从配置中心或Redis获取，这里使用默认值
-        if (businessCode == null) {
-            return 0.1;  // 默认阈值
-        } else if (businessCode.equals("shop")) {
-            return 0.05;  // 店铺数据变动频繁，设置较低阈值
-        } else if (businessCode.equals("blog")) {
-            return 0.15;  // 博客数据相对稳定，可用较高阈值
-        } else {
-            return 0.1;   // 默认阈值
+        String businessCode = businessType.getCode();
+        Long result = executeFilterScript(REMOVE_SCRIPT, businessCode, key);
+        if (result != null && result == 1L) {
+            localStats(businessCode).deleted.increment();
+            // 本节点直接更新本地镜像，其他节点通过消息更新（广播不会回送给本节点）
+            removeFromLocalFilter(businessCode, key);
+            cacheMessageService.publishCacheChange(BLOOM_REMOVE_OPERATION, key);
         }
     }
 
     public boolean mightContain(String businessCode, String key) {
-        if (deletedKeys.contains(key)) {
-            return false;
-        }
-        RBloomFilter<String> bloomFilter = bloomFilters.get(businessCode);
-        if (bloomFilter == null) {
+        // 只查询本地镜像，不访问Redis
+        CountingBloomFilter localFilter = localFilters.get(businessCode);
+        if (localFilter == null) {
             return false;
         }
-        boolean result = bloomFilter.contains(key);
-        incrementBloomStats("queries");
+        boolean result = localFilter.mightContain(key);
+        LocalStats stats = localStats(businessCode);
+        stats.queries.increment();
         if (result) {
-            incrementBloomStats("positives");
+            stats.positives.increment();
         }
         return result;
     }
@@ -150,18 +283,16 @@ public class BloomFilter {
             }
         }
 
-        if (!deletedKeys.isEmpty()) {
-            log.info("清理已删除的元素");
-            deletedKeys.clear();
-            setBloomStats("deleted", 0L);
-        }
         log.info("所有布隆过滤器重建完成，结果：{}", allSuccess ? "成功" : "部分失败");
         return allSuccess;
     }
 
     /**
      * 重建单个业务类型的布隆过滤器
-     * 修改为公共方法，供XXL-Job调用
+     * 修改为公共方法，供XXL-Job调用。新过滤器在影子key下流式构建，完成后原子切换，
+     * 重建期间正式过滤器和本地镜像继续提供服务，不会出现误判不存在的窗口。
+     * 影子元数据存在期间，所有节点的新增/删除由脚本同时写入正式和影子过滤器，切换时不会丢失；
+     * 本地镜像在重建期间的更新按顺序记录，与替换在同一把锁内回放
      * @param businessType 业务类型
      * @return 重建是否成功
      */
@@ -177,39 +308,68 @@ public class BloomFilter {
         try {
             // 标记为重建中状态
             rebuildingStatus.put(businessCode, true);
+            synchronized (localUpdateLock(businessCode)) {
+                rebuildPendingOps.put(businessCode, new ArrayList<>());
+            }
             log.info("开始重建布隆过滤器[{}]", businessCode);
 
-            // 获取并重置布隆过滤器
-            RBloomFilter<String> bloomFilter = getOrCreateBloomFilter(businessCode);
-            bloomFilter.delete();
-
             // 重新初始化过滤器（可根据数据量动态设置容量和错误率）
-            int expectedInsertions = estimateDataSize(businessType);
+            long expectedInsertions = Math.max(estimateDataSize(businessType), 1000);
             double falseProbability = getBusinessFalseRate(businessCode);
-            bloomFilter.tryInit(Math.max(expectedInsertions, 1000), falseProbability);
+            CountingBloomFilter newLocalFilter = new CountingBloomFilter(expectedInsertions, falseProbability);
 
             // 记录开始时间，用于性能统计
             long startTime = System.currentTimeMillis();
 
-            // 加载业务数据
-            Set<String> keys = loadBusinessData(businessType);
-
-            // 将数据添加到布隆过滤器
-            int count = 0;
-            for (String key : keys) {
-                bloomFilter.add(key);
-                count++;
+            // 同一时刻只允许一个节点重建Redis中的过滤器，其他节点只重建本地镜像
+            String filterName = BLOOM_FILTER_PREFIX + businessCode;
+            String shadowName = filterName + BLOOM_SHADOW_SUFFIX;
+            String lockKey = BLOOM_REBUILD_LOCK_PREFIX + businessCode;
+            boolean rebuildRedis = distributedLock.tryLock(lockKey, REBUILD_LOCK_SECONDS);
+            long count;
+            try {
+                if (rebuildRedis) {
+                    initShadowFilter(shadowName, newLocalFilter);
+                }
+                // 按主键游标分批加载，同时写入本地镜像和影子过滤器
+                count = streamBusinessKeys(businessType, keys -> {
+                    keys.forEach(newLocalFilter::add);
+                    if (rebuildRedis) {
+                        pipelinedAdd(shadowName, newLocalFilter, keys);
+                    }
+                });
+                if (rebuildRedis) {
+                    // 累加而不是覆盖，保留重建期间双写进来的计数
+                    stringRedisTemplate.opsForHash().increment(shadowName + BLOOM_META_SUFFIX, "count", count);
+                    // 原子切换影子过滤器
+                    Long switched = stringRedisTemplate.execute(SWITCH_SCRIPT, Arrays.asList(
+                            shadowName, shadowName + BLOOM_META_SUFFIX, filterName, filterName + BLOOM_META_SUFFIX));
+                    if (switched == null || switched != 1L) {
+                        // 影子元数据已过期(重建超时)，保留原过滤器
+                        log.warn("布隆过滤器[{}]影子过滤器已失效，未切换Redis过滤器", businessCode);
+                    }
+                }
+            } finally {
+                if (rebuildRedis) {
+                    distributedLock.unlock(lockKey);
+                }
             }
 
-            // 清理该业务类型的已删除键记录
-            clearDeletedKeysForBusiness(businessType);
-
-            // 重置该业务的删除计数
-            stringRedisTemplate.opsForValue().set(BLOOM_STATS_PREFIX + businessCode + ":deleted", "0");
+            // 按原顺序回放重建期间的新增和删除后替换本地镜像，期间的本地更新等待替换完成
+            synchronized (localUpdateLock(businessCode)) {
+                List<PendingOp> pendingOps = rebuildPendingOps.remove(businessCode);
+                if (pendingOps != null) {
+                    for (PendingOp op : pendingOps) {
+                        op.applyTo(newLocalFilter);
+                    }
+                }
+                localFilters.put(businessCode, newLocalFilter);
+            }
 
             // 记录重建耗时
             long costTime = System.currentTimeMillis() - startTime;
-            log.info("布隆过滤器[{}]重建完成，共添加{}个元素，耗时{}ms", businessCode, count, costTime);
+            log.info("布隆过滤器[{}]重建完成，共添加{}个元素，{}耗时{}ms",
+                    businessCode, count, rebuildRedis ? "" : "仅重建本地镜像，", costTime);
 
             return true;
         } catch (Exception e) {
@@ -217,16 +377,59 @@ public class BloomFilter {
             return false;
         } finally {
             // 无论成功失败，都将重建状态标记为完成
+            synchronized (localUpdateLock(businessCode)) {
+                rebuildPendingOps.remove(businessCode);
+            }
             rebuildingStatus.put(businessCode, false);
         }
     }
 
+    // 清空影子过滤器并写入元数据
+    private void initShadowFilter(String shadowName, CountingBloomFilter filter) {
+        String metaKey = shadowName + BLOOM_META_SUFFIX;
+        stringRedisTemplate.delete(Arrays.asList(shadowName, metaKey));
+        Map<String, String> meta = new HashMap<>();
+        meta.put("size", String.valueOf(filter.getSize()));
+        meta.put("hashes", String.valueOf(filter.getHashCount()));
+        meta.put("expectedInsertions", String.valueOf(filter.getExpectedInsertions()));
+        meta.put("falseProbability", String.valueOf(filter.getFalseProbability()));
+        meta.put("count", "0");
+        stringRedisTemplate.opsForHash().putAll(metaKey, meta);
+        // 影子元数据是双写标记，重建节点宕机时过期，停止双写
+        stringRedisTemplate.expire(metaKey, REBUILD_LOCK_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 通过管道批量写入影子过滤器，每个元素一条BITFIELD命令
+     * 影子过滤器由数据库主键构建，元素不会重复，不需要先判断是否存在
+     */
+    private void pipelinedAdd(String filterName, CountingBloomFilter filter, List<String> keys) {
+        byte[] rawKey = filterName.getBytes(StandardCharsets.UTF_8);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String key : keys) {
+                long[] hashes = CountingBloomFilter.hashes(key);
+                BitFieldSubCommands commands = BitFieldSubCommands.create();
+                for (int i = 0; i < filter.getHashCount(); i++) {
+                    long offset = CountingBloomFilter.index(hashes, i, filter.getSize());
+                    commands = commands.incr(COUNTER_TYPE)
+                            .valueAt(BitFieldSubCommands.Offset.offset(offset).multipliedByTypeLength())
+                            .overflow(BitFieldSubCommands.BitFieldIncrBy.Overflow.SAT)
+                            .by(1);
+                }
+                connection.stringCommands().bitField(rawKey, commands);
+            }
+            return null;
+        });
+    }
+
     // 估计业务数据大小，用于动态设置布隆过滤器容量
-    private int estimateDataSize(BusinessType businessType) {
+    private long estimateDataSize(BusinessType businessType) {
         try {
-            Set<String> sampleData = loadBusinessData(businessType);
+            Object mapper = businessType.getMapper(applicationContext);
+            Method countMethod = mapper.getClass().getMethod("countAllIds");
+            long total = ((Number) countMethod.invoke(mapper)).longValue();
             // 为可能的数据增长预留50%空间
-            return (int)(sampleData.size() * 1.5);
+            return (long) (total * 1.5);
         } catch (Exception e) {
             log.warn("无法估计{}业务数据量，使用默认值", businessType.getCode());
             return 10000;  // 默认值
@@ -235,75 +438,103 @@ public class BloomFilter {
 
     // 获取业务特定的错误率配置
     private double getBusinessFalseRate(String businessCode) {
-        if (businessCode == null) {
-            return 0.01;  // 默认错误率
-        } else if (businessCode.equals("shop")) {
-            return 0.001;  // 商铺查询频繁，使用较低错误率
-        } else if (businessCode.equals("blog")) {
-            return 0.01;   // 博客查询较少，可用较高错误率
-        } else {
-            return 0.005;  // 默认错误率
-        }
+        // 误判率由业务缓存策略配置，修改后在下一次重建时生效
+        return cachePolicyRegistry.getPolicy(businessCode).getBloomFalseProbability();
     }
 
-    // 清理指定业务类型的已删除键
-    private void clearDeletedKeysForBusiness(BusinessType businessType) {
-        String prefix = businessType.getKeyPrefix();
-        deletedKeys.removeIf(key -> key.startsWith(prefix));
+    /**
+     * 按主键游标分批加载业务数据的缓存键，内存占用与数据总量无关
+     * @return 加载的总条数
+     */
+    private long streamBusinessKeys(BusinessType businessType, Consumer<List<String>> batchConsumer)
+            throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+        Object mapper = businessType.getMapper(applicationContext);
+        String keyPrefix = businessType.getKeyPrefix();
+
+        // 使用反射调用 selectIdsAfter 方法
+        Method selectMethod = mapper.getClass().getMethod("selectIdsAfter", Long.class, int.class);
+        long total = 0;
+        Long lastId = 0L;
+        while (true) {
+            @SuppressWarnings("unchecked")
+            List<Long> ids = (List<Long>) selectMethod.invoke(mapper, lastId, REBUILD_BATCH_SIZE);
+            if (ids == null || ids.isEmpty()) {
+                break;
+            }
+            List<String> keys = new ArrayList<>(ids.size());
+            for (Long id : ids) {
+                keys.add(keyPrefix + id);
+            }
+            batchConsumer.accept(keys);
+            total += ids.size();
+            lastId = ids.get(ids.size() - 1);
+            if (ids.size() < REBUILD_BATCH_SIZE) {
+                break;
+            }
+        }
+        log.info("加载{}业务数据完成，共{}条记录", businessType.getCode(), total);
+        return total;
     }
 
-    private Set<String> loadBusinessData(BusinessType businessType) {
-        Set<String> keys = new HashSet<>();
-        try {
-            if (applicationContext != null) {
-                Object mapper = businessType.getMapper(applicationContext);
-
-                String keyPrefix = businessType.getKeyPrefix();
-
-                // 使用反射调用 selectAllIds 方法
-                Method selectMethod = mapper.getClass().getMethod("selectAllIds");
-                @SuppressWarnings("unchecked")
-                List<Object> ids = (List<Object>) selectMethod.invoke(mapper);
-
-                // 将ID转换为缓存键
-                for (Object id : ids) {
-                    keys.add(keyPrefix + id);
-                }
+    /**
+     * 业务的本地统计计数器，由定时任务批量刷新到Redis
+     * 各业务的计数器启动时已创建，查询路径上只有一次按业务编码的查找
+     */
+    private LocalStats localStats(String businessCode) {
+        LocalStats stats = localStats.get(businessCode);
+        return stats != null ? stats : localStats.computeIfAbsent(businessCode, k -> new LocalStats());
+    }
 
-                log.info("加载{}业务数据完成，共{}条记录", businessType.getCode(), ids.size());
+    /**
+     * 将本地统计通过一次管道INCRBY批量刷新到Redis，同时累加业务维度和全局维度
+     */
+    public void flushBloomStats() {
+        Map<String, Long> deltas = new HashMap<>();
+        localStats.forEach((businessCode, stats) -> stats.forEach((statName, adder) -> {
+            long delta = adder.sumThenReset();
+            if (delta > 0) {
+                deltas.put(businessCode + ":" + statName, delta);
             }
-        } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
-            log.error("加载业务数据失败: {}", businessType.getCode(), e);
-        } catch (Exception e) {
-            log.error("加载业务数据发生未知错误: {}", businessType.getCode(), e);
+        }));
+        if (deltas.isEmpty()) {
+            return;
         }
-        return keys;
-    }
 
-    private RBloomFilter<String> getOrCreateBloomFilter(String businessCode) {
-        return bloomFilters.computeIfAbsent(businessCode, name -> {
-            RBloomFilter<String> filter = redissonClient.getBloomFilter(BLOOM_FILTER_PREFIX + name);
-            // 使用默认配置初始化
-            filter.tryInit(10000, 0.01);
-            return filter;
+        Map<String, Long> increments = new HashMap<>();
+        deltas.forEach((statKey, delta) -> {
+            String statName = statKey.substring(statKey.indexOf(':') + 1);
+            increments.merge(BLOOM_STATS_PREFIX + statKey, delta, Long::sum);
+            increments.merge(BLOOM_STATS_PREFIX + statName, delta, Long::sum);
         });
-    }
-    private void incrementBloomStats(String statName) {
-        Long value = getBloomStats(statName);
-        setBloomStats(statName, value + 1);
+
+        try {
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                increments.forEach((key, delta) ->
+                        connection.stringCommands().incrBy(key.getBytes(StandardCharsets.UTF_8), delta));
+                return null;
+            });
+        } catch (Exception e) {
+            log.error("刷新布隆过滤器统计失败，保留本地计数等待下次刷新", e);
+            // 失败时加回本地计数，避免丢失
+            deltas.forEach((statKey, delta) -> {
+                int separator = statKey.indexOf(':');
+                localStats(statKey.substring(0, separator)).get(statKey.substring(separator + 1)).add(delta);
+            });
+        }
     }
 
-    // 替代全局删除计数器
-    private void incrementBloomDeleteStats(String businessCode) {
-        String key = BLOOM_STATS_PREFIX + businessCode + ":deleted";
-        stringRedisTemplate.opsForValue().increment(key);
+    // 未刷新到Redis的本地计数
+    private long getLocalStats(String businessCode, String statName) {
+        LocalStats stats = localStats.get(businessCode);
+        return stats != null ? stats.get(statName).sum() : 0L;
     }
 
-    // 获取特定业务类型的删除计数
-    private Long getBloomDeleteStats(String businessCode) {
-        String key = BLOOM_STATS_PREFIX + businessCode + ":deleted";
-        String value = stringRedisTemplate.opsForValue().get(key);
-        return value != null ? Long.parseLong(value) : 0L;
+    private long getLocalStats(String statName) {
+        long total = 0;
+        for (BusinessType businessType : BusinessType.values()) {
+            total += getLocalStats(businessType.getCode(), statName);
+        }
+        return total;
     }
 
     /**
@@ -314,23 +545,17 @@ public class BloomFilter {
         return value != null ? Long.parseLong(value) : 0L;
     }
 
-    /**
-     * 设置布隆过滤器统计数据
-     */
-    private void setBloomStats(String statName, Long value) {
-        stringRedisTemplate.opsForValue().set(BLOOM_STATS_PREFIX + statName, value.toString());
-    }
-
     /**
      * 获取布隆过滤器性能统计
      */
     public Map<String, Object> getBloomFilterStats() {
         Map<String, Object> stats = new HashMap<>();
 
-        Long queries = getBloomStats("queries");
-        Long positives = getBloomStats("positives");
+        // 合并Redis全局计数和本节点未刷新的计数
+        Long queries = getBloomStats("queries") + getLocalStats("queries");
+        Long positives = getBloomStats("positives") + getLocalStats("positives");
         Long falsePositives = getBloomStats("falsePositives");
-        Long deleted = getBloomStats("deleted");
+        Long deleted = getBloomStats("deleted") + getLocalStats("deleted");
 
         double falsePositiveRate = queries > 0 ? (double) falsePositives / queries : 0;
 
@@ -339,7 +564,18 @@ public class BloomFilter {
         stats.put("falsePositives", falsePositives);
         stats.put("falsePositiveRate", falsePositiveRate);
         stats.put("deletedKeys", deleted);
-        stats.put("deletedKeysInMemory", deletedKeys.size());
+
+        // 业务维度统计
+        Map<String, Object> businessStats = new HashMap<>();
+        for (BusinessType businessType : BusinessType.values()) {
+            String businessCode = businessType.getCode();
+            Map<String, Object> item = new HashMap<>();
+            item.put("queries", getBloomStats(businessCode + ":queries") + getLocalStats(businessCode, "queries"));
+            item.put("positives", getBloomStats(businessCode + ":positives") + getLocalStats(businessCode, "positives"));
+            item.put("deleted", getBloomStats(businessCode + ":deleted") + getLocalStats(businessCode, "deleted"));
+            businessStats.put(businessCode, item);
+        }
+        stats.put("business", businessStats);
 
         return stats;
     }
@@ -350,14 +586,25 @@ public class BloomFilter {
     public Map<String, Object> bloomFilterHealthCheck() {
         Map<String, Object> health = new HashMap<>();
 
-        for (Map.Entry<String, RBloomFilter<String>> entry : bloomFilters.entrySet()) {
+        for (Map.Entry<String, CountingBloomFilter> entry : localFilters.entrySet()) {
             String businessCode = entry.getKey();
-            RBloomFilter<String> filter = entry.getValue();
+            CountingBloomFilter localFilter = entry.getValue();
 
+            // Redis中的计数布隆过滤器元数据
+            Map<Object, Object> meta = stringRedisTemplate.opsForHash()
+                    .entries(BLOOM_FILTER_PREFIX + businessCode + BLOOM_META_SUFFIX);
             Map<String, Object> filterInfo = new HashMap<>();
-            filterInfo.put("size", filter.count());
-            filterInfo.put("expectedInsertions", filter.getExpectedInsertions());
-            filterInfo.put("falseProbability", filter.getFalseProbability());
+            filterInfo.put("size", meta.get("count"));
+            filterInfo.put("expectedInsertions", meta.get("expectedInsertions"));
+            filterInfo.put("falseProbability", meta.get("falseProbability"));
+
+            Map<String, Object> localInfo = new HashMap<>();
+            localInfo.put("counters", localFilter.getSize());
+            localInfo.put("hashCount", localFilter.getHashCount());
+            localInfo.put("count", localFilter.getCount());
+            localInfo.put("memoryBytes", localFilter.getMemoryBytes());
+            localInfo.put("expectedInsertions", localFilter.getExpectedInsertions());
+            filterInfo.put("local", localInfo);
 
             health.put(businessCode, filterInfo);
         }
@@ -365,4 +612,52 @@ public class BloomFilter {
         return health;
     }
 
+    /**
+     * 重建期间记录的本地镜像更新
+     */
+    private static final class PendingOp {
+        private final boolean add;
+        private final String key;
+
+        private PendingOp(boolean add, String key) {
+            this.add = add;
+            this.key = key;
+        }
+
+        private void applyTo(CountingBloomFilter filter) {
+            if (add) {
+                filter.add(key);
+            } else {
+                filter.remove(key);
+            }
+        }
+    }
+
+    /**
+     * 单个业务的本地统计计数
+     */
+    private static final class LocalStats {
+        final LongAdder queries = new LongAdder();
+        final LongAdder positives = new LongAdder();
+        final LongAdder deleted = new LongAdder();
+
+        LongAdder get(String statName) {
+            switch (statName) {
+                case "queries":
+                    return queries;
+                case "positives":
+                    return positives;
+                case "deleted":
+                    return deleted;
+                default:
+                    throw new IllegalArgumentException("未知的统计项: " + statName);
+            }
+        }
+
+        void forEach(BiConsumer<String, LongAdder> action) {
+            action.accept("queries", queries);
+            action.accept("positives", positives);
+            action.accept("deleted", deleted);
+        }
+    }
 }
@@ -0,0 +1,78 @@
+package com.travelshop.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存相关的后台线程池
+ * 不注册为Executor类型的Bean，避免替换Spring默认的异步任务线程池
+ */
+@Slf4j
+@Component
+public class CacheExecutors {
+
+    // 缓存重建和本地缓存刷新线程池
+    @Value("${cache.executor.rebuild.core-size:8}")
+    private int rebuildCoreSize;
+    @Value("${cache.executor.rebuild.max-size:16}")
+    private int rebuildMaxSize;
+    @Value("${cache.executor.rebuild.queue-capacity:1000}")
+    private int rebuildQueueCapacity;
+    // 关闭时等待已提交任务的最长时间(秒)
+    @Value("${cache.executor.shutdown-timeout-seconds:10}")
+    private long shutdownTimeoutSeconds;
+
+    private ManagedExecutor rebuildExecutor;
+    // 布隆过滤器统计刷新等定时维护任务
+    private ScheduledThreadPoolExecutor bloomScheduler;
+
+    @PostConstruct
+    public void init() {
+        rebuildExecutor = new ManagedExecutor("cache-rebuild", rebuildCoreSize, rebuildMaxSize, rebuildQueueCapacity);
+        bloomScheduler = new ScheduledThreadPoolExecutor(1, ManagedExecutor.namedThreadFactory("bloom-maintenance"));
+        bloomScheduler.setRemoveOnCancelPolicy(true);
+        log.info("缓存线程池初始化完成，重建线程池：{}-{}，队列容量：{}", rebuildCoreSize, rebuildMaxSize, rebuildQueueCapacity);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // 定时任务不再触发，正在执行的任务执行完
+        bloomScheduler.setContinueExistingPeriodicTasksAfterShutdownPolicy(false);
+        bloomScheduler.shutdown();
+        rebuildExecutor.shutdownGracefully(shutdownTimeoutSeconds);
+        try {
+            bloomScheduler.awaitTermination(shutdownTimeoutSeconds, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.info("缓存线程池已关闭");
+    }
+
+    public ManagedExecutor rebuild() {
+        return rebuildExecutor;
+    }
+
+    public ScheduledThreadPoolExecutor bloomScheduler() {
+        return bloomScheduler;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("cacheRebuild", rebuildExecutor.getStats());
+        Map<String, Object> bloom = new HashMap<>();
+        bloom.put("poolSize", bloomScheduler.getPoolSize());
+        bloom.put("activeThreads", bloomScheduler.getActiveCount());
+        bloom.put("queueSize", bloomScheduler.getQueue().size());
+        bloom.put("completed", bloomScheduler.getCompletedTaskCount());
+        stats.put("bloomMaintenance", bloom);
+        return stats;
+    }
+}
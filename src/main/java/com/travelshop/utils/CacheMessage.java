@@ -1,55 +1,198 @@
 package com.travelshop.utils;
 
 
+import cn.hutool.json.JSONArray;
+import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.listener.ChannelTopic;
 import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
 
+/**
+ * 缓存变更广播
+ * 变更先在本地缓冲几毫秒，按操作和key去重后合并为一条批量消息发布，
+ * 接收方一次处理整批变更；本节点发出的消息不再回送给自己
+ */
 @Slf4j
 @Component
 public class CacheMessage {
 
     private static final String CACHE_TOPIC = "cache:changes";
+    // 节点标识，用于忽略自己发出的消息
+    private static final String NODE_ID = UUID.randomUUID().toString();
 
     private final StringRedisTemplate stringRedisTemplate;
     private final RedisMessageListenerContainer listenerContainer;
 
+    // 合并发送的时间窗口(毫秒)，0表示立即发送
+    @Value("${cache.message.batch-millis:5}")
+    private long batchMillis;
+    // 单条批量消息最多包含的变更数，达到后立即发送
+    @Value("${cache.message.max-batch-size:500}")
+    private int maxBatchSize;
+
+    // 待发送的变更：操作 -> key集合，保持首次出现的顺序
+    private Map<String, Set<String>> pending = new LinkedHashMap<>();
+    private int pendingCount;
+    private final Object pendingLock = new Object();
+
+    private final LongAdder publishedChanges = new LongAdder();
+    private final LongAdder coalescedChanges = new LongAdder();
+    private final LongAdder publishedBatches = new LongAdder();
+    private final LongAdder receivedBatches = new LongAdder();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "cache-message-flush-thread");
+        t.setDaemon(true);
+        return t;
+    });
+
     public CacheMessage(StringRedisTemplate stringRedisTemplate,
                                RedisMessageListenerContainer listenerContainer) {
         this.stringRedisTemplate = stringRedisTemplate;
         this.listenerContainer = listenerContainer;
     }
 
+    @PostConstruct
+    public void init() {
+        if (batchMillis > 0) {
+            scheduler.scheduleWithFixedDelay(this::flush, batchMillis, batchMillis, TimeUnit.MILLISECONDS);
+        }
+        log.info("缓存变更广播初始化完成，合并窗口：{}毫秒，单批上限：{}", batchMillis, maxBatchSize);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdown();
+        // 关闭前发送剩余变更
+        flush();
+    }
+
+    /**
+     * 发布缓存变更，同一窗口内相同操作和key的变更只发送一次
+     */
     public void publishCacheChange(String operation, String key) {
+        boolean full;
+        synchronized (pendingLock) {
+            if (pending.computeIfAbsent(operation, op -> new LinkedHashSet<>()).add(key)) {
+                pendingCount++;
+            } else {
+                coalescedChanges.increment();
+            }
+            full = pendingCount >= maxBatchSize;
+        }
+        if (full || batchMillis <= 0) {
+            flush();
+        }
+    }
+
+    /**
+     * 将缓冲的变更合并为一条消息发布
+     */
+    public void flush() {
+        Map<String, Set<String>> changes;
+        int count;
+        synchronized (pendingLock) {
+            if (pendingCount == 0) {
+                return;
+            }
+            changes = pending;
+            count = pendingCount;
+            pending = new LinkedHashMap<>();
+            pendingCount = 0;
+        }
         try {
-            Map<String, String> message = new HashMap<>();
-            message.put("operation", operation);
-            message.put("key", key);
-            message.put("timestamp", String.valueOf(System.currentTimeMillis()));
+            Map<String, Object> message = new HashMap<>();
+            message.put("node", NODE_ID);
+            message.put("timestamp", System.currentTimeMillis());
+            message.put("changes", changes);
             stringRedisTemplate.convertAndSend(CACHE_TOPIC, JSONUtil.toJsonStr(message));
-            log.debug("发布缓存变更消息：{}", message);
+            publishedChanges.add(count);
+            publishedBatches.increment();
+            log.debug("发布缓存变更消息，变更数：{}", count);
         } catch (Exception e) {
-            log.error("发布缓存变更消息失败", e);
+            log.error("发布缓存变更消息失败，丢弃{}条变更", count, e);
         }
     }
 
-    public void subscribeToChanges(Consumer<Map<String, String>> handler) {
+    /**
+     * 订阅其他节点的缓存变更
+     * @param handler 参数为 操作 -> key列表，一条消息回调一次
+     */
+    public void subscribeToChanges(Consumer<Map<String, List<String>>> handler) {
         listenerContainer.addMessageListener((message, pattern) -> {
-              try {
-                  String msg = new String(message.getBody());
-                    Map<String, String> map = JSONUtil.toBean(msg, Map.class);
-                    handler.accept(map);
-              } catch (Exception e) {
-                  log.error("处理缓存变更消息失败", e);
-              }
+            try {
+                Map<String, List<String>> changes = parseChanges(new String(message.getBody(), StandardCharsets.UTF_8));
+                if (!changes.isEmpty()) {
+                    receivedBatches.increment();
+                    handler.accept(changes);
+                }
+            } catch (Exception e) {
+                log.error("处理缓存变更消息失败", e);
+            }
         }, new ChannelTopic(CACHE_TOPIC));
         log.info("订阅缓存变更消息成功");
     }
+
+    private Map<String, List<String>> parseChanges(String msg) {
+        JSONObject json = JSONUtil.parseObj(msg);
+        if (NODE_ID.equals(json.getStr("node"))) {
+            // 本节点发出的变更已在本地生效
+            return Collections.emptyMap();
+        }
+        // 兼容滚动发布期间旧版本节点发送的单条消息
+        if (json.containsKey("key")) {
+            List<String> keys = new ArrayList<>();
+            keys.add(json.getStr("key"));
+            return Collections.singletonMap(json.getStr("operation"), keys);
+        }
+        JSONObject changes = json.getJSONObject("changes");
+        if (changes == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, List<String>> result = new LinkedHashMap<>();
+        for (String operation : changes.keySet()) {
+            JSONArray keys = changes.getJSONArray(operation);
+            if (keys != null && !keys.isEmpty()) {
+                result.put(operation, keys.toList(String.class));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 获取广播统计：发送的变更数、合并掉的重复变更数、批次数
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("publishedChanges", publishedChanges.sum());
+        stats.put("coalescedChanges", coalescedChanges.sum());
+        stats.put("publishedBatches", publishedBatches.sum());
+        stats.put("receivedBatches", receivedBatches.sum());
+        synchronized (pendingLock) {
+            stats.put("pending", pendingCount);
+        }
+        return stats;
+    }
 }
@@ -1,6 +1,11 @@
 package com.travelshop.utils;
 
+import cn.hutool.crypto.SecureUtil;
+import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.travelshop.config.CachePolicy;
 import com.travelshop.enums.BusinessType;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
@@ -12,8 +17,11 @@ import org.springframework.retry.annotation.Backoff;
 import org.springframework.retry.annotation.Retryable;
 import org.springframework.stereotype.Component;
 
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
 import java.util.Map;
-import java.util.UUID;
+import java.util.TreeMap;
 import java.util.concurrent.TimeUnit;
 
 @Slf4j
@@ -23,20 +31,24 @@ public class CacheMessageListener {
     private final UnifiedCache cacheService;
     private final BloomFilter bloomFilter;
     private final StringRedisTemplate stringRedisTemplate;
-
-    // 缓存过期时间(秒)
-    private static final long CACHE_TTL = 60 * 60;
+    private final CachePolicyRegistry cachePolicyRegistry;
 
     // 消息去重缓存键前缀和过期时间
     private static final String MSG_PROCESSED_KEY = "cache:processed_msg:";
     private static final long MSG_ID_TTL = 24 * 60 * 60; // 24小时
+    // 本地已处理消息，重复投递大多落在短时间内，命中时不访问Redis
+    private final Cache<String, Boolean> processedMessages = Caffeine.newBuilder()
+            .maximumSize(10000)
+            .expireAfterWrite(10, TimeUnit.MINUTES)
+            .build();
 
     @Autowired
     public CacheMessageListener(UnifiedCache cacheService, BloomFilter bloomFilter,
-                                StringRedisTemplate stringRedisTemplate) {
+                                StringRedisTemplate stringRedisTemplate, CachePolicyRegistry cachePolicyRegistry) {
         this.cacheService = cacheService;
         this.bloomFilter = bloomFilter;
         this.stringRedisTemplate = stringRedisTemplate;
+        this.cachePolicyRegistry = cachePolicyRegistry;
 
     }
 
@@ -46,11 +58,20 @@ public class CacheMessageListener {
                 (String) message.get("messageId") :
                 generateMessageId(message);
 
-        if (isMessageProcessed(messageId)) {
+        if (!tryMarkProcessing(messageId)) {
             log.info("消息[{}]已处理，跳过", messageId);
             return;
         }
+        try {
+            processMessage(message, messageId);
+        } catch (RuntimeException e) {
+            // 处理失败时释放去重标记，消息重新投递后可以再次处理
+            unmarkProcessing(messageId);
+            throw e;
+        }
+    }
 
+    private void processMessage(Map<String, Object> message, String messageId) {
         String operation = (String) message.get("operation");
         String table = (String) message.get("table");
         Map<String, Object> data = (Map<String, Object>) message.get("data");
@@ -67,8 +88,10 @@ public class CacheMessageListener {
     }
 
     private BusinessType getBusinessTypeByTable(String table) {
+        // Canal发送的是表名(tb_shop)，去掉前缀后与业务编码对应
+        String code = table != null && table.startsWith("tb_") ? table.substring(3) : table;
         for (BusinessType type : BusinessType.values()) {
-            if (type.getCode().equals(table)) {
+            if (type.getCode().equals(code)) {
                 return type;
             }
         }
@@ -86,11 +109,15 @@ public class CacheMessageListener {
 
         switch (operation) {
             case "INSERT":
+                // 新增的数据之前可能被缓存为空值，重置未命中计数
+                cacheService.resetNegative(key);
+                updateCacheWithRetry(id, key, businessType, true);
+                break;
             case "UPDATE":
-                updateCacheWithRetry(id, key, businessType);
+                updateCacheWithRetry(id, key, businessType, false);
                 break;
             case "DELETE":
-                deleteCacheWithRetry(key, businessType.getCode());
+                deleteCacheWithRetry(key, versionOf(data));
                 break;
             default:
                 log.warn("未知的操作类型: {}", operation);
@@ -101,7 +128,7 @@ public class CacheMessageListener {
      * 更新缓存（带重试机制）
      */
     @Retryable(value = {DataAccessException.class}, maxAttempts = 3, backoff = @Backoff(delay = 1000))
-    private void updateCacheWithRetry(long id, String key, BusinessType businessType) {
+    private void updateCacheWithRetry(long id, String key, BusinessType businessType, boolean inserted) {
         try {
             ApplicationContext context = SpringContextHolder.getApplicationContext();
             if (context == null) {
@@ -117,17 +144,20 @@ public class CacheMessageListener {
                 return;
             }
 
-            // 根据业务类型选择不同的缓存策略
-            if (businessType == BusinessType.SHOP) {
-                // 商铺使用逻辑过期策略
-                cacheService.setWithLogicalExpire(key, entity, CACHE_TTL, TimeUnit.SECONDS);
+            // 根据业务缓存策略选择过期方式，布隆过滤器在下面统一更新，写缓存时不再更新
+            CachePolicy policy = cachePolicyRegistry.getPolicy(businessType);
+            if (policy.isLogicalExpire()) {
+                cacheService.setWithLogicalExpire(key, entity, policy.getTtlSeconds(), TimeUnit.SECONDS, false);
             } else {
-                // 其他业务使用物理过期策略
-                cacheService.setWithRandomExpire(key, entity, CACHE_TTL, TimeUnit.SECONDS);
+                cacheService.setWithRandomExpire(key, entity, policy.getTtlSeconds(), TimeUnit.SECONDS, false);
             }
 
-            // 更新布隆过滤器
-            bloomFilter.addBloomFilter(businessType.getCode(), key);
+            // 更新布隆过滤器：新增数据只计数一次(消息已按ID去重)，更新只确保存在
+            if (inserted) {
+                bloomFilter.addBloomFilter(businessType.getCode(), key);
+            } else {
+                bloomFilter.ensureInBloomFilter(businessType.getCode(), key);
+            }
             log.info("{}[{}]缓存已更新", businessType.getDescription(), id);
 
         } catch (Exception e) {
@@ -140,9 +170,9 @@ public class CacheMessageListener {
      * 删除缓存（带重试机制）
      */
     @Retryable(value = {Exception.class}, maxAttempts = 3, backoff = @Backoff(delay = 1000))
-    private void deleteCacheWithRetry(String key, String businessCode) {
+    private void deleteCacheWithRetry(String key, long version) {
         try {
-            cacheService.deleteCache(key);
+            cacheService.deleteCache(key, version);
             bloomFilter.deleteFromBloomFilter(key);
             log.info("缓存已删除: {}", key);
         } catch (Exception e) {
@@ -151,23 +181,58 @@ public class CacheMessageListener {
         }
     }
 
+    /**
+     * 变更数据的版本(update_time毫秒)，与 UnifiedCache.versionOf 一致，没有更新时间时返回0
+     */
+    private long versionOf(Map<String, Object> data) {
+        Object updateTime = data.get("update_time");
+        if (updateTime == null || updateTime.toString().isEmpty()) {
+            return 0;
+        }
+        try {
+            return LocalDateTime.parse(updateTime.toString().replace(' ', 'T'))
+                    .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            log.warn("无法解析数据版本: {}", updateTime);
+            return 0;
+        }
+    }
+
+    /**
+     * 生成确定的消息ID，同一条变更重复投递时ID相同
+     * 优先使用binlog位置，旧版本发送端没有位置信息时使用消息内容的摘要
+     */
     private String generateMessageId(Map<String, Object> message) {
+        if (message.containsKey("binlogFile") && message.containsKey("binlogOffset")) {
+            return message.get("binlogFile") + ":" + message.get("binlogOffset") + ":" + message.getOrDefault("rowIndex", 0);
+        }
         String operation = (String) message.get("operation");
         String table = (String) message.get("table");
         Map<String, Object> data = (Map<String, Object>) message.get("data");
-        String id = data.containsKey("id") ? String.valueOf(data.get("id")) : "";
-        // 使用UUID确保唯一性
-        return table + ":" + operation + ":" + id + ":" + UUID.randomUUID().toString();
+        String content = data == null ? "" : JSONUtil.toJsonStr(new TreeMap<>(data));
+        return table + ":" + operation + ":" + SecureUtil.md5(content);
+    }
+
+    /**
+     * 标记消息为处理中，已被标记返回false
+     * 先查本地，再用 SET NX EX 原子标记；去重标记不是缓存数据，不经过UnifiedCache，不触发失效广播
+     */
+    private boolean tryMarkProcessing(String messageId) {
+        if (processedMessages.getIfPresent(messageId) != null) {
+            return false;
+        }
+        Boolean marked = stringRedisTemplate.opsForValue()
+                .setIfAbsent(MSG_PROCESSED_KEY + messageId, "1", MSG_ID_TTL, TimeUnit.SECONDS);
+        processedMessages.put(messageId, Boolean.TRUE);
+        return Boolean.TRUE.equals(marked);
     }
 
-    private boolean isMessageProcessed(String messageId) {
-        String key = MSG_PROCESSED_KEY + messageId;
-        Boolean exists = stringRedisTemplate.hasKey(key);
-        if (Boolean.TRUE.equals(exists)) {
-            return true;
+    private void unmarkProcessing(String messageId) {
+        processedMessages.invalidate(messageId);
+        try {
+            stringRedisTemplate.delete(MSG_PROCESSED_KEY + messageId);
+        } catch (Exception e) {
+            log.warn("释放消息[{}]去重标记失败", messageId, e);
         }
-        // 将消息ID存入Redis并设置过期时间
-        cacheService.setWithRandomExpire(key, "1", MSG_ID_TTL, TimeUnit.SECONDS);
-        return false;
     }
 }
\ No newline at end of file
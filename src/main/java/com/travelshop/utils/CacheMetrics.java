@@ -0,0 +1,268 @@
+package com.travelshop.utils;
+
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 多级缓存指标
+ * 按业务统计本地缓存、布隆过滤器、Redis、数据库各层的命中和回源次数，以及Redis读取和数据库回源的耗时分布。
+ * 计数按10秒一个时间片保存在环形数组中，可以查看最近1分钟、5分钟和启动以来的数据；
+ * 记录时只做数组下标计算和原子自增，热路径上不分配对象
+ */
+@Component
+public class CacheMetrics {
+
+    /**
+     * 计数事件
+     */
+    public enum Event {
+        LOCAL_HIT, LOCAL_NULL_HIT, LOCAL_MISS, BLOOM_REJECT,
+        REDIS_HIT, REDIS_NULL_HIT, REDIS_MISS,
+        DB_LOAD, DB_NULL, DB_ERROR
+    }
+
+    /**
+     * 耗时统计的阶段
+     */
+    public enum Stage {
+        REDIS, DB
+    }
+
+    private static final long SLOT_MILLIS = 10_000;
+    // 5分钟 + 当前未结束的时间片
+    private static final int RING_SIZE = 31;
+    private static final int ONE_MINUTE_SLOTS = 6;
+    private static final int FIVE_MINUTE_SLOTS = 30;
+    // 耗时直方图：每个2的幂区间再分4个子区间，精度约25%，上限约2.4小时(微秒)
+    private static final int HISTOGRAM_BUCKETS = 128;
+    private static final int EVENT_COUNT = Event.values().length;
+    private static final int STAGE_COUNT = Stage.values().length;
+
+    private final Map<String, BusinessMetrics> businesses = new ConcurrentHashMap<>();
+
+    public void record(String business, Event event) {
+        BusinessMetrics metrics = metricsOf(business);
+        metrics.total.counts.incrementAndGet(event.ordinal());
+        metrics.current().counts.incrementAndGet(event.ordinal());
+    }
+
+    /**
+     * 记录耗时
+     * @param startNanos System.nanoTime() 记录的开始时间
+     */
+    public void recordLatency(String business, Stage stage, long startNanos) {
+        long nanos = System.nanoTime() - startNanos;
+        BusinessMetrics metrics = metricsOf(business);
+        metrics.total.recordLatency(stage, nanos);
+        metrics.current().recordLatency(stage, nanos);
+    }
+
+    private BusinessMetrics metricsOf(String business) {
+        BusinessMetrics metrics = businesses.get(business);
+        if (metrics == null) {
+            metrics = businesses.computeIfAbsent(business, k -> new BusinessMetrics());
+        }
+        return metrics;
+    }
+
+    /**
+     * 获取各业务最近1分钟、5分钟和启动以来的指标
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> result = new HashMap<>();
+        long now = System.currentTimeMillis();
+        long epoch = now / SLOT_MILLIS;
+        long currentSlotMillis = now - epoch * SLOT_MILLIS;
+        businesses.forEach((business, metrics) -> {
+            Map<String, Object> views = new LinkedHashMap<>();
+            views.put("1m", metrics.aggregate(epoch, ONE_MINUTE_SLOTS).toMap(
+                    (ONE_MINUTE_SLOTS - 1) * SLOT_MILLIS + currentSlotMillis));
+            views.put("5m", metrics.aggregate(epoch, FIVE_MINUTE_SLOTS).toMap(
+                    (FIVE_MINUTE_SLOTS - 1) * SLOT_MILLIS + currentSlotMillis));
+            views.put("total", metrics.total.toMap(0));
+            result.put(business, views);
+        });
+        return result;
+    }
+
+    private static int bucketOf(long micros) {
+        if (micros < 4) {
+            return (int) Math.max(micros, 0);
+        }
+        int octave = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = (int) (micros >>> (octave - 2)) & 3;
+        return Math.min(4 + (octave - 2) * 4 + sub, HISTOGRAM_BUCKETS - 1);
+    }
+
+    /**
+     * 区间上界(微秒)
+     */
+    private static long bucketUpperMicros(int bucket) {
+        if (bucket < 4) {
+            return bucket;
+        }
+        int octave = (bucket - 4) / 4 + 2;
+        int sub = (bucket - 4) % 4;
+        return ((4L + sub + 1) << (octave - 2)) - 1;
+    }
+
+    private static class BusinessMetrics {
+        private final Slot total = new Slot();
+        private final Slot[] ring = new Slot[RING_SIZE];
+
+        BusinessMetrics() {
+            for (int i = 0; i < RING_SIZE; i++) {
+                ring[i] = new Slot();
+            }
+        }
+
+        /**
+         * 当前时间片，首次进入新时间片时清空旧数据
+         */
+        Slot current() {
+            long epoch = System.currentTimeMillis() / SLOT_MILLIS;
+            Slot slot = ring[(int) (epoch % RING_SIZE)];
+            if (slot.epoch != epoch) {
+                synchronized (slot) {
+                    if (slot.epoch != epoch) {
+                        slot.reset();
+                        slot.epoch = epoch;
+                    }
+                }
+            }
+            return slot;
+        }
+
+        /**
+         * 合并最近slots个时间片(含当前时间片)
+         */
+        Slot aggregate(long epoch, int slots) {
+            Slot result = new Slot();
+            for (Slot slot : ring) {
+                if (slot.epoch <= epoch && slot.epoch > epoch - slots) {
+                    result.merge(slot);
+                }
+            }
+            return result;
+        }
+    }
+
+    private static class Slot {
+        private volatile long epoch = -1;
+        private final AtomicLongArray counts = new AtomicLongArray(EVENT_COUNT);
+        private final AtomicLongArray latencyCounts = new AtomicLongArray(STAGE_COUNT);
+        private final AtomicLongArray latencySumNanos = new AtomicLongArray(STAGE_COUNT);
+        private final AtomicLongArray latencyMaxNanos = new AtomicLongArray(STAGE_COUNT);
+        private final AtomicLongArray histogram = new AtomicLongArray(STAGE_COUNT * HISTOGRAM_BUCKETS);
+
+        void recordLatency(Stage stage, long nanos) {
+            int index = stage.ordinal();
+            latencyCounts.incrementAndGet(index);
+            latencySumNanos.addAndGet(index, nanos);
+            latencyMaxNanos.accumulateAndGet(index, nanos, Math::max);
+            histogram.incrementAndGet(index * HISTOGRAM_BUCKETS + bucketOf(nanos / 1000));
+        }
+
+        void reset() {
+            for (int i = 0; i < counts.length(); i++) {
+                counts.set(i, 0);
+            }
+            for (int i = 0; i < STAGE_COUNT; i++) {
+                latencyCounts.set(i, 0);
+                latencySumNanos.set(i, 0);
+                latencyMaxNanos.set(i, 0);
+            }
+            for (int i = 0; i < histogram.length(); i++) {
+                histogram.set(i, 0);
+            }
+        }
+
+        void merge(Slot other) {
+            for (int i = 0; i < counts.length(); i++) {
+                counts.addAndGet(i, other.counts.get(i));
+            }
+            for (int i = 0; i < STAGE_COUNT; i++) {
+                latencyCounts.addAndGet(i, other.latencyCounts.get(i));
+                latencySumNanos.addAndGet(i, other.latencySumNanos.get(i));
+                latencyMaxNanos.accumulateAndGet(i, other.latencyMaxNanos.get(i), Math::max);
+            }
+            for (int i = 0; i < histogram.length(); i++) {
+                histogram.addAndGet(i, other.histogram.get(i));
+            }
+        }
+
+        /**
+         * @param windowMillis 统计窗口长度，用于计算每秒请求数，0表示不计算
+         */
+        Map<String, Object> toMap(long windowMillis) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            Map<String, Object> events = new LinkedHashMap<>();
+            for (Event event : Event.values()) {
+                events.put(event.name(), counts.get(event.ordinal()));
+            }
+            map.put("counts", events);
+
+            long localHits = count(Event.LOCAL_HIT) + count(Event.LOCAL_NULL_HIT);
+            long redisHits = count(Event.REDIS_HIT) + count(Event.REDIS_NULL_HIT);
+            long requests = localHits + count(Event.LOCAL_MISS);
+            map.put("requests", requests);
+            map.put("localHitRate", ratio(localHits, requests));
+            map.put("redisHitRate", ratio(redisHits, redisHits + count(Event.REDIS_MISS)));
+            map.put("nullHitRate", ratio(count(Event.LOCAL_NULL_HIT) + count(Event.REDIS_NULL_HIT), requests));
+            map.put("bloomRejectRate", ratio(count(Event.BLOOM_REJECT), requests));
+            map.put("dbFallbackRate", ratio(count(Event.DB_LOAD), requests));
+            if (windowMillis > 0) {
+                map.put("qps", requests * 1000.0 / windowMillis);
+            }
+
+            Map<String, Object> latency = new LinkedHashMap<>();
+            for (Stage stage : Stage.values()) {
+                latency.put(stage.name(), latencyToMap(stage));
+            }
+            map.put("latency", latency);
+            return map;
+        }
+
+        private Map<String, Object> latencyToMap(Stage stage) {
+            int index = stage.ordinal();
+            long count = latencyCounts.get(index);
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("count", count);
+            map.put("avgMs", count == 0 ? 0 : latencySumNanos.get(index) / count / 1_000_000.0);
+            map.put("p50Ms", percentileMillis(index, count, 0.50));
+            map.put("p90Ms", percentileMillis(index, count, 0.90));
+            map.put("p99Ms", percentileMillis(index, count, 0.99));
+            map.put("p999Ms", percentileMillis(index, count, 0.999));
+            map.put("maxMs", latencyMaxNanos.get(index) / 1_000_000.0);
+            return map;
+        }
+
+        private double percentileMillis(int stage, long count, double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long target = (long) Math.ceil(count * percentile);
+            long seen = 0;
+            for (int bucket = 0; bucket < HISTOGRAM_BUCKETS; bucket++) {
+                seen += histogram.get(stage * HISTOGRAM_BUCKETS + bucket);
+                if (seen >= target) {
+                    return bucketUpperMicros(bucket) / 1000.0;
+                }
+            }
+            return bucketUpperMicros(HISTOGRAM_BUCKETS - 1) / 1000.0;
+        }
+
+        private long count(Event event) {
+            return counts.get(event.ordinal());
+        }
+
+        private static double ratio(long part, long whole) {
+            return whole == 0 ? 0 : (double) part / whole;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.travelshop.utils;
+
+import com.travelshop.config.CachePolicy;
+import com.travelshop.enums.BusinessType;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.ConfigurationPropertySources;
+import org.springframework.boot.env.OriginTrackedMapPropertySource;
+import org.springframework.boot.env.YamlPropertySourceLoader;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.MutablePropertySources;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 按业务划分的缓存策略注册表
+ * 本地缓存容量、Redis过期时间与随机偏移、空值缓存时间、过期方式、布隆过滤器误判率统一在此配置，
+ * 支持运行时从 application.yaml 重新加载
+ */
+@Slf4j
+@Component
+public class CachePolicyRegistry {
+
+    public static final String DEFAULT_POLICY = "default";
+    private static final String POLICY_PREFIX = "cache.policy";
+    // Spring Boot 为配置文件创建的配置源名称前缀
+    private static final String CONFIG_FILE_SOURCE_PREFIX = "Config resource";
+
+    private final ConfigurableEnvironment environment;
+    private final ResourceLoader resourceLoader = new DefaultResourceLoader();
+
+    // 重新加载时读取的配置文件，靠前的优先级更高
+    @Value("${cache.policy.reload-locations:file:./config/application.yaml,file:./application.yaml,classpath:application.yaml}")
+    private String[] reloadLocations;
+
+    private volatile CachePolicy defaultPolicy = new CachePolicy();
+    private volatile Map<String, CachePolicy> policies = Collections.emptyMap();
+    // 按前缀长度倒序，保证最长前缀优先匹配
+    private volatile List<Map.Entry<String, String>> prefixIndex = Collections.emptyList();
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+    public CachePolicyRegistry(ConfigurableEnvironment environment) {
+        this.environment = environment;
+    }
+
+    @PostConstruct
+    public void init() {
+        bind(Binder.get(environment));
+        log.info("缓存策略初始化完成，业务：{}", policies.keySet());
+    }
+
+    /**
+     * 获取业务的缓存策略，未配置的业务返回默认策略
+     */
+    public CachePolicy getPolicy(String business) {
+        if (business == null) {
+            return defaultPolicy;
+        }
+        return policies.getOrDefault(business, defaultPolicy);
+    }
+
+    public CachePolicy getPolicy(BusinessType businessType) {
+        return getPolicy(businessType.getCode());
+    }
+
+    /**
+     * 根据缓存键识别业务编码，无法识别时返回 default
+     */
+    public String resolveBusiness(String key) {
+        for (Map.Entry<String, String> entry : prefixIndex) {
+            if (key.startsWith(entry.getKey())) {
+                return entry.getValue();
+            }
+        }
+        BusinessType businessType = BusinessType.getByKey(key);
+        return businessType != null ? businessType.getCode() : DEFAULT_POLICY;
+    }
+
+    public CachePolicy getPolicyByKey(String key) {
+        return getPolicy(resolveBusiness(key));
+    }
+
+    /**
+     * 注册策略变更回调
+     */
+    public void onChange(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * 从配置文件重新加载策略，无需重启
+     * @return 重新加载后的策略
+     */
+    public Map<String, Object> reload() {
+        List<PropertySource<?>> reloaded = new ArrayList<>();
+        YamlPropertySourceLoader loader = new YamlPropertySourceLoader();
+        for (String location : reloadLocations) {
+            Resource resource = resourceLoader.getResource(location.trim());
+            if (!resource.exists()) {
+                continue;
+            }
+            try {
+                for (PropertySource<?> source : loader.load("cache-policy:" + location, resource)) {
+                    reloaded.add(source);
+                }
+            } catch (IOException e) {
+                log.error("读取缓存策略配置失败：{}", location, e);
+            }
+        }
+        // 重新加载的文件替换启动时加载的配置文件，放在原来的位置，启动参数、环境变量等仍然优先
+        MutablePropertySources sources = new MutablePropertySources();
+        boolean replaced = false;
+        for (PropertySource<?> source : environment.getPropertySources()) {
+            if (!isConfigFile(source)) {
+                sources.addLast(source);
+            } else if (!replaced) {
+                reloaded.forEach(sources::addLast);
+                replaced = true;
+            }
+        }
+        if (!replaced) {
+            reloaded.forEach(sources::addLast);
+        }
+        bind(new Binder(ConfigurationPropertySources.from(sources)));
+        listeners.forEach(listener -> {
+            try {
+                listener.run();
+            } catch (Exception e) {
+                log.error("应用缓存策略变更失败", e);
+            }
+        });
+        log.info("缓存策略已重新加载，业务：{}", policies.keySet());
+        return getPolicies();
+    }
+
+    /**
+     * 启动时从配置文件(application.yaml等)加载的配置源
+     */
+    private static boolean isConfigFile(PropertySource<?> source) {
+        return source instanceof OriginTrackedMapPropertySource && source.getName().startsWith(CONFIG_FILE_SOURCE_PREFIX);
+    }
+
+    private void bind(Binder binder) {
+        CachePolicy defaults = binder.bind(POLICY_PREFIX + ".defaults", Bindable.ofInstance(new CachePolicy()))
+                .orElseGet(CachePolicy::new);
+
+        List<String> businesses = new ArrayList<>();
+        for (BusinessType type : BusinessType.values()) {
+            businesses.add(type.getCode());
+        }
+        binder.bind(POLICY_PREFIX + ".business", Bindable.mapOf(String.class, CachePolicy.class))
+                .ifBound(configured -> configured.keySet().stream()
+                        .filter(code -> !businesses.contains(code))
+                        .forEach(businesses::add));
+
+        Map<String, CachePolicy> resolved = new LinkedHashMap<>();
+        List<Map.Entry<String, String>> prefixes = new ArrayList<>();
+        for (String business : businesses) {
+            // 在默认策略的副本上绑定，未配置的字段继承默认值
+            CachePolicy policy = binder.bind(POLICY_PREFIX + ".business." + business, Bindable.ofInstance(defaults.copy()))
+                    .orElseGet(defaults::copy);
+            resolved.put(business, policy);
+            if (policy.getKeyPrefix() != null && !policy.getKeyPrefix().isEmpty()) {
+                prefixes.add(new AbstractMap.SimpleImmutableEntry<>(policy.getKeyPrefix(), business));
+            }
+        }
+        prefixes.sort(Comparator.comparingInt((Map.Entry<String, String> e) -> e.getKey().length()).reversed());
+
+        this.defaultPolicy = defaults;
+        this.policies = resolved;
+        this.prefixIndex = prefixes;
+    }
+
+    /**
+     * 获取当前生效的全部策略
+     */
+    public Map<String, Object> getPolicies() {
+        Map<String, Object> result = new HashMap<>();
+        result.put(DEFAULT_POLICY, defaultPolicy);
+        result.put("business", policies);
+        return result;
+    }
+}
@@ -0,0 +1,245 @@
+package com.travelshop.utils;
+
+import com.travelshop.config.CachePolicy;
+import com.travelshop.entity.Blog;
+import com.travelshop.entity.Shop;
+import com.travelshop.entity.Ticket;
+import com.travelshop.entity.Voucher;
+import com.travelshop.enums.BusinessType;
+import com.travelshop.mapper.BlogMapper;
+import com.travelshop.mapper.ShopMapper;
+import com.travelshop.mapper.TicketMapper;
+import com.travelshop.mapper.VoucherMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RRateLimiter;
+import org.redisson.api.RateIntervalUnit;
+import org.redisson.api.RateType;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 热点数据预热
+ * 按业务选出热点ID并按XXL-Job分片拆分，分批从MySQL加载，管道写入Redis并加入布隆过滤器。
+ * 写入速率由集群共享的令牌桶限制，进度记录在Redis中，任务中断后下次执行从断点继续
+ */
+@Slf4j
+@Component
+public class CachePrewarmer {
+
+    private static final String PROGRESS_PREFIX = "cache:prewarm:progress:";
+    private static final String IDS_PREFIX = "cache:prewarm:ids:";
+    private static final String RATE_LIMITER_KEY = "cache:prewarm:limiter";
+    private static final long PROGRESS_TTL_HOURS = 24;
+    private static final String STATUS_RUNNING = "running";
+    private static final String STATUS_DONE = "done";
+    private static final String TICKET_BUSINESS = "ticket";
+    private static final String TICKET_KEY_PREFIX = "cache:ticket";
+    // 未指定业务时预热的全部业务
+    private static final List<String> ALL_BUSINESSES = Arrays.asList(
+            BusinessType.SHOP.getCode(), BusinessType.BLOG.getCode(), BusinessType.VOUCHER.getCode(), TICKET_BUSINESS);
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final UnifiedCache unifiedCache;
+    private final CachePolicyRegistry cachePolicyRegistry;
+    private final TicketHeatManager ticketHeatManager;
+    private final RedissonClient redissonClient;
+    private final ShopMapper shopMapper;
+    private final BlogMapper blogMapper;
+    private final VoucherMapper voucherMapper;
+    private final TicketMapper ticketMapper;
+
+    // 每批从数据库加载的条数
+    @Value("${cache.prewarm.batch-size:200}")
+    private int batchSize;
+    // 每个业务每个分片最多预热的条数
+    @Value("${cache.prewarm.limit:1000}")
+    private int limit;
+    // 集群整体每秒最多写入的key数
+    @Value("${cache.prewarm.rate-per-second:2000}")
+    private long ratePerSecond;
+
+    public CachePrewarmer(StringRedisTemplate stringRedisTemplate, UnifiedCache unifiedCache,
+                          CachePolicyRegistry cachePolicyRegistry, TicketHeatManager ticketHeatManager,
+                          RedissonClient redissonClient, ShopMapper shopMapper, BlogMapper blogMapper,
+                          VoucherMapper voucherMapper, TicketMapper ticketMapper) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.unifiedCache = unifiedCache;
+        this.cachePolicyRegistry = cachePolicyRegistry;
+        this.ticketHeatManager = ticketHeatManager;
+        this.redissonClient = redissonClient;
+        this.shopMapper = shopMapper;
+        this.blogMapper = blogMapper;
+        this.voucherMapper = voucherMapper;
+        this.ticketMapper = ticketMapper;
+    }
+
+    /**
+     * 预热热点数据
+     *
+     * @param businesses 业务编码，如 shop、blog、voucher、ticket，为空时预热全部业务
+     * @param shardIndex 当前分片索引
+     * @param shardTotal 总分片数
+     * @param reset 是否忽略上次未完成的进度重新开始
+     * @return 预热的数据条数
+     */
+    public int prewarm(Collection<String> businesses, int shardIndex, int shardTotal, boolean reset) {
+        Collection<String> targets = businesses == null || businesses.isEmpty() ? ALL_BUSINESSES : businesses;
+        RRateLimiter rateLimiter = redissonClient.getRateLimiter(RATE_LIMITER_KEY);
+        // 只在限流器不存在时设置速率，已存在时沿用，修改速率需先删除该key
+        rateLimiter.trySetRate(RateType.OVERALL, ratePerSecond, 1, RateIntervalUnit.SECONDS);
+
+        int total = 0;
+        for (String business : targets) {
+            try {
+                total += prewarmBusiness(business.trim(), shardIndex, Math.max(shardTotal, 1), reset, rateLimiter);
+            } catch (Exception e) {
+                // 单个业务失败不影响其他业务，进度已保存，下次从断点继续
+                log.error("预热业务[{}]失败，分片{}/{}", business, shardIndex, shardTotal, e);
+            }
+        }
+        return total;
+    }
+
+    private int prewarmBusiness(String business, int shardIndex, int shardTotal, boolean reset, RRateLimiter rateLimiter) {
+        String progressKey = PROGRESS_PREFIX + business + ":" + shardIndex + "-" + shardTotal;
+        String idsKey = IDS_PREFIX + business + ":" + shardIndex + "-" + shardTotal;
+
+        // 1. 上次未完成则从断点继续，否则重新选出热点ID
+        List<Long> ids;
+        long offset;
+        Map<Object, Object> progress = stringRedisTemplate.opsForHash().entries(progressKey);
+        if (!reset && STATUS_RUNNING.equals(progress.get("status"))) {
+            ids = toIds(stringRedisTemplate.opsForList().range(idsKey, 0, -1));
+            offset = Long.parseLong(String.valueOf(progress.getOrDefault("offset", "0")));
+            log.info("继续上次未完成的预热，业务: {}，分片: {}/{}，进度: {}/{}", business, shardIndex, shardTotal, offset, ids.size());
+        } else {
+            ids = selectHotIds(business, shardIndex, shardTotal);
+            offset = 0;
+            stringRedisTemplate.delete(idsKey);
+            if (!ids.isEmpty()) {
+                stringRedisTemplate.opsForList().rightPushAll(idsKey,
+                        ids.stream().map(String::valueOf).collect(Collectors.toList()));
+                stringRedisTemplate.expire(idsKey, PROGRESS_TTL_HOURS, TimeUnit.HOURS);
+            }
+            Map<String, String> init = new HashMap<>();
+            init.put("status", STATUS_RUNNING);
+            init.put("total", String.valueOf(ids.size()));
+            init.put("offset", "0");
+            init.put("startTime", String.valueOf(System.currentTimeMillis()));
+            stringRedisTemplate.opsForHash().putAll(progressKey, init);
+            stringRedisTemplate.expire(progressKey, PROGRESS_TTL_HOURS, TimeUnit.HOURS);
+        }
+
+        // 2. 分批加载并写入，每批写入前获取令牌
+        CachePolicy policy = cachePolicyRegistry.getPolicy(business);
+        int written = 0;
+        for (int from = (int) offset; from < ids.size(); from += batchSize) {
+            List<Long> batch = ids.subList(from, Math.min(from + batchSize, ids.size()));
+            rateLimiter.acquire(Math.min(batch.size(), ratePerSecond));
+            written += prewarmBatch(business, batch, policy);
+            stringRedisTemplate.opsForHash().put(progressKey, "offset", String.valueOf(from + batch.size()));
+        }
+
+        stringRedisTemplate.opsForHash().put(progressKey, "status", STATUS_DONE);
+        stringRedisTemplate.opsForHash().put(progressKey, "endTime", String.valueOf(System.currentTimeMillis()));
+        stringRedisTemplate.delete(idsKey);
+        log.info("预热业务[{}]完成，分片: {}/{}，热点数: {}，写入: {}", business, shardIndex, shardTotal, ids.size(), written);
+        return written;
+    }
+
+    /**
+     * 按业务选出当前分片的热点ID
+     */
+    private List<Long> selectHotIds(String business, int shardIndex, int shardTotal) {
+        switch (business) {
+            case "shop":
+                // 按销量
+                return shopMapper.selectHotIds(shardIndex, shardTotal, limit);
+            case "blog":
+                // 按点赞数
+                return blogMapper.selectHotIds(shardIndex, shardTotal, limit);
+            case "voucher":
+                // 未结束的秒杀券
+                return voucherMapper.selectHotIds(shardIndex, shardTotal, limit);
+            case TICKET_BUSINESS:
+                // 热度评估选出的热门门票
+                return ticketHeatManager.getAllHotTicketIds().stream()
+                        .filter(id -> id % shardTotal == shardIndex)
+                        .limit(limit)
+                        .collect(Collectors.toList());
+            default:
+                log.warn("不支持预热的业务类型: {}", business);
+                return new ArrayList<>();
+        }
+    }
+
+    /**
+     * 批量加载一批数据并写入缓存，缓存键和过期方式与各业务的查询路径一致
+     */
+    private int prewarmBatch(String business, List<Long> ids, CachePolicy policy) {
+        switch (business) {
+            case "shop":
+                // 商铺详情走逻辑过期查询
+                return unifiedCache.prewarmFill(business,
+                        toCacheValues(shopMapper.selectBatchIds(ids), Shop::getId, BusinessType.CACHE_SHOP_KEY),
+                        true, policy.getTtlSeconds());
+            case "blog":
+                return unifiedCache.prewarmFill(business,
+                        toCacheValues(blogMapper.selectBatchIds(ids), Blog::getId, BusinessType.CACHE_BLOG_KEY),
+                        policy.isLogicalExpire(), policy.getTtlSeconds());
+            case "voucher":
+                return unifiedCache.prewarmFill(business,
+                        toCacheValues(voucherMapper.selectBatchIds(ids), Voucher::getId, BusinessType.CACHE_VOUCHER_KEY),
+                        policy.isLogicalExpire(), policy.getTtlSeconds());
+            case TICKET_BUSINESS:
+                // 热门门票使用逻辑过期和热点缓存时间
+                return unifiedCache.prewarmFill(business,
+                        toCacheValues(ticketMapper.selectBatchIds(ids), Ticket::getId, TICKET_KEY_PREFIX),
+                        true, policy.getHotTtlSeconds());
+            default:
+                return 0;
+        }
+    }
+
+    private <T> Map<String, T> toCacheValues(List<T> entities, Function<T, Long> idGetter, String keyPrefix) {
+        Map<String, T> values = new HashMap<>();
+        for (T entity : entities) {
+            values.put(keyPrefix + idGetter.apply(entity), entity);
+        }
+        return values;
+    }
+
+    private List<Long> toIds(List<String> values) {
+        if (values == null) {
+            return new ArrayList<>();
+        }
+        return values.stream().map(Long::valueOf).collect(Collectors.toList());
+    }
+
+    /**
+     * 获取当前分片各业务的预热进度
+     */
+    public Map<String, Object> getProgress(int shardIndex, int shardTotal) {
+        Map<String, Object> result = new HashMap<>();
+        for (String business : ALL_BUSINESSES) {
+            Map<Object, Object> progress = stringRedisTemplate.opsForHash()
+                    .entries(PROGRESS_PREFIX + business + ":" + shardIndex + "-" + shardTotal);
+            if (!progress.isEmpty()) {
+                result.put(business, progress);
+            }
+        }
+        return result;
+    }
+}
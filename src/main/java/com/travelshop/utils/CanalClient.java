@@ -206,7 +206,11 @@ public class CanalClient implements DisposableBean {
             return;
         }
 
-        for (CanalEntry.RowData rowData : rowChange.getRowDatasList()) {
+        // binlog位置唯一标识一行变更，Canal回滚重投时保持不变，消费端据此去重
+        CanalEntry.Header header = entry.getHeader();
+        List<CanalEntry.RowData> rowDatas = rowChange.getRowDatasList();
+        for (int rowIndex = 0; rowIndex < rowDatas.size(); rowIndex++) {
+            CanalEntry.RowData rowData = rowDatas.get(rowIndex);
             Map<String, Object> data = new HashMap<>();
 
             if (eventType == CanalEntry.EventType.DELETE) {
@@ -234,6 +238,10 @@ public class CanalClient implements DisposableBean {
             message.put("table", tableName);
             message.put("operation", operation);
             message.put("data", data);
+            message.put("binlogFile", header.getLogfileName());
+            message.put("binlogOffset", header.getLogfileOffset());
+            message.put("rowIndex", rowIndex);
+            message.put("messageId", header.getLogfileName() + ":" + header.getLogfileOffset() + ":" + rowIndex);
 
             // 发送到RabbitMQ
             rabbitTemplate.convertAndSend(EXCHANGE_NAME, ROUTING_KEY, message);
@@ -0,0 +1,345 @@
+package com.travelshop.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * 热点key探测
+ * 每次缓存查询在Count-Min Sketch中计数，估计值较高的key进入Top-K候选；
+ * 每个统计窗口结束时，访问量超过阈值的key被钉入本地热点层，低于阈值一定比例后取消。
+ * 钉住和取消的决定通过 cache:changes 广播，其他节点按租约钉住，租约内未续期则自动取消
+ */
+@Slf4j
+@Component
+public class HotKeyDetector {
+
+    public static final String OP_PIN = "hotPin";
+    public static final String OP_UNPIN = "hotUnpin";
+    // 其他节点钉住的key的租约：窗口数，源节点每个窗口续期一次
+    private static final int REMOTE_LEASE_WINDOWS = 3;
+
+    private final CacheMessage cacheMessageService;
+
+    // 是否开启热点探测
+    @Value("${cache.hotkey.enabled:true}")
+    private boolean enabled;
+    // 统计窗口(秒)
+    @Value("${cache.hotkey.window-seconds:5}")
+    private int windowSeconds;
+    // 保留的Top-K数量
+    @Value("${cache.hotkey.top-k:100}")
+    private int topK;
+    // 单个窗口内本节点访问次数达到该值时钉住
+    @Value("${cache.hotkey.threshold:500}")
+    private int threshold;
+    // 访问次数低于阈值的该比例时取消钉住
+    @Value("${cache.hotkey.unpin-ratio:0.5}")
+    private double unpinRatio;
+    // 最多同时钉住的key数
+    @Value("${cache.hotkey.pin-max-size:1000}")
+    private int pinMaxSize;
+    // Sketch每行的计数器数量，取2的幂
+    @Value("${cache.hotkey.sketch-width:4096}")
+    private int sketchWidth;
+    // Sketch的行数(哈希函数个数)
+    @Value("${cache.hotkey.sketch-depth:4}")
+    private int sketchDepth;
+    // 估计值达到该值才进入Top-K候选，避免冷key竞争候选锁
+    @Value("${cache.hotkey.candidate-min-count:10}")
+    private int candidateMinCount;
+
+    private volatile Window window;
+    // 上一个窗口的Top-K
+    private volatile List<Map<String, Object>> lastTopK = Collections.emptyList();
+    // 已钉住的key -> 钉住信息
+    private final Map<String, Pin> pins = new ConcurrentHashMap<>();
+    private final List<BiConsumer<String, Boolean>> listeners = new CopyOnWriteArrayList<>();
+
+    private final LongAdder recorded = new LongAdder();
+    private final LongAdder pinCount = new LongAdder();
+    private final LongAdder unpinCount = new LongAdder();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "hot-key-detector-thread");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public HotKeyDetector(CacheMessage cacheMessageService) {
+        this.cacheMessageService = cacheMessageService;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            log.info("热点key探测未开启");
+            return;
+        }
+        // 宽度向上取整为2的幂，下标用位运算计算
+        sketchWidth = Integer.highestOneBit(Math.max(sketchWidth - 1, 1)) << 1;
+        window = new Window(sketchDepth, sketchWidth);
+        scheduler.scheduleWithFixedDelay(this::rotateWindow, windowSeconds, windowSeconds, TimeUnit.SECONDS);
+        cacheMessageService.subscribeToChanges(this::handleCacheMessage);
+        log.info("热点key探测初始化完成，窗口：{}秒，阈值：{}，Top-K：{}", windowSeconds, threshold, topK);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * 注册钉住状态变化的回调，参数为 key 和 是否钉住
+     */
+    public void onPinChange(BiConsumer<String, Boolean> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * 记录一次访问
+     */
+    public void record(String key) {
+        Window current = window;
+        if (current == null) {
+            return;
+        }
+        recorded.increment();
+        int estimate = current.increment(key);
+        if (estimate >= candidateMinCount) {
+            current.offer(key, estimate, topK);
+        }
+    }
+
+    public boolean isPinned(String key) {
+        return !pins.isEmpty() && pins.containsKey(key);
+    }
+
+    /**
+     * 窗口结束：计算Top-K，钉住新的热点，取消已冷却或租约到期的钉住
+     */
+    private void rotateWindow() {
+        try {
+            Window finished = window;
+            window = new Window(sketchDepth, sketchWidth);
+
+            List<Map.Entry<String, Integer>> sorted = new ArrayList<>(finished.snapshot().entrySet());
+            sorted.sort((a, b) -> Integer.compare(b.getValue(), a.getValue()));
+            List<Map<String, Object>> top = new ArrayList<>();
+            for (Map.Entry<String, Integer> candidate : sorted) {
+                Map<String, Object> item = new LinkedHashMap<>();
+                item.put("key", candidate.getKey());
+                item.put("count", candidate.getValue());
+                item.put("qps", candidate.getValue() / windowSeconds);
+                item.put("pinned", pins.containsKey(candidate.getKey()));
+                top.add(item);
+            }
+            lastTopK = top;
+
+            // 本节点判定的热点：新钉住或续期
+            for (Map.Entry<String, Integer> candidate : sorted) {
+                if (candidate.getValue() < threshold) {
+                    break;
+                }
+                String key = candidate.getKey();
+                Pin pin = pins.get(key);
+                if (pin == null && pins.size() >= pinMaxSize) {
+                    continue;
+                }
+                if (pin == null || !pin.local) {
+                    pin(key, true);
+                }
+                // 每个窗口广播一次，为其他节点续期
+                cacheMessageService.publishCacheChange(OP_PIN, key);
+            }
+
+            long now = System.currentTimeMillis();
+            long remoteLeaseMillis = TimeUnit.SECONDS.toMillis((long) windowSeconds * REMOTE_LEASE_WINDOWS);
+            for (Map.Entry<String, Pin> entry : pins.entrySet()) {
+                String key = entry.getKey();
+                Pin pin = entry.getValue();
+                if (pin.local) {
+                    // 阈值与取消比例之间的key保持钉住，避免在阈值附近反复切换
+                    if (finished.estimate(key) < threshold * unpinRatio) {
+                        unpin(key);
+                        cacheMessageService.publishCacheChange(OP_UNPIN, key);
+                    }
+                } else if (now - pin.renewedAt > remoteLeaseMillis) {
+                    unpin(key);
+                }
+            }
+        } catch (Exception e) {
+            log.error("热点key窗口统计失败", e);
+        }
+    }
+
+    private void handleCacheMessage(Map<String, List<String>> changes) {
+        List<String> pinKeys = changes.get(OP_PIN);
+        if (pinKeys != null) {
+            for (String key : pinKeys) {
+                Pin pin = pins.get(key);
+                if (pin != null) {
+                    // 本节点判定的钉住不受其他节点影响
+                    if (!pin.local) {
+                        pin.renewedAt = System.currentTimeMillis();
+                    }
+                } else if (pins.size() < pinMaxSize) {
+                    pin(key, false);
+                }
+            }
+        }
+        List<String> unpinKeys = changes.get(OP_UNPIN);
+        if (unpinKeys != null) {
+            for (String key : unpinKeys) {
+                Pin pin = pins.get(key);
+                if (pin != null && !pin.local) {
+                    unpin(key);
+                }
+            }
+        }
+    }
+
+    private void pin(String key, boolean local) {
+        Pin previous = pins.put(key, new Pin(local));
+        if (previous == null) {
+            pinCount.increment();
+            log.info("钉住热点key: {}，来源：{}", key, local ? "本节点" : "其他节点");
+            listeners.forEach(listener -> listener.accept(key, true));
+        }
+    }
+
+    private void unpin(String key) {
+        if (pins.remove(key) != null) {
+            unpinCount.increment();
+            log.info("取消钉住热点key: {}", key);
+            listeners.forEach(listener -> listener.accept(key, false));
+        }
+    }
+
+    /**
+     * 获取上一个窗口的Top-K和当前钉住的key
+     */
+    public Map<String, Object> getHotKeys() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("enabled", enabled);
+        result.put("windowSeconds", windowSeconds);
+        result.put("threshold", threshold);
+        result.put("topK", lastTopK);
+        Map<String, Object> pinned = new HashMap<>();
+        pins.forEach((key, pin) -> pinned.put(key, pin.local ? "local" : "remote"));
+        result.put("pinned", pinned);
+        result.put("recorded", recorded.sum());
+        result.put("pins", pinCount.sum());
+        result.put("unpins", unpinCount.sum());
+        return result;
+    }
+
+    private static class Pin {
+        // 是否由本节点判定
+        private final boolean local;
+        private volatile long renewedAt = System.currentTimeMillis();
+
+        Pin(boolean local) {
+            this.local = local;
+        }
+    }
+
+    /**
+     * 一个统计窗口：Count-Min Sketch + Top-K候选
+     */
+    private static class Window {
+        private final AtomicIntegerArray counters;
+        private final int depth;
+        private final int mask;
+        private final Map<String, Integer> candidates = new ConcurrentHashMap<>();
+        // 候选集合已满时的最小计数，估计值超过它才需要加锁替换
+        private volatile int minCandidate;
+
+        Window(int depth, int width) {
+            this.depth = depth;
+            this.mask = width - 1;
+            this.counters = new AtomicIntegerArray(depth * width);
+        }
+
+        int increment(String key) {
+            int h1 = key.hashCode();
+            int h2 = spread(h1);
+            int min = Integer.MAX_VALUE;
+            for (int i = 0; i < depth; i++) {
+                int index = i * (mask + 1) + ((h1 + i * h2) & mask);
+                min = Math.min(min, counters.incrementAndGet(index));
+            }
+            return min;
+        }
+
+        int estimate(String key) {
+            int h1 = key.hashCode();
+            int h2 = spread(h1);
+            int min = Integer.MAX_VALUE;
+            for (int i = 0; i < depth; i++) {
+                min = Math.min(min, counters.get(i * (mask + 1) + ((h1 + i * h2) & mask)));
+            }
+            return min;
+        }
+
+        void offer(String key, int estimate, int topK) {
+            if (candidates.containsKey(key)) {
+                candidates.put(key, estimate);
+                return;
+            }
+            if (candidates.size() >= topK && estimate <= minCandidate) {
+                return;
+            }
+            synchronized (this) {
+                if (candidates.size() >= topK) {
+                    // 淘汰计数最小的候选
+                    String minKey = null;
+                    int min = Integer.MAX_VALUE;
+                    for (Map.Entry<String, Integer> entry : candidates.entrySet()) {
+                        if (entry.getValue() < min) {
+                            min = entry.getValue();
+                            minKey = entry.getKey();
+                        }
+                    }
+                    if (minKey == null || estimate <= min) {
+                        minCandidate = min;
+                        return;
+                    }
+                    candidates.remove(minKey);
+                }
+                candidates.put(key, estimate);
+                if (candidates.size() >= topK) {
+                    minCandidate = Collections.min(candidates.values());
+                }
+            }
+        }
+
+        Map<String, Integer> snapshot() {
+            return new HashMap<>(candidates);
+        }
+
+        private static int spread(int h) {
+            h ^= h >>> 16;
+            h *= 0x85ebca6b;
+            h ^= h >>> 13;
+            return h | 1;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.travelshop.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 有界、可观测的线程池
+ * 线程按名称编号，队列有界，队列满时拒绝新任务；按key提交的任务同一时刻只保留一个，
+ * 重复提交直接丢弃。统计排队等待和执行耗时，关闭时等待已提交的任务执行完
+ */
+@Slf4j
+public class ManagedExecutor extends ThreadPoolExecutor {
+
+    private final String name;
+    private final Set<String> inFlightKeys = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder duplicatesDropped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder runNanos = new LongAdder();
+    private final LongAdder finished = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong maxRunNanos = new AtomicLong();
+
+    public ManagedExecutor(String name, int coreSize, int maxSize, int queueCapacity) {
+        super(coreSize, maxSize, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueCapacity),
+                namedThreadFactory(name), new AbortPolicy());
+        this.name = name;
+        allowCoreThreadTimeOut(true);
+    }
+
+    public static ThreadFactory namedThreadFactory(String name) {
+        AtomicInteger index = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, name + "-" + index.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        try {
+            super.execute(new TimedTask(command));
+            submitted.increment();
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw e;
+        }
+    }
+
+    /**
+     * 按key提交任务，同一个key的任务在执行完之前不会重复提交
+     * @return 是否已提交，key重复或队列已满时返回false
+     */
+    public boolean submitKeyed(String key, Runnable task) {
+        if (!inFlightKeys.add(key)) {
+            duplicatesDropped.increment();
+            return false;
+        }
+        try {
+            execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    inFlightKeys.remove(key);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            inFlightKeys.remove(key);
+            log.warn("线程池[{}]队列已满，丢弃任务: {}", name, key);
+            return false;
+        }
+    }
+
+    /**
+     * 停止接收新任务，等待已提交的任务执行完，超时后中断
+     */
+    public void shutdownGracefully(long timeoutSeconds) {
+        shutdown();
+        try {
+            if (!awaitTermination(timeoutSeconds, TimeUnit.SECONDS)) {
+                log.warn("线程池[{}]在{}秒内未执行完，剩余{}个任务被丢弃", name, timeoutSeconds, shutdownNow().size());
+            }
+        } catch (InterruptedException e) {
+            shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        long done = finished.sum();
+        stats.put("poolSize", getPoolSize());
+        stats.put("activeThreads", getActiveCount());
+        stats.put("maxPoolSize", getMaximumPoolSize());
+        stats.put("largestPoolSize", getLargestPoolSize());
+        stats.put("queueSize", getQueue().size());
+        stats.put("queueRemaining", getQueue().remainingCapacity());
+        stats.put("inFlightKeys", inFlightKeys.size());
+        stats.put("submitted", submitted.sum());
+        stats.put("completed", done);
+        stats.put("failed", failed.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("duplicatesDropped", duplicatesDropped.sum());
+        stats.put("avgWaitMillis", done == 0 ? 0 : waitNanos.sum() / done / 1_000_000.0);
+        stats.put("maxWaitMillis", maxWaitNanos.get() / 1_000_000.0);
+        stats.put("avgRunMillis", done == 0 ? 0 : runNanos.sum() / done / 1_000_000.0);
+        stats.put("maxRunMillis", maxRunNanos.get() / 1_000_000.0);
+        return stats;
+    }
+
+    /**
+     * 记录排队等待和执行耗时
+     */
+    private class TimedTask implements Runnable {
+        private final Runnable delegate;
+        private final long submitNanos = System.nanoTime();
+
+        TimedTask(Runnable delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            long wait = start - submitNanos;
+            waitNanos.add(wait);
+            maxWaitNanos.accumulateAndGet(wait, Math::max);
+            try {
+                delegate.run();
+            } catch (RuntimeException e) {
+                failed.increment();
+                log.error("线程池[{}]任务执行异常", name, e);
+            } finally {
+                long run = System.nanoTime() - start;
+                runNanos.add(run);
+                maxRunNanos.accumulateAndGet(run, Math::max);
+                finished.increment();
+            }
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package com.travelshop.utils;
+
+import io.lettuce.core.ClientOptions;
+import io.lettuce.core.RedisChannelHandler;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisConnectionStateListener;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.TrackingArgs;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.push.PushMessage;
+import io.lettuce.core.protocol.ProtocolVersion;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * 基于Redis客户端缓存(CLIENT TRACKING)的本地缓存失效
+ * 开启后使用一条独立的RESP3连接，以广播模式跟踪缓存前缀，任何客户端修改这些key时Redis主动推送失效通知，
+ * 本地缓存因此可以保留更长时间。Redis版本低于6、连接失败或断开时回退为原有的 cache:changes 广播和短过期时间
+ */
+@Slf4j
+@Component
+public class NearCacheTracker {
+
+    private static final String MODE_TRACKING = "tracking";
+    private static final String INVALIDATE = "invalidate";
+
+    private final RedisProperties redisProperties;
+
+    // 本地缓存失效方式：pubsub(cache:changes广播) / tracking(Redis客户端缓存，失败时回退pubsub)
+    @Value("${cache.near.mode:pubsub}")
+    private String mode;
+    // 广播模式跟踪的key前缀
+    @Value("${cache.near.tracking-prefixes:cache:,shop:,voucher:,blog:}")
+    private String[] trackingPrefixes;
+    // 跟踪生效时本地缓存的过期时间(秒)
+    @Value("${cache.near.tracking-local-expire-seconds:600}")
+    private long trackingLocalExpireSeconds;
+
+    private RedisClient client;
+    private volatile StatefulRedisConnection<String, String> connection;
+    // 跟踪是否生效，只有生效时才使用长过期时间
+    private volatile boolean active;
+
+    // 参数为失效的key，null表示全部失效
+    private final List<Consumer<List<String>>> invalidationListeners = new CopyOnWriteArrayList<>();
+    private final List<Consumer<Boolean>> stateListeners = new CopyOnWriteArrayList<>();
+
+    private final LongAdder invalidations = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder reconnects = new LongAdder();
+
+    // 连接事件在IO线程回调，重新开启跟踪放到单独线程执行
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "near-cache-tracking-thread");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public NearCacheTracker(RedisProperties redisProperties) {
+        this.redisProperties = redisProperties;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!MODE_TRACKING.equalsIgnoreCase(mode)) {
+            log.info("本地缓存失效方式：cache:changes 广播");
+            return;
+        }
+        try {
+            start();
+            log.info("本地缓存失效方式：Redis客户端缓存跟踪，前缀：{}，本地过期时间：{}秒",
+                    String.join(",", trackingPrefixes), trackingLocalExpireSeconds);
+        } catch (Exception e) {
+            log.warn("开启Redis客户端缓存跟踪失败，回退为 cache:changes 广播", e);
+            shutdown();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        active = false;
+        executor.shutdownNow();
+        if (connection != null) {
+            connection.close();
+            connection = null;
+        }
+        if (client != null) {
+            client.shutdown();
+            client = null;
+        }
+    }
+
+    private void start() {
+        RedisURI.Builder uri = RedisURI.builder()
+                .withHost(redisProperties.getHost())
+                .withPort(redisProperties.getPort())
+                .withDatabase(redisProperties.getDatabase());
+        if (redisProperties.getPassword() != null && !redisProperties.getPassword().isEmpty()) {
+            uri.withPassword(redisProperties.getPassword().toCharArray());
+        }
+        if (redisProperties.getTimeout() != null) {
+            uri.withTimeout(redisProperties.getTimeout());
+        }
+        client = RedisClient.create(uri.build());
+        client.setOptions(ClientOptions.builder()
+                .protocolVersion(ProtocolVersion.RESP3)
+                .autoReconnect(true)
+                .build());
+        client.addListener(new ConnectionStateListener());
+
+        StatefulRedisConnection<String, String> conn = client.connect();
+        conn.addListener(this::handlePush);
+        conn.sync().clientTracking(trackingArgs());
+        connection = conn;
+        setActive(true);
+    }
+
+    private TrackingArgs trackingArgs() {
+        return TrackingArgs.Builder.enabled().bcast().prefixes(trackingPrefixes);
+    }
+
+    private void handlePush(PushMessage message) {
+        if (!INVALIDATE.equals(message.getType())) {
+            return;
+        }
+        List<Object> content = message.getContent();
+        Object keys = content.size() > 1 ? content.get(1) : null;
+        if (!(keys instanceof List)) {
+            // FLUSHDB/FLUSHALL或服务端内存不足清理跟踪表时，失效全部本地缓存
+            flushes.increment();
+            invalidationListeners.forEach(listener -> listener.accept(null));
+            return;
+        }
+        List<String> invalidated = new ArrayList<>();
+        for (Object key : (List<?>) keys) {
+            invalidated.add(decode(key));
+        }
+        invalidations.add(invalidated.size());
+        invalidationListeners.forEach(listener -> listener.accept(invalidated));
+    }
+
+    private static String decode(Object value) {
+        if (value instanceof ByteBuffer) {
+            return StandardCharsets.UTF_8.decode(((ByteBuffer) value).duplicate()).toString();
+        }
+        return String.valueOf(value);
+    }
+
+    private void setActive(boolean value) {
+        if (active == value) {
+            return;
+        }
+        active = value;
+        stateListeners.forEach(listener -> listener.accept(value));
+    }
+
+    /**
+     * 断开期间的修改收不到通知，断开时立即回退；重连后跟踪状态已丢失，需要重新开启
+     */
+    private class ConnectionStateListener implements RedisConnectionStateListener {
+
+        @Override
+        public void onRedisConnected(RedisChannelHandler<?, ?> handler, SocketAddress socketAddress) {
+            StatefulRedisConnection<String, String> conn = connection;
+            if (conn == null || active) {
+                return;
+            }
+            reconnects.increment();
+            executor.execute(() -> {
+                try {
+                    conn.async().clientTracking(trackingArgs()).get(5, TimeUnit.SECONDS);
+                    setActive(true);
+                    log.info("Redis重连后已重新开启客户端缓存跟踪");
+                } catch (Exception e) {
+                    log.warn("重新开启客户端缓存跟踪失败，继续使用 cache:changes 广播", e);
+                }
+            });
+        }
+
+        @Override
+        public void onRedisDisconnected(RedisChannelHandler<?, ?> handler) {
+            if (active) {
+                log.warn("客户端缓存跟踪连接断开，回退为 cache:changes 广播");
+                setActive(false);
+            }
+        }
+
+        @Override
+        public void onRedisExceptionCaught(RedisChannelHandler<?, ?> handler, Throwable cause) {
+            log.debug("客户端缓存跟踪连接异常", cause);
+        }
+    }
+
+    /**
+     * 注册失效回调，参数为失效的key列表，null表示全部失效
+     */
+    public void onInvalidate(Consumer<List<String>> listener) {
+        invalidationListeners.add(listener);
+    }
+
+    /**
+     * 注册跟踪状态变化回调，参数为跟踪是否生效
+     */
+    public void onStateChange(Consumer<Boolean> listener) {
+        stateListeners.add(listener);
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * 本地缓存实际使用的过期时间：跟踪生效时延长到 tracking-local-expire-seconds
+     */
+    public long localExpireSeconds(long policySeconds) {
+        return active ? Math.max(policySeconds, trackingLocalExpireSeconds) : policySeconds;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("mode", mode);
+        stats.put("active", active);
+        stats.put("trackingLocalExpireSeconds", trackingLocalExpireSeconds);
+        stats.put("invalidations", invalidations.sum());
+        stats.put("flushes", flushes.sum());
+        stats.put("reconnects", reconnects.sum());
+        return stats;
+    }
+}
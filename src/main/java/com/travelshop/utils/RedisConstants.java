@@ -17,6 +17,13 @@ public class RedisConstants {
     public static final String CACHE_TYPE_KEY = "cache:type";
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_STOCK_LOCK_KEY = "lock:seckill:stock:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_RESULT_KEY = "seckill:result:";
+    public static final String SECKILL_ORDER_STREAM = "stream.orders";
+    public static final String STOCK_RESERVATION_EXPIRE_KEY = "stock:reservation:expire";
+    public static final String STOCK_RESERVATION_COUNT_KEY = "stock:reservation:count";
+    public static final String STOCK_RESERVATION_RELEASED_KEY = "stock:reservation:released";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     public static final String FEED_KEY = "feed:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
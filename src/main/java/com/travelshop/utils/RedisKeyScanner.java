@@ -0,0 +1,156 @@
+package com.travelshop.utils;
+
+import io.lettuce.core.KeyScanCursor;
+import io.lettuce.core.ScanArgs;
+import io.lettuce.core.ScanCursor;
+import io.lettuce.core.api.async.RedisKeyAsyncCommands;
+import io.lettuce.core.cluster.api.async.RedisAdvancedClusterAsyncCommands;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.RedisSystemException;
+import org.springframework.data.redis.connection.RedisClusterConnection;
+import org.springframework.data.redis.connection.RedisClusterNode;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+/**
+ * 客户端SCAN分页扫描
+ * 由客户端逐页推进游标，不在Lua脚本中执行SCAN(脚本内SCAN结果不确定，集群下也只能扫到一个节点)。
+ * 集群模式依次扫描每个主节点，游标格式为"节点ID:节点游标"；单机游标即SCAN游标。
+ * 游标"0"表示从头开始，返回"0"表示扫描完成，中间游标可以保存下来续扫
+ */
+@Slf4j
+@Component
+public class RedisKeyScanner {
+
+    public static final String START = "0";
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private final LettuceConnectionFactory connectionFactory;
+
+    public RedisKeyScanner(LettuceConnectionFactory connectionFactory) {
+        this.connectionFactory = connectionFactory;
+    }
+
+    /**
+     * 从游标处扫描一页key
+     * @param cursor 上次返回的游标，"0"表示从头开始
+     * @param pattern 匹配模式
+     * @param count 每页扫描数量(COUNT)
+     */
+    public Page scan(String cursor, String pattern, long count) {
+        ScanArgs args = ScanArgs.Builder.matches(pattern).limit(count);
+        if (connectionFactory.isClusterAware()) {
+            return scanCluster(cursor, args);
+        }
+        RedisConnection connection = connectionFactory.getConnection();
+        try {
+            @SuppressWarnings("unchecked")
+            RedisKeyAsyncCommands<byte[], byte[]> commands = (RedisKeyAsyncCommands<byte[], byte[]>) connection.getNativeConnection();
+            KeyScanCursor<byte[]> result = await(commands.scan(ScanCursor.of(cursor), args));
+            return new Page(result.isFinished() ? START : result.getCursor(), decode(result.getKeys()));
+        } finally {
+            connection.close();
+        }
+    }
+
+    private Page scanCluster(String cursor, ScanArgs args) {
+        RedisClusterConnection connection = connectionFactory.getClusterConnection();
+        try {
+            // 按节点ID排序，保证多次执行的扫描顺序一致
+            List<String> masters = new ArrayList<>();
+            for (RedisClusterNode node : connection.clusterGetNodes()) {
+                if (node.isMaster()) {
+                    masters.add(node.getId());
+                }
+            }
+            masters.sort(Comparator.naturalOrder());
+            if (masters.isEmpty()) {
+                return new Page(START, Collections.emptyList());
+            }
+
+            int index = 0;
+            String nodeCursor = START;
+            int separator = cursor.indexOf(':');
+            if (separator > 0) {
+                index = masters.indexOf(cursor.substring(0, separator));
+                nodeCursor = cursor.substring(separator + 1);
+                if (index < 0) {
+                    // 拓扑变化后节点已不存在，从头扫描
+                    log.warn("SCAN游标中的节点已不存在，从头扫描: {}", cursor);
+                    index = 0;
+                    nodeCursor = START;
+                }
+            }
+
+            @SuppressWarnings("unchecked")
+            RedisAdvancedClusterAsyncCommands<byte[], byte[]> commands =
+                    (RedisAdvancedClusterAsyncCommands<byte[], byte[]>) connection.getNativeConnection();
+            String nodeId = masters.get(index);
+            KeyScanCursor<byte[]> result = await(commands.getConnection(nodeId).scan(ScanCursor.of(nodeCursor), args));
+            String next;
+            if (!result.isFinished()) {
+                next = nodeId + ":" + result.getCursor();
+            } else if (index + 1 < masters.size()) {
+                next = masters.get(index + 1) + ":" + START;
+            } else {
+                next = START;
+            }
+            return new Page(next, decode(result.getKeys()));
+        } finally {
+            connection.close();
+        }
+    }
+
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RedisSystemException("SCAN被中断", e);
+        } catch (ExecutionException | TimeoutException e) {
+            throw new RedisSystemException("SCAN执行失败", e);
+        }
+    }
+
+    private static List<String> decode(List<byte[]> keys) {
+        return keys.stream().map(key -> new String(key, StandardCharsets.UTF_8)).collect(Collectors.toList());
+    }
+
+    /**
+     * 一页扫描结果
+     */
+    public static class Page {
+        private final String cursor;
+        private final List<String> keys;
+
+        Page(String cursor, List<String> keys) {
+            this.cursor = cursor;
+            this.keys = keys;
+        }
+
+        public String getCursor() {
+            return cursor;
+        }
+
+        public List<String> getKeys() {
+            return keys;
+        }
+
+        public boolean isFinished() {
+            return START.equals(cursor);
+        }
+    }
+}
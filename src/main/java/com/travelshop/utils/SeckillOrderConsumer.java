@@ -0,0 +1,302 @@
+package com.travelshop.utils;
+
+import com.travelshop.entity.VoucherOrder;
+import com.travelshop.service.IVoucherOrderService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisCallback;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.travelshop.service.impl.SeckillVoucherServiceImpl.RESULT_FAILED;
+import static com.travelshop.service.impl.SeckillVoucherServiceImpl.RESULT_SUCCESS;
+import static com.travelshop.utils.RedisConstants.SECKILL_ORDER_KEY;
+import static com.travelshop.utils.RedisConstants.SECKILL_ORDER_STREAM;
+import static com.travelshop.utils.RedisConstants.SECKILL_RESULT_KEY;
+import static com.travelshop.utils.RedisConstants.SECKILL_STOCK_KEY;
+
+/**
+ * 秒杀订单消费者
+ * 以消费者组读取 seckill.lua 写入 stream.orders 的下单消息，按批写入数据库并合并扣减库存，
+ * 写库成功后ACK并更新下单结果。写库失败的消息留在待处理列表中，退避后重新处理；
+ * 其他节点宕机遗留的消息空闲超时后被认领。
+ * 只有无法写入的消息(违反数据库约束)才标记为下单失败并回补Redis库存，数据库不可用等临时故障不计入，
+ * 恢复后订单照常写库
+ */
+@Slf4j
+@Component
+public class SeckillOrderConsumer {
+
+    private static final String GROUP = "g1";
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final IVoucherOrderService voucherOrderService;
+    private final SoldOutRegistry soldOutRegistry;
+
+    @Value("${seckill.mode:db}")
+    private String mode;
+    // 每批读取的消息数
+    @Value("${seckill.stream.batch-size:100}")
+    private int batchSize;
+    // 没有消息时阻塞等待的时间(毫秒)
+    @Value("${seckill.stream.block-millis:2000}")
+    private long blockMillis;
+    // 检查待处理消息的间隔(秒)
+    @Value("${seckill.stream.recover-interval-seconds:30}")
+    private long recoverIntervalSeconds;
+    // 其他消费者的消息空闲超过该时间(毫秒)后认领
+    @Value("${seckill.stream.claim-idle-millis:60000}")
+    private long claimIdleMillis;
+
+    private final String consumerName = "consumer-" + ManagementFactory.getRuntimeMXBean().getName();
+    private volatile boolean running;
+    private Thread worker;
+
+    private final LongAdder saved = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder recovered = new LongAdder();
+    private final LongAdder deadLetters = new LongAdder();
+
+    public SeckillOrderConsumer(StringRedisTemplate stringRedisTemplate, IVoucherOrderService voucherOrderService,
+                                SoldOutRegistry soldOutRegistry) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.voucherOrderService = voucherOrderService;
+        this.soldOutRegistry = soldOutRegistry;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!"redis".equalsIgnoreCase(mode)) {
+            return;
+        }
+        createGroup();
+        running = true;
+        worker = ManagedExecutor.namedThreadFactory("seckill-order-consumer").newThread(this::run);
+        worker.start();
+        log.info("秒杀订单消费者启动：{}，每批{}条", consumerName, batchSize);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        if (worker != null) {
+            try {
+                // 等待当前批次处理完，未处理的消息留在Stream中由下次启动处理
+                worker.join(blockMillis + TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void createGroup() {
+        try {
+            stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+                ((StringRedisConnection) connection).execute("XGROUP", "CREATE", SECKILL_ORDER_STREAM, GROUP, "0", "MKSTREAM");
+                return null;
+            });
+            log.info("创建消费者组：{} {}", SECKILL_ORDER_STREAM, GROUP);
+        } catch (Exception e) {
+            // 消费者组已存在(BUSYGROUP)
+            log.debug("消费者组已存在：{}", e.getMessage());
+        }
+    }
+
+    private void run() {
+        long nextRecover = 0;
+        int failures = 0;
+        while (running) {
+            try {
+                if (System.currentTimeMillis() >= nextRecover) {
+                    recoverPending();
+                    nextRecover = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(recoverIntervalSeconds);
+                }
+                List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().read(
+                        Consumer.from(GROUP, consumerName),
+                        StreamReadOptions.empty().count(batchSize).block(Duration.ofMillis(blockMillis)),
+                        StreamOffset.create(SECKILL_ORDER_STREAM, ReadOffset.lastConsumed()));
+                if (records != null && !records.isEmpty()) {
+                    handle(records);
+                }
+                failures = 0;
+            } catch (Exception e) {
+                if (!running) {
+                    break;
+                }
+                // 连续失败时指数退避，最长不超过待处理消息的检查间隔
+                long backoff = Math.min(1000L << Math.min(failures++, 10), TimeUnit.SECONDS.toMillis(recoverIntervalSeconds));
+                log.error("处理秒杀订单消息失败，消息留在待处理列表中，{}毫秒后重试", backoff, e);
+                // 退避结束后重新处理待处理列表
+                nextRecover = 0;
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        log.info("秒杀订单消费者已停止：{}", consumerName);
+    }
+
+    /**
+     * 处理待处理列表：认领其他消费者空闲超时的消息，再重新处理本消费者未ACK的消息
+     */
+    private void recoverPending() {
+        PendingMessages pending = stringRedisTemplate.opsForStream()
+                .pending(SECKILL_ORDER_STREAM, GROUP, Range.unbounded(), (long) batchSize * 10);
+        List<RecordId> toClaim = new ArrayList<>();
+        for (PendingMessage message : pending) {
+            if (!consumerName.equals(message.getConsumerName())
+                    && message.getElapsedTimeSinceLastDelivery().toMillis() >= claimIdleMillis) {
+                toClaim.add(message.getId());
+            }
+        }
+        if (!toClaim.isEmpty()) {
+            stringRedisTemplate.opsForStream().claim(SECKILL_ORDER_STREAM, GROUP, consumerName,
+                    Duration.ofMillis(claimIdleMillis), toClaim.toArray(new RecordId[0]));
+            log.info("认领其他消费者的秒杀订单消息{}条", toClaim.size());
+        }
+
+        while (running) {
+            // 从0开始读取的是本消费者已投递未ACK的消息
+            List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().read(
+                    Consumer.from(GROUP, consumerName),
+                    StreamReadOptions.empty().count(batchSize),
+                    StreamOffset.create(SECKILL_ORDER_STREAM, ReadOffset.from("0")));
+            if (records == null || records.isEmpty()) {
+                return;
+            }
+            recovered.add(records.size());
+            handle(records);
+        }
+    }
+
+    private void handle(List<MapRecord<String, Object, Object>> records) {
+        List<VoucherOrder> orders = new ArrayList<>(records.size());
+        List<RecordId> ids = new ArrayList<>(records.size());
+        LocalDateTime now = LocalDateTime.now();
+        for (MapRecord<String, Object, Object> record : records) {
+            ids.add(record.getId());
+            VoucherOrder order = toOrder(record.getValue());
+            if (order == null) {
+                log.error("秒杀订单消息格式错误，直接丢弃：{} {}", record.getId(), record.getValue());
+                continue;
+            }
+            order.setPayType(1);
+            order.setStatus(1);
+            order.setCreateTime(now);
+            order.setUpdateTime(now);
+            orders.add(order);
+        }
+
+        // 写库失败时抛出异常，消息不ACK
+        Set<Long> failedIds;
+        try {
+            failedIds = orders.isEmpty() ? Collections.emptySet() : voucherOrderService.saveSeckillOrders(orders);
+        } catch (DataIntegrityViolationException e) {
+            if (records.size() == 1) {
+                deadLetter(ids.get(0), orders.isEmpty() ? null : orders.get(0), e);
+                return;
+            }
+            // 整批已回滚，逐条重新写入找出违反约束的订单，其余订单照常写库
+            log.warn("秒杀订单批量写库违反约束，逐条重新写入：{}", e.getMessage());
+            for (MapRecord<String, Object, Object> record : records) {
+                handle(Collections.singletonList(record));
+            }
+            return;
+        }
+
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (VoucherOrder order : orders) {
+                boolean success = !failedIds.contains(order.getId());
+                conn.hSet(SECKILL_RESULT_KEY + order.getId(), "status", success ? RESULT_SUCCESS : RESULT_FAILED);
+                if (!success) {
+                    // 数据库库存已不足，只允许用户重新参与，不回补Redis库存
+                    conn.sRem(SECKILL_ORDER_KEY + order.getVoucherId(), order.getUserId().toString());
+                }
+            }
+            // 确认后删除，Stream只保留未写库的订单，库存对账据此计算在途订单
+            RecordId[] recordIds = ids.toArray(new RecordId[0]);
+            conn.xAck(SECKILL_ORDER_STREAM, GROUP, recordIds);
+            conn.xDel(SECKILL_ORDER_STREAM, recordIds);
+            return null;
+        });
+        saved.add(orders.size() - failedIds.size());
+        failed.add(failedIds.size());
+    }
+
+    /**
+     * 违反数据库约束无法写入的消息：订单不存在时标记下单失败，回补Redis库存并允许用户重新参与；
+     * 订单已存在说明被认领的消息已由其他消费者写库，按下单成功处理
+     */
+    private void deadLetter(RecordId id, VoucherOrder order, Exception cause) {
+        if (order != null && voucherOrderService.getById(order.getId()) != null) {
+            stringRedisTemplate.opsForHash().put(SECKILL_RESULT_KEY + order.getId(), "status", RESULT_SUCCESS);
+            log.info("秒杀订单{}已由其他消费者写入数据库", order.getId());
+        } else if (order != null) {
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                conn.hSet(SECKILL_RESULT_KEY + order.getId(), "status", RESULT_FAILED);
+                conn.sRem(SECKILL_ORDER_KEY + order.getVoucherId(), order.getUserId().toString());
+                conn.incr(SECKILL_STOCK_KEY + order.getVoucherId());
+                return null;
+            });
+            soldOutRegistry.reset(SoldOutRegistry.voucherKey(order.getVoucherId()));
+            log.error("秒杀订单{}无法写入数据库，标记为下单失败并回补库存", order.getId(), cause);
+            deadLetters.increment();
+        }
+        stringRedisTemplate.opsForStream().acknowledge(SECKILL_ORDER_STREAM, GROUP, id);
+        stringRedisTemplate.opsForStream().delete(SECKILL_ORDER_STREAM, id);
+    }
+
+    private static VoucherOrder toOrder(Map<Object, Object> value) {
+        try {
+            VoucherOrder order = new VoucherOrder();
+            order.setId(Long.valueOf(value.get("id").toString()));
+            order.setUserId(Long.valueOf(value.get("userId").toString()));
+            order.setVoucherId(Long.valueOf(value.get("voucherId").toString()));
+            return order;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("mode", mode);
+        stats.put("consumer", consumerName);
+        stats.put("running", running);
+        stats.put("saved", saved.sum());
+        stats.put("failed", failed.sum());
+        stats.put("recovered", recovered.sum());
+        stats.put("deadLetters", deadLetters.sum());
+        return stats;
+    }
+}
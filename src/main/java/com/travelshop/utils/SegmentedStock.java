@@ -0,0 +1,390 @@
+package com.travelshop.utils;
+
+import com.travelshop.mapper.TicketSkuMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.RedisCallback;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 热门门票SKU的分段库存
+ * 单个 ticket:stock:<skuId> 的库存key会让所有购买者在同一个key(集群下同一个分片)上排队。
+ * 本节点每秒扣减次数超过阈值的SKU把库存拆到N个分段key，分段key的hash tag各不相同，集群下分布到不同分片；
+ * 购买者按用户哈希选择分段，分段不足时依次向其他分段借库存，一笔多件的订单可以由多个分段凑齐。SKU冷却后各分段库存合并回单个key。
+ * 分段数记录在 ticket:stock:segments 中，变化时通过 cache:changes 通知其他节点
+ */
+@Slf4j
+@Component
+public class SegmentedStock {
+
+    public static final String SINGLE_KEY_PREFIX = "ticket:stock:";
+    // skuId -> 分段数
+    public static final String SEGMENTS_KEY = "ticket:stock:segments";
+    // 存在表示SKU仍然热门，过期后合并分段
+    private static final String HOT_MARK_KEY = "ticket:stock:segments:hot:";
+    private static final String LOCK_KEY = "lock:ticket:stock:segments:";
+    private static final String OP_SEGMENTS = "stockSegments";
+
+    // stock_check.lua 返回值
+    public static final long SOLD_OUT = -1;
+    public static final long INSUFFICIENT = -2;
+    public static final long NOT_LOADED = -3;
+
+    // 分段锁的超时时间(秒)
+    private static final long LOCK_SECONDS = 10;
+
+    private static final DefaultRedisScript<List> TAKE_SCRIPT;
+    private static final DefaultRedisScript<Long> REFUND_SCRIPT;
+
+    static {
+        TAKE_SCRIPT = new DefaultRedisScript<>();
+        TAKE_SCRIPT.setLocation(new ClassPathResource("segment_stock_take.lua"));
+        TAKE_SCRIPT.setResultType(List.class);
+        REFUND_SCRIPT = new DefaultRedisScript<>();
+        REFUND_SCRIPT.setLocation(new ClassPathResource("segment_stock_refund.lua"));
+        REFUND_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final TicketSkuMapper ticketSkuMapper;
+    private final CacheMessage cacheMessageService;
+    private final DistributedLock distributedLock;
+    private final TicketStockWriteBehind stockWriteBehind;
+
+    // 是否开启分段库存
+    @Value("${ticket.stock.segment.enabled:true}")
+    private boolean enabled;
+    // 分段数
+    @Value("${ticket.stock.segment.count:8}")
+    private int segmentCount;
+    // 本节点每秒扣减次数达到该值时拆分
+    @Value("${ticket.stock.segment.split-threshold:200}")
+    private int splitThreshold;
+    // 所有节点的扣减速率都低于阈值一半持续该时间(秒)后合并
+    @Value("${ticket.stock.segment.cool-down-seconds:300}")
+    private long coolDownSeconds;
+    // 统计窗口(秒)
+    @Value("${ticket.stock.segment.window-seconds:10}")
+    private int windowSeconds;
+
+    // 本节点已知的分段SKU：skuId -> 分段数
+    private final Map<Long, Integer> segments = new ConcurrentHashMap<>();
+    // 当前窗口内各SKU的扣减次数
+    private volatile Map<Long, LongAdder> counts = new ConcurrentHashMap<>();
+
+    private final LongAdder splits = new LongAdder();
+    private final LongAdder merges = new LongAdder();
+    private final LongAdder borrows = new LongAdder();
+
+    private final LongAdder refunds = new LongAdder();
+
+    private final ScheduledThreadPoolExecutor scheduler =
+            new ScheduledThreadPoolExecutor(1, ManagedExecutor.namedThreadFactory("segmented-stock"));
+
+    public SegmentedStock(StringRedisTemplate stringRedisTemplate, TicketSkuMapper ticketSkuMapper,
+                          CacheMessage cacheMessageService, DistributedLock distributedLock,
+                          TicketStockWriteBehind stockWriteBehind) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.ticketSkuMapper = ticketSkuMapper;
+        this.cacheMessageService = cacheMessageService;
+        this.distributedLock = distributedLock;
+        this.stockWriteBehind = stockWriteBehind;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            log.info("分段库存未开启");
+            return;
+        }
+        reloadSegments();
+        cacheMessageService.subscribeToChanges(changes -> {
+            List<String> skuIds = changes.get(OP_SEGMENTS);
+            if (skuIds != null) {
+                skuIds.forEach(skuId -> refresh(Long.valueOf(skuId)));
+            }
+        });
+        scheduler.scheduleWithFixedDelay(this::evaluate, windowSeconds, windowSeconds, TimeUnit.SECONDS);
+        log.info("分段库存初始化完成，分段数：{}，拆分阈值：{}次/秒，已分段SKU：{}", segmentCount, splitThreshold, segments.size());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // 定时任务不再触发，正在执行的拆分或合并执行完
+        scheduler.setContinueExistingPeriodicTasksAfterShutdownPolicy(false);
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(LOCK_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static String segmentKey(Object skuId, int index) {
+        // hash tag 包含分段序号，集群下各分段落在不同的槽
+        return SINGLE_KEY_PREFIX + "{" + skuId + ":" + index + "}";
+    }
+
+    /**
+     * 本节点已知的分段数，0表示单key库存
+     */
+    public int segmentsOf(Long skuId) {
+        Integer n = segments.get(skuId);
+        return n == null ? 0 : n;
+    }
+
+    /**
+     * 从Redis重新读取分段数
+     */
+    public int refresh(Long skuId) {
+        Object value = stringRedisTemplate.opsForHash().get(SEGMENTS_KEY, skuId.toString());
+        if (value == null) {
+            segments.remove(skuId);
+            return 0;
+        }
+        int n = Integer.parseInt(value.toString());
+        segments.put(skuId, n);
+        return n;
+    }
+
+    private void reloadSegments() {
+        Map<Object, Object> all = stringRedisTemplate.opsForHash().entries(SEGMENTS_KEY);
+        segments.clear();
+        all.forEach((skuId, n) -> segments.put(Long.valueOf(skuId.toString()), Integer.valueOf(n.toString())));
+    }
+
+    /**
+     * 记录一次扣减，用于判断是否需要拆分
+     */
+    public void record(Long skuId) {
+        if (!enabled) {
+            return;
+        }
+        Map<Long, LongAdder> current = counts;
+        LongAdder adder = current.get(skuId);
+        if (adder == null) {
+            adder = current.computeIfAbsent(skuId, k -> new LongAdder());
+        }
+        adder.increment();
+    }
+
+    /**
+     * 从分段扣减库存：先扣用户哈希对应的分段，不足时依次向其他分段借，一笔多件的订单可以由多个分段凑齐，
+     * 所有分段加起来仍不足时退回已扣的部分
+     * @param routing 路由哈希，通常为用户ID
+     * @return 成功时返回最后所扣分段的剩余库存；全部分段售罄返回 SOLD_OUT，
+     *         分段正在拆分或合并返回 NOT_LOADED，其余情况返回 INSUFFICIENT
+     */
+    public long decrease(Long skuId, int count, long routing) {
+        int n = segmentsOf(skuId);
+        if (n == 0) {
+            return NOT_LOADED;
+        }
+        int start = (int) Math.floorMod(routing, (long) n);
+        Map<Integer, Long> taken = new LinkedHashMap<>();
+        long total = 0;
+        long remaining = 0;
+        boolean allSoldOut = true;
+        boolean notLoaded = false;
+        for (int i = 0; i < n && total < count; i++) {
+            int index = (start + i) % n;
+            List<?> result = stringRedisTemplate.execute(TAKE_SCRIPT,
+                    Collections.singletonList(segmentKey(skuId, index)), String.valueOf(count - total));
+            if (result == null || result.size() < 2) {
+                allSoldOut = false;
+                continue;
+            }
+            long got = ((Number) result.get(0)).longValue();
+            if (got == NOT_LOADED) {
+                notLoaded = true;
+                allSoldOut = false;
+                continue;
+            }
+            remaining = ((Number) result.get(1)).longValue();
+            if (got > 0) {
+                taken.put(index, got);
+                total += got;
+                allSoldOut = false;
+            } else if (remaining > 0) {
+                allSoldOut = false;
+            }
+        }
+        if (total >= count) {
+            if (taken.size() > 1 || !taken.containsKey(start)) {
+                borrows.increment();
+            }
+            return remaining;
+        }
+        refund(skuId, taken);
+        if (notLoaded) {
+            // 其他节点刚合并或正在拆分，重新读取分段数由调用方重试
+            refresh(skuId);
+            return NOT_LOADED;
+        }
+        return allSoldOut ? SOLD_OUT : INSUFFICIENT;
+    }
+
+    /**
+     * 退回凑不齐数量时已从各分段扣减的库存，分段已合并时退回单key
+     */
+    private void refund(Long skuId, Map<Integer, Long> taken) {
+        taken.forEach((index, amount) -> {
+            Long refunded = stringRedisTemplate.execute(REFUND_SCRIPT,
+                    Collections.singletonList(segmentKey(skuId, index)), String.valueOf(amount));
+            if (refunded == null || refunded == 0) {
+                stringRedisTemplate.opsForValue().increment(SINGLE_KEY_PREFIX + skuId, amount);
+            }
+            refunds.increment();
+        });
+    }
+
+    /**
+     * 每个窗口结束：本节点扣减速率达到阈值的SKU拆分，仍然较热的SKU续期热点标记，标记过期的SKU合并
+     */
+    private void evaluate() {
+        try {
+            Map<Long, LongAdder> finished = counts;
+            counts = new ConcurrentHashMap<>();
+            for (Map.Entry<Long, LongAdder> entry : finished.entrySet()) {
+                long rate = entry.getValue().sum() / windowSeconds;
+                Long skuId = entry.getKey();
+                if (segmentsOf(skuId) == 0) {
+                    if (rate >= splitThreshold) {
+                        split(skuId);
+                    }
+                } else if (rate >= splitThreshold / 2) {
+                    stringRedisTemplate.opsForValue().set(HOT_MARK_KEY + skuId, "1", coolDownSeconds, TimeUnit.SECONDS);
+                }
+            }
+            for (Long skuId : new ArrayList<>(segments.keySet())) {
+                if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(HOT_MARK_KEY + skuId))) {
+                    merge(skuId);
+                }
+            }
+        } catch (Exception e) {
+            log.error("分段库存评估失败", e);
+        }
+    }
+
+    /**
+     * 将单key库存拆分到各分段
+     * 先登记分段数，使新请求走分段(分段写入前返回NOT_LOADED)，再取走单key库存，避免单key被重新加载导致超卖
+     */
+    public boolean split(Long skuId) {
+        if (!tryLock(skuId)) {
+            return false;
+        }
+        try {
+            if (refresh(skuId) > 0) {
+                return false;
+            }
+            int n = segmentCount;
+            stringRedisTemplate.opsForHash().put(SEGMENTS_KEY, skuId.toString(), String.valueOf(n));
+            segments.put(skuId, n);
+            String value = stringRedisTemplate.opsForValue().getAndDelete(SINGLE_KEY_PREFIX + skuId);
+            long total;
+            if (value != null) {
+                total = Long.parseLong(value);
+            } else {
+                // 单key未加载时从数据库加载，扣除写回中的预扣数量
+                long pending = stockWriteBehind.pendingCount(skuId);
+                Integer stock = ticketSkuMapper.selectStockById(skuId);
+                total = (stock == null ? 0 : stock) - pending;
+            }
+            long base = Math.max(total, 0) / n;
+            long extra = Math.max(total, 0) % n;
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (int i = 0; i < n; i++) {
+                    conn.set(segmentKey(skuId, i), String.valueOf(base + (i < extra ? 1 : 0)));
+                }
+                conn.setEx(HOT_MARK_KEY + skuId, coolDownSeconds, "1");
+                return null;
+            });
+            cacheMessageService.publishCacheChange(OP_SEGMENTS, skuId.toString());
+            cacheMessageService.flush();
+            splits.increment();
+            log.info("SKU[{}]库存拆分为{}个分段，总库存：{}", skuId, n, total);
+            return true;
+        } finally {
+            unlock(skuId);
+        }
+    }
+
+    /**
+     * 将各分段库存合并回单key
+     * 先把分段库存累加到单key再删除分段登记，合并期间走分段的请求返回NOT_LOADED后重试
+     */
+    public boolean merge(Long skuId) {
+        if (!tryLock(skuId)) {
+            return false;
+        }
+        try {
+            int n = refresh(skuId);
+            if (n == 0) {
+                return false;
+            }
+            long total = 0;
+            for (int i = 0; i < n; i++) {
+                String value = stringRedisTemplate.opsForValue().getAndDelete(segmentKey(skuId, i));
+                if (value != null) {
+                    total += Math.max(Long.parseLong(value), 0);
+                }
+            }
+            stringRedisTemplate.opsForValue().increment(SINGLE_KEY_PREFIX + skuId, total);
+            stringRedisTemplate.opsForHash().delete(SEGMENTS_KEY, skuId.toString());
+            segments.remove(skuId);
+            cacheMessageService.publishCacheChange(OP_SEGMENTS, skuId.toString());
+            cacheMessageService.flush();
+            merges.increment();
+            log.info("SKU[{}]已冷却，{}个分段库存合并回单key，总库存：{}", skuId, n, total);
+            return true;
+        } finally {
+            unlock(skuId);
+        }
+    }
+
+    /**
+     * SKU库存锁，拆分、合并、单key加载和库存对账修复互斥，不影响正常扣减
+     */
+    public boolean tryLock(Long skuId) {
+        return distributedLock.tryLock(LOCK_KEY + skuId, LOCK_SECONDS);
+    }
+
+    /**
+     * 释放锁，只删除本线程持有的锁，超时后被其他节点获取的锁不受影响
+     */
+    public void unlock(Long skuId) {
+        distributedLock.unlock(LOCK_KEY + skuId);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("segmentCount", segmentCount);
+        stats.put("splitThreshold", splitThreshold);
+        stats.put("segmented", new HashMap<>(segments));
+        stats.put("splits", splits.sum());
+        stats.put("merges", merges.sum());
+        stats.put("borrows", borrows.sum());
+        stats.put("refunds", refunds.sum());
+        return stats;
+    }
+}
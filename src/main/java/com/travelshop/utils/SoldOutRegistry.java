@@ -0,0 +1,138 @@
+package com.travelshop.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 本地售罄标记
+ * 秒杀券或热门门票SKU库存扣减到0时在本节点标记售罄，并通过 cache:changes 广播给其他节点，
+ * 之后的请求在本地直接拒绝，不再执行Lua脚本或SQL。补库存、退款、取消订单释放库存时清除标记。
+ * 广播可能丢失，标记超过有效期后自动失效，由下一次扣减重新判断
+ */
+@Slf4j
+@Component
+public class SoldOutRegistry {
+
+    public static final String OP_SOLD_OUT = "soldOut";
+    public static final String OP_RESTOCK = "restock";
+
+    private static final String VOUCHER_PREFIX = "voucher:";
+    private static final String TICKET_SKU_PREFIX = "ticketSku:";
+
+    private final CacheMessage cacheMessageService;
+
+    // 售罄标记的有效期(秒)
+    @Value("${seckill.sold-out.ttl-seconds:300}")
+    private long ttlSeconds;
+
+    // 售罄的key -> 标记失效时间
+    private final Map<String, Long> soldOut = new ConcurrentHashMap<>();
+
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder marks = new LongAdder();
+    private final LongAdder resets = new LongAdder();
+
+    public SoldOutRegistry(CacheMessage cacheMessageService) {
+        this.cacheMessageService = cacheMessageService;
+    }
+
+    @PostConstruct
+    public void init() {
+        cacheMessageService.subscribeToChanges(this::handleCacheMessage);
+    }
+
+    public static String voucherKey(Long voucherId) {
+        return VOUCHER_PREFIX + voucherId;
+    }
+
+    public static String ticketSkuKey(Long skuId) {
+        return TICKET_SKU_PREFIX + skuId;
+    }
+
+    /**
+     * 是否已售罄，已售罄时计入拒绝次数
+     */
+    public boolean isSoldOut(String key) {
+        if (soldOut.isEmpty()) {
+            return false;
+        }
+        Long expireAt = soldOut.get(key);
+        if (expireAt == null) {
+            return false;
+        }
+        if (expireAt < System.currentTimeMillis()) {
+            soldOut.remove(key, expireAt);
+            return false;
+        }
+        rejected.increment();
+        return true;
+    }
+
+    /**
+     * 标记售罄并立即广播
+     */
+    public void markSoldOut(String key) {
+        if (putLocal(key)) {
+            log.info("标记售罄: {}", key);
+        }
+        cacheMessageService.publishCacheChange(OP_SOLD_OUT, key);
+        cacheMessageService.flush();
+    }
+
+    /**
+     * 库存恢复，清除售罄标记并立即广播
+     */
+    public void reset(String key) {
+        if (removeLocal(key)) {
+            log.info("清除售罄标记: {}", key);
+        }
+        cacheMessageService.publishCacheChange(OP_RESTOCK, key);
+        cacheMessageService.flush();
+    }
+
+    private boolean putLocal(String key) {
+        boolean added = soldOut.put(key, System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(ttlSeconds)) == null;
+        if (added) {
+            marks.increment();
+        }
+        return added;
+    }
+
+    private boolean removeLocal(String key) {
+        boolean removed = soldOut.remove(key) != null;
+        if (removed) {
+            resets.increment();
+        }
+        return removed;
+    }
+
+    private void handleCacheMessage(Map<String, List<String>> changes) {
+        List<String> soldOutKeys = changes.get(OP_SOLD_OUT);
+        if (soldOutKeys != null) {
+            soldOutKeys.forEach(this::putLocal);
+        }
+        List<String> restockKeys = changes.get(OP_RESTOCK);
+        if (restockKeys != null) {
+            restockKeys.forEach(this::removeLocal);
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("ttlSeconds", ttlSeconds);
+        stats.put("soldOut", soldOut.keySet());
+        stats.put("rejected", rejected.sum());
+        stats.put("marks", marks.sum());
+        stats.put("resets", resets.sum());
+        return stats;
+    }
+}
@@ -0,0 +1,558 @@
+package com.travelshop.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.travelshop.entity.SeckillVoucher;
+import com.travelshop.entity.TicketSku;
+import com.travelshop.service.ISeckillVoucherService;
+import com.travelshop.service.ITicketSkuService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisZSetCommands.Limit;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.travelshop.utils.RedisConstants.SECKILL_ORDER_STREAM;
+import static com.travelshop.utils.RedisConstants.SECKILL_STOCK_KEY;
+import static com.travelshop.utils.RedisConstants.SECKILL_STOCK_LOCK_KEY;
+
+/**
+ * Redis预扣库存与数据库库存对账
+ * 按页SCAN库存key，每页一次MGET读取Redis库存、一次批量SQL读取数据库库存，
+ * 期望的Redis库存 = 数据库库存 - 在途扣减(Stream中尚未写入数据库的订单或扣减记录)。
+ * 差异在间隔一段时间后复查仍然相同才认定为漂移，排除对账期间正常售卖造成的误差；
+ * 复查按Redis、在途扣减、数据库的顺序读取，期间的扣减和写回只会使Redis显得偏多(正差异)。
+ * 修复时在SKU锁内用INCRBY按差值调整，不覆盖期间发生的扣减，也不阻塞正常售卖；
+ * 负差异(少卖)的修复会抬高Redis库存，扣减与在途记录之间的竞态同样会造成负差异，
+ * 只有复查时该SKU没有在途扣减且两次读取的Redis库存不变时才修复，否则只记录
+ */
+@Slf4j
+@Component
+public class StockReconciler {
+
+    public static final String BUSINESS_TICKET = "ticket";
+    public static final String BUSINESS_SECKILL = "seckill";
+
+    private static final String REPORT_KEY = "stock:reconcile:report:";
+    private static final long SECKILL_LOCK_SECONDS = 10;
+    private static final Pattern TICKET_KEY = Pattern.compile("^" + SegmentedStock.SINGLE_KEY_PREFIX + "(\\d+)$");
+    private static final Pattern SECKILL_KEY = Pattern.compile("^" + SECKILL_STOCK_KEY + "(\\d+)$");
+    // 报告中保留的漂移明细数
+    private static final int MAX_SAMPLES = 50;
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final ITicketSkuService ticketSkuService;
+    private final ISeckillVoucherService seckillVoucherService;
+    private final SegmentedStock segmentedStock;
+    private final RedisKeyScanner redisKeyScanner;
+    private final DistributedLock distributedLock;
+
+    // 每页扫描数量(COUNT)
+    @Value("${stock.reconcile.scan-count:500}")
+    private int scanCount;
+    // 发现差异后间隔多久(毫秒)复查
+    @Value("${stock.reconcile.confirm-delay-millis:500}")
+    private long confirmDelayMillis;
+    // 允许的差异，不超过该值不视为漂移
+    @Value("${stock.reconcile.tolerance:0}")
+    private long tolerance;
+    // 每页之间的停顿(毫秒)，降低对Redis和数据库的压力
+    @Value("${stock.reconcile.page-pause-millis:10}")
+    private long pagePauseMillis;
+
+    private final Map<String, Map<String, Object>> lastReports = new ConcurrentHashMap<>();
+
+    public StockReconciler(StringRedisTemplate stringRedisTemplate, ITicketSkuService ticketSkuService,
+                           ISeckillVoucherService seckillVoucherService, SegmentedStock segmentedStock,
+                           RedisKeyScanner redisKeyScanner, DistributedLock distributedLock) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.ticketSkuService = ticketSkuService;
+        this.seckillVoucherService = seckillVoucherService;
+        this.segmentedStock = segmentedStock;
+        this.redisKeyScanner = redisKeyScanner;
+        this.distributedLock = distributedLock;
+    }
+
+    /**
+     * 对账
+     * @param business ticket / seckill
+     * @param repair 是否修复确认的漂移
+     * @return 对账报告
+     */
+    public Map<String, Object> reconcile(String business, boolean repair) {
+        Target target;
+        if (BUSINESS_TICKET.equals(business)) {
+            target = new TicketTarget();
+        } else if (BUSINESS_SECKILL.equals(business)) {
+            target = new SeckillTarget();
+        } else {
+            throw new IllegalArgumentException("不支持的对账业务: " + business);
+        }
+
+        Report report = new Report(business, repair);
+        Map<Long, Long> inflight = target.inflight();
+
+        String cursor = RedisKeyScanner.START;
+        do {
+            RedisKeyScanner.Page page = redisKeyScanner.scan(cursor, target.pattern(), scanCount);
+            cursor = page.getCursor();
+            List<Long> ids = new ArrayList<>();
+            for (String key : page.getKeys()) {
+                report.scannedKeys++;
+                Long id = target.parseId(key);
+                if (id != null) {
+                    ids.add(id);
+                }
+            }
+            inflight = comparePage(target, ids, inflight, report);
+            pause();
+        } while (!RedisKeyScanner.START.equals(cursor));
+
+        // 分段库存的key不按单key匹配，单独对账
+        List<Long> segmented = target.extraIds();
+        if (!segmented.isEmpty()) {
+            comparePage(target, segmented, inflight, report);
+        }
+
+        Map<String, Object> result = report.toMap();
+        lastReports.put(business, result);
+        stringRedisTemplate.opsForValue().set(REPORT_KEY + business, JSONUtil.toJsonStr(result), 7, TimeUnit.DAYS);
+        if (report.drifted > 0) {
+            log.warn("库存对账[{}]发现{}个SKU漂移，累计差异：{}，已修复：{}", business, report.drifted,
+                    report.totalAbsDrift, report.repaired);
+        } else {
+            log.info("库存对账[{}]完成，比较{}个SKU，无漂移", business, report.compared);
+        }
+        return result;
+    }
+
+    /**
+     * 比较一页，返回复查时更新过的在途扣减
+     */
+    private Map<Long, Long> comparePage(Target target, List<Long> ids, Map<Long, Long> inflight, Report report) {
+        if (ids.isEmpty()) {
+            return inflight;
+        }
+        Map<Long, Long> redis = target.readRedis(ids);
+        Map<Long, Long> db = target.readDb(ids);
+        Map<Long, Long> drifts = new LinkedHashMap<>();
+        for (Long id : ids) {
+            Long redisStock = redis.get(id);
+            Long dbStock = db.get(id);
+            if (redisStock == null || dbStock == null) {
+                // key已被删除或合并，或数据库中已不存在
+                continue;
+            }
+            report.compared++;
+            long drift = redisStock - (dbStock - inflight.getOrDefault(id, 0L));
+            if (Math.abs(drift) > tolerance) {
+                drifts.put(id, drift);
+            }
+        }
+        if (drifts.isEmpty()) {
+            return inflight;
+        }
+
+        // 间隔一段时间复查，差异相同才认定为漂移
+        // 先读Redis再读在途扣减和数据库：读取期间新的扣减只会多算在途，写回只会多减数据库，差异只会偏大
+        pause(confirmDelayMillis);
+        List<Long> suspects = new ArrayList<>(drifts.keySet());
+        Map<Long, Long> redisAgain = target.readRedis(suspects);
+        Map<Long, Long> latestInflight = target.inflight();
+        Map<Long, Long> dbAgain = target.readDb(suspects);
+        for (Long id : suspects) {
+            Long redisStock = redisAgain.get(id);
+            Long dbStock = dbAgain.get(id);
+            if (redisStock == null || dbStock == null) {
+                continue;
+            }
+            long pending = latestInflight.getOrDefault(id, 0L);
+            long drift = redisStock - (dbStock - pending);
+            if (drift != drifts.get(id)) {
+                report.unconfirmed++;
+                continue;
+            }
+            boolean repaired = false;
+            if (report.repair && drift < 0 && (pending > 0 || !redisStock.equals(redis.get(id)))) {
+                // 有在途扣减或复查期间有售卖，少卖可能是扣减后还未记录在途造成的，抬高库存有超卖风险
+                report.repairDeferred++;
+            } else if (report.repair) {
+                repaired = repair(target, id, drift, report);
+            }
+            report.recordDrift(id, redisStock, dbStock, pending, drift, repaired);
+        }
+        return latestInflight;
+    }
+
+    private boolean repair(Target target, Long id, long drift, Report report) {
+        if (!target.tryLock(id)) {
+            report.repairSkipped++;
+            return false;
+        }
+        try {
+            // 按差值调整，保留复查之后发生的扣减
+            target.adjust(id, -drift);
+            log.warn("修复{}库存漂移，ID：{}，调整：{}", report.business, id, -drift);
+            return true;
+        } catch (Exception e) {
+            log.error("修复{}库存漂移失败，ID：{}", report.business, id, e);
+            report.repairSkipped++;
+            return false;
+        } finally {
+            target.unlock(id);
+        }
+    }
+
+    private void pause() {
+        pause(pagePauseMillis);
+    }
+
+    private static void pause(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 读取Stream中的全部记录，按ID汇总在途数量
+     */
+    private Map<Long, Long> sumStream(String streamKey, String idField, String countField) {
+        Map<Long, Long> result = new HashMap<>();
+        Range<String> range = Range.unbounded();
+        while (true) {
+            List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream()
+                    .range(streamKey, range, Limit.limit().count(1000));
+            if (records == null || records.isEmpty()) {
+                return result;
+            }
+            for (MapRecord<String, Object, Object> record : records) {
+                Object id = record.getValue().get(idField);
+                if (id == null) {
+                    continue;
+                }
+                Object count = countField == null ? null : record.getValue().get(countField);
+                result.merge(Long.valueOf(id.toString()), count == null ? 1L : Long.parseLong(count.toString()), Long::sum);
+            }
+            if (records.size() < 1000) {
+                return result;
+            }
+            String last = records.get(records.size() - 1).getId().getValue();
+            range = Range.of(Range.Bound.exclusive(last), Range.Bound.unbounded());
+        }
+    }
+
+    private Map<Long, Long> multiGet(List<Long> ids, String prefix) {
+        List<String> keys = new ArrayList<>(ids.size());
+        ids.forEach(id -> keys.add(prefix + id));
+        List<String> values = stringRedisTemplate.opsForValue().multiGet(keys);
+        Map<Long, Long> result = new HashMap<>();
+        for (int i = 0; values != null && i < ids.size(); i++) {
+            if (values.get(i) != null) {
+                result.put(ids.get(i), Long.parseLong(values.get(i)));
+            }
+        }
+        return result;
+    }
+
+    public Map<String, Object> getReports() {
+        Map<String, Object> reports = new HashMap<>();
+        for (String business : new String[]{BUSINESS_TICKET, BUSINESS_SECKILL}) {
+            Map<String, Object> report = lastReports.get(business);
+            if (report == null) {
+                // 其他节点执行的对账
+                String json = stringRedisTemplate.opsForValue().get(REPORT_KEY + business);
+                reports.put(business, json == null ? null : JSONUtil.parseObj(json));
+            } else {
+                reports.put(business, report);
+            }
+        }
+        return reports;
+    }
+
+    /**
+     * 对账对象：库存key的扫描方式、Redis和数据库库存的读取方式、在途扣减和修复方式
+     */
+    private interface Target {
+        String pattern();
+
+        Long parseId(String key);
+
+        List<Long> extraIds();
+
+        Map<Long, Long> readRedis(List<Long> ids);
+
+        Map<Long, Long> readDb(List<Long> ids);
+
+        Map<Long, Long> inflight();
+
+        boolean tryLock(Long id);
+
+        void unlock(Long id);
+
+        void adjust(Long id, long delta);
+    }
+
+    /**
+     * 门票：单key库存 ticket:stock:<skuId> 和分段库存，在途扣减为 stream.stock.ticket 中未写回的记录
+     */
+    private class TicketTarget implements Target {
+        // skuId -> 分段数
+        private final Map<Long, Integer> segments = new HashMap<>();
+
+        TicketTarget() {
+            stringRedisTemplate.opsForHash().entries(SegmentedStock.SEGMENTS_KEY).forEach((skuId, n) ->
+                    segments.put(Long.valueOf(skuId.toString()), Integer.valueOf(n.toString())));
+        }
+
+        @Override
+        public String pattern() {
+            return SegmentedStock.SINGLE_KEY_PREFIX + "*";
+        }
+
+        @Override
+        public Long parseId(String key) {
+            Matcher matcher = TICKET_KEY.matcher(key);
+            if (!matcher.matches()) {
+                return null;
+            }
+            Long skuId = Long.valueOf(matcher.group(1));
+            return segments.containsKey(skuId) ? null : skuId;
+        }
+
+        @Override
+        public List<Long> extraIds() {
+            return new ArrayList<>(segments.keySet());
+        }
+
+        @Override
+        public Map<Long, Long> readRedis(List<Long> ids) {
+            Map<Long, Long> result = new HashMap<>();
+            List<Long> single = new ArrayList<>();
+            List<String> segmentKeys = new ArrayList<>();
+            List<Long> segmentOwners = new ArrayList<>();
+            for (Long skuId : ids) {
+                Integer n = segments.get(skuId);
+                if (n == null) {
+                    single.add(skuId);
+                } else {
+                    for (int i = 0; i < n; i++) {
+                        segmentKeys.add(SegmentedStock.segmentKey(skuId, i));
+                        segmentOwners.add(skuId);
+                    }
+                }
+            }
+            result.putAll(multiGet(single, SegmentedStock.SINGLE_KEY_PREFIX));
+            if (!segmentKeys.isEmpty()) {
+                List<String> values = stringRedisTemplate.opsForValue().multiGet(segmentKeys);
+                for (int i = 0; values != null && i < segmentKeys.size(); i++) {
+                    if (values.get(i) != null) {
+                        result.merge(segmentOwners.get(i), Long.parseLong(values.get(i)), Long::sum);
+                    }
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public Map<Long, Long> readDb(List<Long> ids) {
+            Map<Long, Long> result = new HashMap<>();
+            for (TicketSku sku : ticketSkuService.listByIds(ids)) {
+                result.put(sku.getId(), sku.getStock().longValue());
+            }
+            return result;
+        }
+
+        @Override
+        public Map<Long, Long> inflight() {
+            return sumStream(TicketStockWriteBehind.STREAM_KEY, "skuId", "count");
+        }
+
+        @Override
+        public boolean tryLock(Long id) {
+            return segmentedStock.tryLock(id);
+        }
+
+        @Override
+        public void unlock(Long id) {
+            segmentedStock.unlock(id);
+        }
+
+        @Override
+        public void adjust(Long skuId, long delta) {
+            Integer n = segments.get(skuId);
+            if (n == null) {
+                stringRedisTemplate.opsForValue().increment(SegmentedStock.SINGLE_KEY_PREFIX + skuId, delta);
+                return;
+            }
+            if (delta > 0) {
+                stringRedisTemplate.opsForValue().increment(SegmentedStock.segmentKey(skuId, 0), delta);
+                return;
+            }
+            // 依次从有库存的分段扣除
+            long remaining = -delta;
+            for (int i = 0; i < n && remaining > 0; i++) {
+                String key = SegmentedStock.segmentKey(skuId, i);
+                String value = stringRedisTemplate.opsForValue().get(key);
+                long available = value == null ? 0 : Math.max(Long.parseLong(value), 0);
+                long take = Math.min(available, remaining);
+                if (take > 0) {
+                    stringRedisTemplate.opsForValue().decrement(key, take);
+                    remaining -= take;
+                }
+            }
+            if (remaining > 0) {
+                stringRedisTemplate.opsForValue().decrement(SegmentedStock.segmentKey(skuId, 0), remaining);
+            }
+        }
+    }
+
+    /**
+     * 秒杀券：seckill:stock:<voucherId>，在途扣减为 stream.orders 中尚未写库的订单
+     * 修复与Redis库存丢失后的重新加载使用同一把锁
+     */
+    private class SeckillTarget implements Target {
+
+        @Override
+        public String pattern() {
+            return SECKILL_STOCK_KEY + "*";
+        }
+
+        @Override
+        public Long parseId(String key) {
+            Matcher matcher = SECKILL_KEY.matcher(key);
+            return matcher.matches() ? Long.valueOf(matcher.group(1)) : null;
+        }
+
+        @Override
+        public List<Long> extraIds() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public Map<Long, Long> readRedis(List<Long> ids) {
+            return multiGet(ids, SECKILL_STOCK_KEY);
+        }
+
+        @Override
+        public Map<Long, Long> readDb(List<Long> ids) {
+            Map<Long, Long> result = new HashMap<>();
+            for (SeckillVoucher voucher : seckillVoucherService.listByIds(ids)) {
+                result.put(voucher.getVoucherId(), voucher.getStock().longValue());
+            }
+            return result;
+        }
+
+        @Override
+        public Map<Long, Long> inflight() {
+            return sumStream(SECKILL_ORDER_STREAM, "voucherId", null);
+        }
+
+        @Override
+        public boolean tryLock(Long id) {
+            return distributedLock.tryLock(SECKILL_STOCK_LOCK_KEY + id, SECKILL_LOCK_SECONDS);
+        }
+
+        @Override
+        public void unlock(Long id) {
+            distributedLock.unlock(SECKILL_STOCK_LOCK_KEY + id);
+        }
+
+        @Override
+        public void adjust(Long voucherId, long delta) {
+            // 库存key复查后被删除时不能用INCRBY重新创建，等重新加载
+            if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(SECKILL_STOCK_KEY + voucherId))) {
+                throw new IllegalStateException("秒杀券库存key已不存在: " + voucherId);
+            }
+            stringRedisTemplate.opsForValue().increment(SECKILL_STOCK_KEY + voucherId, delta);
+        }
+    }
+
+    private static class Report {
+        private final String business;
+        private final boolean repair;
+        private final long startedAt = System.currentTimeMillis();
+        private long scannedKeys;
+        private long compared;
+        private long drifted;
+        private long unconfirmed;
+        // Redis多于期望，可能超卖
+        private long oversell;
+        // Redis少于期望，库存被少卖
+        private long undersell;
+        private long totalAbsDrift;
+        private long maxAbsDrift;
+        private long repaired;
+        private long repairSkipped;
+        // 少卖但SKU仍有售卖，暂不修复
+        private long repairDeferred;
+        private final List<Map<String, Object>> samples = new ArrayList<>();
+
+        Report(String business, boolean repair) {
+            this.business = business;
+            this.repair = repair;
+        }
+
+        void recordDrift(Long id, long redis, long db, long inflight, long drift, boolean fixed) {
+            drifted++;
+            if (drift > 0) {
+                oversell++;
+            } else {
+                undersell++;
+            }
+            totalAbsDrift += Math.abs(drift);
+            maxAbsDrift = Math.max(maxAbsDrift, Math.abs(drift));
+            if (fixed) {
+                repaired++;
+            }
+            if (samples.size() < MAX_SAMPLES) {
+                Map<String, Object> sample = new LinkedHashMap<>();
+                sample.put("id", id);
+                sample.put("redis", redis);
+                sample.put("db", db);
+                sample.put("inflight", inflight);
+                sample.put("drift", drift);
+                sample.put("repaired", fixed);
+                samples.add(sample);
+            }
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("business", business);
+            map.put("repair", repair);
+            map.put("startedAt", startedAt);
+            map.put("costMillis", System.currentTimeMillis() - startedAt);
+            map.put("scannedKeys", scannedKeys);
+            map.put("compared", compared);
+            map.put("drifted", drifted);
+            map.put("unconfirmed", unconfirmed);
+            map.put("oversell", oversell);
+            map.put("undersell", undersell);
+            map.put("totalAbsDrift", totalAbsDrift);
+            map.put("maxAbsDrift", maxAbsDrift);
+            map.put("driftRate", compared == 0 ? 0 : (double) drifted / compared);
+            map.put("repaired", repaired);
+            map.put("repairSkipped", repairSkipped);
+            map.put("repairDeferred", repairDeferred);
+            map.put("samples", samples);
+            return map;
+        }
+    }
+}
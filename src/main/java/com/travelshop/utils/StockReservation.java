@@ -0,0 +1,314 @@
+package com.travelshop.utils;
+
+import com.travelshop.entity.Order;
+import com.travelshop.entity.OrderItem;
+import com.travelshop.service.IProductSkuService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.travelshop.utils.RedisConstants.STOCK_RESERVATION_COUNT_KEY;
+import static com.travelshop.utils.RedisConstants.STOCK_RESERVATION_EXPIRE_KEY;
+import static com.travelshop.utils.RedisConstants.STOCK_RESERVATION_RELEASED_KEY;
+
+/**
+ * 商品库存预留
+ * 下单锁定库存时按订单的每个规格写入一条带过期时间的预留记录(ZSET按过期时间排序)，
+ * 后台线程按批取出到期的记录，一次事务批量解锁库存，不必等待超时订单扫描；订单仍由超时未支付订单任务取消。
+ * 预留记录取出即删除，支付确认、取消订单和过期释放谁先取到记录谁负责处理这部分锁定库存：
+ * 支付时取到的记录批量转为实际扣减，已被过期释放的部分改为从可用库存扣减。
+ * 过期释放的记录另外保留一段时间的释放记录，既没有预留也没有释放记录时(启用预留前的订单、Redis数据丢失、
+ * 支付确认回滚)锁定库存仍在，按锁定库存处理
+ */
+@Slf4j
+@Component
+public class StockReservation {
+
+    private static final DefaultRedisScript<Long> ADD_SCRIPT;
+    private static final DefaultRedisScript<List> EXPIRE_SCRIPT;
+    private static final DefaultRedisScript<List> CLAIM_SCRIPT;
+    private static final List<String> KEYS = Arrays.asList(STOCK_RESERVATION_EXPIRE_KEY, STOCK_RESERVATION_COUNT_KEY,
+            STOCK_RESERVATION_RELEASED_KEY);
+
+    static {
+        ADD_SCRIPT = new DefaultRedisScript<>();
+        ADD_SCRIPT.setLocation(new ClassPathResource("reservation_add.lua"));
+        ADD_SCRIPT.setResultType(Long.class);
+        EXPIRE_SCRIPT = new DefaultRedisScript<>();
+        EXPIRE_SCRIPT.setLocation(new ClassPathResource("reservation_expire.lua"));
+        EXPIRE_SCRIPT.setResultType(List.class);
+        CLAIM_SCRIPT = new DefaultRedisScript<>();
+        CLAIM_SCRIPT.setLocation(new ClassPathResource("reservation_claim.lua"));
+        CLAIM_SCRIPT.setResultType(List.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final IProductSkuService productSkuService;
+
+    // 是否开启库存预留，关闭时锁定库存只随订单取消释放
+    @Value("${stock.reservation.enabled:true}")
+    private boolean enabled;
+    // 预留有效期(秒)，应小于超时未支付订单的取消时间
+    @Value("${stock.reservation.ttl-seconds:900}")
+    private long ttlSeconds;
+    // 检查过期预留的间隔(毫秒)
+    @Value("${stock.reservation.poll-interval-millis:1000}")
+    private long pollIntervalMillis;
+    // 每批释放的预留记录数
+    @Value("${stock.reservation.batch-size:500}")
+    private int batchSize;
+    // 释放失败的记录延后重试的时间(毫秒)
+    @Value("${stock.reservation.retry-delay-millis:5000}")
+    private long retryDelayMillis;
+    // 过期释放记录的保留时间(秒)，应大于超时未支付订单的取消时间
+    @Value("${stock.reservation.released-ttl-seconds:7200}")
+    private long releasedTtlSeconds;
+
+    private volatile boolean running;
+    private Thread worker;
+
+    private final LongAdder reserved = new LongAdder();
+    private final LongAdder released = new LongAdder();
+    private final LongAdder releasedOrders = new LongAdder();
+    private final LongAdder confirmed = new LongAdder();
+    private final LongAdder confirmedAfterRelease = new LongAdder();
+    private final LongAdder confirmFailures = new LongAdder();
+    private final LongAdder missing = new LongAdder();
+    private final LongAdder retried = new LongAdder();
+    private volatile long lastReleaseAt;
+
+    public StockReservation(StringRedisTemplate stringRedisTemplate, IProductSkuService productSkuService) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.productSkuService = productSkuService;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            log.info("库存预留未开启");
+            return;
+        }
+        running = true;
+        worker = ManagedExecutor.namedThreadFactory("stock-reservation-releaser").newThread(this::run);
+        worker.start();
+        log.info("库存预留启动，有效期：{}秒，每批{}条", ttlSeconds, batchSize);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        if (worker != null) {
+            try {
+                worker.join(pollIntervalMillis + TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * 锁定库存后写入预留记录，同一订单同一规格的多个订单项合并为一条
+     */
+    public void reserve(Long orderId, Long skuId, Integer count) {
+        if (!enabled) {
+            return;
+        }
+        long expireAt = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(ttlSeconds);
+        stringRedisTemplate.execute(ADD_SCRIPT, KEYS, member(orderId, skuId), count.toString(), String.valueOf(expireAt));
+        reserved.increment();
+    }
+
+    /**
+     * 取消订单时认领预留记录
+     * @return 需要解锁的数量，预留已被过期释放时为0，没有预留记录时为订单项数量
+     */
+    public int cancel(Long orderId, Long skuId, Integer count) {
+        if (!enabled) {
+            return count;
+        }
+        Integer claimed = claim(orderId, Collections.singletonList(skuId)).get(skuId);
+        if (claimed == null) {
+            missing.increment();
+            log.warn("订单[{}]规格[{}]没有库存预留记录，按锁定库存解锁", orderId, skuId);
+            return count;
+        }
+        return claimed;
+    }
+
+    /**
+     * 支付后将订单的预留批量转为实际扣减：仍持有的预留从锁定库存扣减，已过期释放的从可用库存扣减
+     * @param items 订单中使用锁定库存的订单项
+     */
+    public void confirm(Order order, List<OrderItem> items) {
+        if (items.isEmpty()) {
+            return;
+        }
+        Map<Long, Integer> counts = new LinkedHashMap<>();
+        for (OrderItem item : items) {
+            counts.merge(item.getSkuId(), item.getCount(), Integer::sum);
+        }
+
+        Map<Long, Integer> reservedCounts = new HashMap<>();
+        Map<Long, Integer> releasedCounts = new HashMap<>();
+        if (enabled) {
+            Map<Long, Integer> claimed = claim(order.getId(), new ArrayList<>(counts.keySet()));
+            counts.forEach((skuId, count) -> {
+                Integer claimedCount = claimed.get(skuId);
+                if (claimedCount == null) {
+                    // 没有预留也没有释放记录，锁定库存仍在
+                    missing.increment();
+                    log.warn("订单[{}]规格[{}]没有库存预留记录，按锁定库存确认", order.getOrderNo(), skuId);
+                    reservedCounts.put(skuId, count);
+                } else if (claimedCount == 0) {
+                    releasedCounts.put(skuId, count);
+                } else {
+                    reservedCounts.put(skuId, claimedCount);
+                }
+            });
+        } else {
+            reservedCounts.putAll(counts);
+        }
+
+        List<Long> failedSkuIds = productSkuService.confirmReservations(reservedCounts, releasedCounts);
+        confirmed.add(reservedCounts.size());
+        confirmedAfterRelease.add(releasedCounts.size() - failedSkuIds.size());
+        if (!failedSkuIds.isEmpty()) {
+            // 预留过期后库存已被其他订单占用，需要人工处理(如退款)
+            confirmFailures.add(failedSkuIds.size());
+            log.error("订单[{}]支付时库存预留已过期且可用库存不足: skuIds={}", order.getOrderNo(), failedSkuIds);
+        }
+    }
+
+    /**
+     * 认领预留记录
+     * @return 规格ID -> 认领的预留数量，已被过期释放的为0，没有预留记录的不包含
+     */
+    private Map<Long, Integer> claim(Long orderId, List<Long> skuIds) {
+        String[] members = new String[skuIds.size()];
+        for (int i = 0; i < skuIds.size(); i++) {
+            members[i] = member(orderId, skuIds.get(i));
+        }
+        List<String> reply = stringRedisTemplate.execute(CLAIM_SCRIPT, KEYS, (Object[]) members);
+        Map<Long, Integer> claimed = new HashMap<>();
+        if (reply != null) {
+            for (int i = 0; i + 1 < reply.size(); i += 2) {
+                claimed.put(parseSkuId(reply.get(i)), Integer.valueOf(reply.get(i + 1)));
+            }
+        }
+        return claimed;
+    }
+
+    private void run() {
+        while (running) {
+            int size = 0;
+            try {
+                size = releaseExpired();
+            } catch (Exception e) {
+                log.error("释放过期库存预留失败", e);
+            }
+            // 取满一批说明还有积压，立即处理下一批
+            if (size >= batchSize) {
+                continue;
+            }
+            try {
+                Thread.sleep(pollIntervalMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        log.info("库存预留释放线程已停止");
+    }
+
+    /**
+     * 取出一批到期的预留记录并在一次事务中释放
+     * @return 取出的记录数
+     */
+    private int releaseExpired() {
+        long now = System.currentTimeMillis();
+        List<String> reply = stringRedisTemplate.execute(EXPIRE_SCRIPT, KEYS, String.valueOf(now), String.valueOf(batchSize),
+                String.valueOf(now - TimeUnit.SECONDS.toMillis(releasedTtlSeconds)));
+        if (reply == null || reply.isEmpty()) {
+            return 0;
+        }
+        Map<Long, Map<Long, Integer>> reservations = new HashMap<>();
+        for (int i = 0; i + 1 < reply.size(); i += 2) {
+            String member = reply.get(i);
+            reservations.computeIfAbsent(parseOrderId(member), k -> new HashMap<>())
+                    .put(parseSkuId(member), Integer.valueOf(reply.get(i + 1)));
+        }
+        int records = reply.size() / 2;
+        try {
+            int orders = productSkuService.releaseReservations(reservations);
+            released.add(records);
+            releasedOrders.add(orders);
+            lastReleaseAt = System.currentTimeMillis();
+        } catch (Exception e) {
+            // 记录已从Redis取出，写回后延后重试，避免锁定库存无人释放
+            requeue(reservations);
+            throw e;
+        }
+        return records;
+    }
+
+    private void requeue(Map<Long, Map<Long, Integer>> reservations) {
+        long retryAt = System.currentTimeMillis() + retryDelayMillis;
+        reservations.forEach((orderId, counts) -> counts.forEach((skuId, count) -> {
+            try {
+                stringRedisTemplate.execute(ADD_SCRIPT, KEYS, member(orderId, skuId), count.toString(),
+                        String.valueOf(retryAt));
+                retried.increment();
+            } catch (Exception e) {
+                log.error("库存预留写回失败，需人工解锁: orderId={}, skuId={}, count={}", orderId, skuId, count, e);
+            }
+        }));
+    }
+
+    private static String member(Long orderId, Long skuId) {
+        return orderId + ":" + skuId;
+    }
+
+    private static Long parseOrderId(String member) {
+        return Long.valueOf(member.substring(0, member.indexOf(':')));
+    }
+
+    private static Long parseSkuId(String member) {
+        return Long.valueOf(member.substring(member.indexOf(':') + 1));
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("ttlSeconds", ttlSeconds);
+        stats.put("reserved", reserved.sum());
+        stats.put("released", released.sum());
+        stats.put("releasedOrders", releasedOrders.sum());
+        stats.put("confirmed", confirmed.sum());
+        stats.put("confirmedAfterRelease", confirmedAfterRelease.sum());
+        stats.put("confirmFailures", confirmFailures.sum());
+        stats.put("missing", missing.sum());
+        stats.put("retried", retried.sum());
+        stats.put("lastReleaseAt", lastReleaseAt);
+        Long active = stringRedisTemplate.opsForZSet().zCard(STOCK_RESERVATION_EXPIRE_KEY);
+        stats.put("active", active == null ? 0 : active);
+        Long overdue = stringRedisTemplate.opsForZSet().count(STOCK_RESERVATION_EXPIRE_KEY,
+                Double.NEGATIVE_INFINITY, System.currentTimeMillis());
+        stats.put("overdue", overdue == null ? 0 : overdue);
+        return stats;
+    }
+}
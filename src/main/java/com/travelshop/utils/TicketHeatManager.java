@@ -1,5 +1,6 @@
 package com.travelshop.utils;
 
+import com.travelshop.config.CachePolicy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.StringRedisTemplate;
@@ -15,11 +16,10 @@ import java.util.stream.Collectors;
 @RequiredArgsConstructor
 public class TicketHeatManager {
     private final StringRedisTemplate redisTemplate;
+    private final CachePolicyRegistry cachePolicyRegistry;
     public static final String HOT_TICKET_SET_KEY = "cache:hot_ticket:set";
     public static final String TICKET_ACCESS_KEY = "stats:ticket:access:";
     public static final int HOT_THRESHOLD = 100; // 热门门票访问阈值
-    public static final long HOT_CACHE_TTL = 30L; // 热门门票缓存时间(分钟)
-    public static final long NORMAL_CACHE_TTL = 10L; // 普通门票缓存时间(分钟)
 
     // 判断门票是否热门
     public boolean isHotTicket(Long ticketId) {
@@ -69,9 +69,10 @@ public class TicketHeatManager {
         log.info("预热门票[{}]的库存数据到Redis", ticketId);
     }
 
-    // 判断并获取门票的缓存时间
+    // 判断并获取门票的缓存时间(秒)，取自门票缓存策略
     public long getTicketCacheTtl(Long ticketId) {
-        return isHotTicket(ticketId) ? HOT_CACHE_TTL : NORMAL_CACHE_TTL;
+        CachePolicy policy = cachePolicyRegistry.getPolicy("ticket");
+        return isHotTicket(ticketId) ? policy.getHotTtlSeconds() : policy.getTtlSeconds();
     }
 
     // 判断是否使用逻辑过期
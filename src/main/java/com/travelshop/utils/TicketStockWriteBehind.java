@@ -0,0 +1,315 @@
+package com.travelshop.utils;
+
+import com.travelshop.service.ITicketSkuService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisCallback;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 门票库存写回
+ * Redis预扣的库存追加到 stream.stock.ticket，由持有租约的单个节点按刷新间隔读取，
+ * 同一SKU的扣减合并为一次 UPDATE 写回 tb_ticket_sku，数据库写入从每笔一次降为每个SKU每个间隔一次。
+ * 每条扣减记录的序号(Stream ID)随UPDATE写入 flush_seq，崩溃后重放已应用的记录会被跳过；
+ * 只有一个节点写回，保证同一SKU的记录按序号顺序应用。
+ * 各SKU未写回的扣减数量同时累计在 stock:pending:ticket 中，从数据库重新加载库存时需要减去
+ */
+@Slf4j
+@Component
+public class TicketStockWriteBehind {
+
+    public static final String STREAM_KEY = "stream.stock.ticket";
+    public static final String PENDING_KEY = "stock:pending:ticket";
+    private static final String GROUP = "stock-writer";
+    private static final String LEASE_KEY = "lease:ticket:stock:write-behind";
+    // Stream ID 的序号部分占用的位数
+    private static final int SEQUENCE_BITS = 20;
+
+    private static final DefaultRedisScript<Long> APPEND_SCRIPT;
+    private static final DefaultRedisScript<Long> LEASE_SCRIPT;
+    private static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
+
+    static {
+        APPEND_SCRIPT = new DefaultRedisScript<>();
+        APPEND_SCRIPT.setLocation(new ClassPathResource("stock_write_behind_append.lua"));
+        APPEND_SCRIPT.setResultType(Long.class);
+        LEASE_SCRIPT = new DefaultRedisScript<>();
+        LEASE_SCRIPT.setLocation(new ClassPathResource("lease.lua"));
+        LEASE_SCRIPT.setResultType(Long.class);
+        UNLOCK_SCRIPT = new DefaultRedisScript<>();
+        UNLOCK_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
+        UNLOCK_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final ITicketSkuService ticketSkuService;
+
+    // 是否开启库存写回
+    @Value("${ticket.stock.write-behind.enabled:true}")
+    private boolean enabled;
+    // 写回间隔(毫秒)，间隔内同一SKU的扣减合并为一次更新
+    @Value("${ticket.stock.write-behind.flush-interval-millis:1000}")
+    private long flushIntervalMillis;
+    // 每次最多读取的扣减记录数
+    @Value("${ticket.stock.write-behind.batch-size:1000}")
+    private int batchSize;
+    // 写回节点租约(秒)
+    @Value("${ticket.stock.write-behind.lease-seconds:30}")
+    private long leaseSeconds;
+
+    private final String consumerName = "writer-" + ManagementFactory.getRuntimeMXBean().getName();
+    private volatile boolean running;
+    private volatile boolean leader;
+    private Thread worker;
+
+    private final LongAdder appended = new LongAdder();
+    private final LongAdder appendFailures = new LongAdder();
+    private final LongAdder flushedRecords = new LongAdder();
+    private final LongAdder flushedUpdates = new LongAdder();
+    private final LongAdder skippedRecords = new LongAdder();
+    private volatile long lastFlushAt;
+
+    public TicketStockWriteBehind(StringRedisTemplate stringRedisTemplate, ITicketSkuService ticketSkuService) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.ticketSkuService = ticketSkuService;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            log.info("门票库存写回未开启");
+            return;
+        }
+        try {
+            stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+                ((StringRedisConnection) connection).execute("XGROUP", "CREATE", STREAM_KEY, GROUP, "0", "MKSTREAM");
+                return null;
+            });
+        } catch (Exception e) {
+            // 消费者组已存在(BUSYGROUP)
+            log.debug("消费者组已存在：{}", e.getMessage());
+        }
+        running = true;
+        worker = ManagedExecutor.namedThreadFactory("ticket-stock-writer").newThread(this::run);
+        worker.start();
+        log.info("门票库存写回启动：{}，间隔：{}毫秒", consumerName, flushIntervalMillis);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        if (worker != null) {
+            try {
+                worker.join(flushIntervalMillis * 2 + TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (leader) {
+            stringRedisTemplate.execute(UNLOCK_SCRIPT, Collections.singletonList(LEASE_KEY), consumerName);
+        }
+    }
+
+    /**
+     * 已在Redis预扣、还未写回数据库的数量，从数据库加载库存时需要减去
+     * 应先于数据库库存读取：期间写回的扣减会被多减一次(少卖)，反过来会多算库存(超卖)
+     */
+    public long pendingCount(Long skuId) {
+        if (!enabled) {
+            return 0;
+        }
+        Object value = stringRedisTemplate.opsForHash().get(PENDING_KEY, skuId.toString());
+        return value == null ? 0 : Math.max(Long.parseLong(value.toString()), 0);
+    }
+
+    /**
+     * 记录一次Redis预扣
+     */
+    public void append(Long skuId, Integer count) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            stringRedisTemplate.execute(APPEND_SCRIPT, Arrays.asList(STREAM_KEY, PENDING_KEY),
+                    skuId.toString(), count.toString());
+            appended.increment();
+        } catch (Exception e) {
+            // 写入失败的扣减由库存对账修复
+            appendFailures.increment();
+            log.error("记录库存扣减失败，SKU[{}]数量：{}", skuId, count, e);
+        }
+    }
+
+    private void run() {
+        while (running) {
+            long start = System.currentTimeMillis();
+            try {
+                boolean acquired = acquireLease();
+                if (acquired && !leader) {
+                    // 新成为写回节点，先接管其他节点未确认的记录
+                    leader = true;
+                    log.info("{}成为门票库存写回节点", consumerName);
+                    recoverPending();
+                } else if (!acquired && leader) {
+                    leader = false;
+                    log.warn("{}失去门票库存写回租约", consumerName);
+                }
+                if (leader) {
+                    List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().read(
+                            Consumer.from(GROUP, consumerName),
+                            StreamReadOptions.empty().count(batchSize).block(Duration.ofMillis(flushIntervalMillis)),
+                            StreamOffset.create(STREAM_KEY, ReadOffset.lastConsumed()));
+                    if (records != null && !records.isEmpty()) {
+                        flush(records);
+                    }
+                }
+            } catch (Exception e) {
+                log.error("门票库存写回失败，记录保留在待处理列表中", e);
+                // 重新接管待处理记录
+                leader = false;
+            }
+            // 每个间隔最多写回一次，间隔内到达的扣减在下一次合并
+            long wait = flushIntervalMillis - (System.currentTimeMillis() - start);
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+    }
+
+    private boolean acquireLease() {
+        Long result = stringRedisTemplate.execute(LEASE_SCRIPT, Collections.singletonList(LEASE_KEY),
+                consumerName, String.valueOf(TimeUnit.SECONDS.toMillis(leaseSeconds)));
+        return result != null && result == 1;
+    }
+
+    /**
+     * 认领所有未确认的记录并按序号顺序写回
+     */
+    private void recoverPending() {
+        PendingMessages pending = stringRedisTemplate.opsForStream()
+                .pending(STREAM_KEY, GROUP, Range.unbounded(), Long.MAX_VALUE);
+        List<RecordId> toClaim = new ArrayList<>();
+        for (PendingMessage message : pending) {
+            if (!consumerName.equals(message.getConsumerName())) {
+                toClaim.add(message.getId());
+            }
+        }
+        if (!toClaim.isEmpty()) {
+            stringRedisTemplate.opsForStream().claim(STREAM_KEY, GROUP, consumerName,
+                    Duration.ZERO, toClaim.toArray(new RecordId[0]));
+            log.info("接管未确认的库存扣减记录{}条", toClaim.size());
+        }
+        while (running) {
+            List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().read(
+                    Consumer.from(GROUP, consumerName),
+                    StreamReadOptions.empty().count(batchSize),
+                    StreamOffset.create(STREAM_KEY, ReadOffset.from("0")));
+            if (records == null || records.isEmpty()) {
+                return;
+            }
+            flush(records);
+        }
+    }
+
+    private void flush(List<MapRecord<String, Object, Object>> records) {
+        Map<Long, SortedMap<Long, Integer>> deductions = new HashMap<>();
+        RecordId[] ids = new RecordId[records.size()];
+        for (int i = 0; i < records.size(); i++) {
+            MapRecord<String, Object, Object> record = records.get(i);
+            ids[i] = record.getId();
+            try {
+                Long skuId = Long.valueOf(record.getValue().get("skuId").toString());
+                Integer count = Integer.valueOf(record.getValue().get("count").toString());
+                deductions.computeIfAbsent(skuId, k -> new TreeMap<>()).put(sequenceOf(record.getId()), count);
+            } catch (RuntimeException e) {
+                log.error("库存扣减记录格式错误，直接丢弃：{} {}", record.getId(), record.getValue());
+            }
+        }
+
+        // 写库失败时抛出异常，记录不确认
+        Map<Long, Long> applied = ticketSkuService.applyDeductions(deductions);
+
+        // 已写回的记录确认后删除，Stream只保留未写回的记录，同时扣除未写回数量
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.xAck(STREAM_KEY, GROUP, ids);
+            conn.xDel(STREAM_KEY, ids);
+            deductions.forEach((skuId, counts) -> {
+                long total = 0;
+                for (Integer count : counts.values()) {
+                    total += count;
+                }
+                conn.hIncrBy(PENDING_KEY, skuId.toString(), -total);
+            });
+            return null;
+        });
+
+        int appliedRecords = 0;
+        for (Map.Entry<Long, SortedMap<Long, Integer>> entry : deductions.entrySet()) {
+            if (applied.containsKey(entry.getKey())) {
+                appliedRecords += entry.getValue().size();
+            }
+        }
+        flushedRecords.add(appliedRecords);
+        skippedRecords.add(records.size() - appliedRecords);
+        flushedUpdates.add(applied.size());
+        lastFlushAt = System.currentTimeMillis();
+        log.debug("写回库存扣减{}条，合并为{}次更新", records.size(), applied.size());
+    }
+
+    /**
+     * Stream ID 转为单调递增的序号：毫秒时间戳左移后拼接序号
+     */
+    private static long sequenceOf(RecordId id) {
+        return (id.getTimestamp() << SEQUENCE_BITS) | (id.getSequence() & ((1L << SEQUENCE_BITS) - 1));
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("consumer", consumerName);
+        stats.put("leader", leader);
+        stats.put("appended", appended.sum());
+        stats.put("appendFailures", appendFailures.sum());
+        stats.put("flushedRecords", flushedRecords.sum());
+        stats.put("flushedUpdates", flushedUpdates.sum());
+        stats.put("skippedRecords", skippedRecords.sum());
+        stats.put("lastFlushAt", lastFlushAt);
+        Long backlog = stringRedisTemplate.opsForStream().size(STREAM_KEY);
+        stats.put("backlog", backlog == null ? 0 : backlog);
+        return stats;
+    }
+}
@@ -1,191 +1,706 @@
 package com.travelshop.utils;
 
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONArray;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JavaType;
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.travelshop.config.CachePolicy;
 import com.travelshop.enums.BusinessType;
+import com.travelshop.utils.CacheMetrics.Event;
+import com.travelshop.utils.CacheMetrics.Stage;
+import com.travelshop.utils.codec.CacheCodecs;
+import com.travelshop.utils.codec.CacheEnvelope;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cglib.core.internal.Function;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
 
 @Slf4j
 @Component
 public class UnifiedCache {
 
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(16);
-
     private final StringRedisTemplate stringRedisTemplate;
     private final BloomFilter bloomFilter;
     private final DistributedLock distributedLock;
     private final CacheMessage cacheMessageService;
+    private final CacheCodecs cacheCodecs;
+    private final CachePolicyRegistry cachePolicyRegistry;
+    private final HotKeyDetector hotKeyDetector;
+    private final CacheMetrics cacheMetrics;
+    private final NearCacheTracker nearCacheTracker;
+    private final CacheExecutors cacheExecutors;
+    private final RedisKeyScanner redisKeyScanner;
 
     private static final String LOCK_PREFIX = "cache:lock:";
 
-    // 本地缓存相关配置
-    private static final long LOCAL_CACHE_MAX_SIZE = 10000; // 最大缓存条目数
-    private static final long LOCAL_CACHE_EXPIRE_SECONDS = 60; // 本地缓存过期时间(秒)
-    private Cache<String, Object> localCache;
+    // 版本化写入：缓存值附带数据版本(update_time)，只允许新版本覆盖旧版本
+    private static final String VERSION_PREFIX = "cache:ver:";
+    private static final DefaultRedisScript<Long> VERSIONED_SET_SCRIPT;
+    private static final DefaultRedisScript<Long> VERSIONED_DELETE_SCRIPT;
+    // 自适应空值缓存：连续未命中的key空值缓存时间逐次翻倍
+    private static final DefaultRedisScript<Long> NEGATIVE_SET_SCRIPT;
+    private static final String MISS_COUNT_PREFIX = "cache:miss:";
+    // 实体类的更新时间读取方法，没有则为空
+    private static final Map<Class<?>, Optional<Method>> VERSION_ACCESSORS = new ConcurrentHashMap<>();
+
+    // 逻辑过期缓存清理：游标分页扫描，进度保存在Redis中
+    private static final String CLEANUP_PROGRESS_PREFIX = "cache:cleanup:progress:";
+    private static final long CLEANUP_PROGRESS_TTL_HOURS = 24;
+    private static final String STATUS_RUNNING = "running";
+    private static final String STATUS_DONE = "done";
+
+    static {
+        VERSIONED_SET_SCRIPT = new DefaultRedisScript<>();
+        VERSIONED_SET_SCRIPT.setLocation(new ClassPathResource("versioned_set.lua"));
+        VERSIONED_SET_SCRIPT.setResultType(Long.class);
+
+        VERSIONED_DELETE_SCRIPT = new DefaultRedisScript<>();
+        VERSIONED_DELETE_SCRIPT.setLocation(new ClassPathResource("versioned_delete.lua"));
+        VERSIONED_DELETE_SCRIPT.setResultType(Long.class);
+
+        NEGATIVE_SET_SCRIPT = new DefaultRedisScript<>();
+        NEGATIVE_SET_SCRIPT.setLocation(new ClassPathResource("negative_set.lua"));
+        NEGATIVE_SET_SCRIPT.setResultType(Long.class);
+    }
+
+    // 是否开启版本化写入
+    @Value("${cache.version.enabled:true}")
+    private boolean versionEnabled;
+    // 删除缓存后保留版本下限的时间(秒)
+    @Value("${cache.version.tombstone-seconds:60}")
+    private long versionTombstoneSeconds;
+    // 不过期(逻辑过期)缓存的版本key保留时间(秒)
+    @Value("${cache.version.retain-seconds:86400}")
+    private long versionRetainSeconds;
+    private final LongAdder staleWritesRejected = new LongAdder();
+
+    // 清理任务每页SCAN的COUNT
+    @Value("${cache.cleanup.scan-count:1000}")
+    private int cleanupScanCount;
+    // 清理任务单次执行的默认时间预算(毫秒)
+    @Value("${cache.cleanup.budget-millis:30000}")
+    private long cleanupBudgetMillis;
+
+    // 本地缓存按业务划分，容量和过期时间由缓存策略决定
+    private final Map<String, Cache<String, LocalEntry>> localCaches = new ConcurrentHashMap<>();
+
+    // 本地缓存提前刷新：条目接近过期时异步刷新，刷新期间继续返回旧值
+    @Value("${cache.local.refresh-ahead:true}")
+    private boolean refreshAhead;
+    // 写入后经过本地过期时间的该比例开始刷新
+    @Value("${cache.local.refresh-ratio:0.8}")
+    private double refreshRatio;
+    // 逻辑过期缓存在软截止时间前多少秒开始刷新并重建
+    @Value("${cache.local.refresh-lead-seconds:5}")
+    private long refreshLeadSeconds;
+    // 刷新和重建任务按key提交到重建线程池，同一个key只保留一个任务
+    private static final String REFRESH_TASK_PREFIX = "refresh:";
+    private static final String REBUILD_TASK_PREFIX = "rebuild:";
+    private final LongAdder localRefreshes = new LongAdder();
+    private final LongAdder localRefreshRebuilds = new LongAdder();
 
-    private static final long CACHE_NULL_TTL = 60;
+    // 本地空值缓存：与业务本地缓存分开存放并单独限制容量，不会挤掉真实数据
+    private Cache<String, Long> negativeCache;
+    @Value("${cache.negative.local-max-size:50000}")
+    private long negativeLocalMaxSize;
+    // 空值缓存最长时间(秒)，首次未命中使用业务策略的 null-ttl-seconds
+    @Value("${cache.negative.max-ttl-seconds:1800}")
+    private long negativeMaxTtlSeconds;
+    private final LongAdder negativeBackoffs = new LongAdder();
+    private static final LocalEntry NEGATIVE_ENTRY = new LocalEntry(null, null, null, Long.MAX_VALUE);
 
-    public UnifiedCache(StringRedisTemplate stringRedisTemplate, BloomFilter bloomFilter, DistributedLock distributedLock, CacheMessage cacheMessageService) {
+    // 本地热点层：热点探测钉住的key单独存放，不受业务本地缓存容量淘汰影响，过期时间短并提前刷新
+    private Cache<String, LocalEntry> hotTier;
+    // 热点层条目过期时间(秒)
+    @Value("${cache.hotkey.pin-ttl-seconds:5}")
+    private long pinTtlSeconds;
+    @Value("${cache.hotkey.pin-max-size:1000}")
+    private int pinMaxSize;
+
+
+    // 单飞加载相关配置
+    private static final String LEASE_PREFIX = "cache:lease:";
+    private static final long LEASE_POLL_INTERVAL_MILLIS = 20;
+    // 是否开启跨节点租约，只允许一个节点回源重建
+    @Value("${cache.single-flight.distributed:false}")
+    private boolean singleFlightDistributed;
+    // 跨节点租约时长(秒)
+    @Value("${cache.single-flight.lease-seconds:3}")
+    private long singleFlightLeaseSeconds;
+    // 等待其他线程/节点加载结果的最长时间(毫秒)
+    @Value("${cache.single-flight.wait-millis:500}")
+    private long singleFlightWaitMillis;
+    // 正在加载中的key
+    private final Map<String, CompletableFuture<Object>> inFlightLoads = new ConcurrentHashMap<>();
+    private final LongAdder singleFlightHits = new LongAdder();
+    private final LongAdder singleFlightWaits = new LongAdder();
+    private final LongAdder singleFlightLoads = new LongAdder();
+    private final LongAdder singleFlightLeaseWaits = new LongAdder();
+
+    public UnifiedCache(StringRedisTemplate stringRedisTemplate, BloomFilter bloomFilter, DistributedLock distributedLock, CacheMessage cacheMessageService,
+                        CacheCodecs cacheCodecs, CachePolicyRegistry cachePolicyRegistry, HotKeyDetector hotKeyDetector,
+                        CacheMetrics cacheMetrics, NearCacheTracker nearCacheTracker,
+                        CacheExecutors cacheExecutors, RedisKeyScanner redisKeyScanner) {
         this.stringRedisTemplate = stringRedisTemplate;
         this.bloomFilter = bloomFilter;
         this.distributedLock = distributedLock;
         this.cacheMessageService = cacheMessageService;
+        this.cacheCodecs = cacheCodecs;
+        this.cachePolicyRegistry = cachePolicyRegistry;
+        this.hotKeyDetector = hotKeyDetector;
+        this.cacheMetrics = cacheMetrics;
+        this.nearCacheTracker = nearCacheTracker;
+        this.cacheExecutors = cacheExecutors;
+        this.redisKeyScanner = redisKeyScanner;
     }
 
     @PostConstruct
     public void init() {
-        // 初始化本地缓存
-        localCache = Caffeine.newBuilder()
-                .maximumSize(LOCAL_CACHE_MAX_SIZE)
-                .expireAfterWrite(LOCAL_CACHE_EXPIRE_SECONDS, TimeUnit.SECONDS)
-                .recordStats() // 开启统计
+        // 缓存策略变更时调整已创建的本地缓存
+        cachePolicyRegistry.onChange(this::applyLocalCachePolicies);
+        // 条目的值为过期时间戳，读取时判断，容量上限之外按最大空值缓存时间兜底过期
+        negativeCache = Caffeine.newBuilder()
+                .maximumSize(negativeLocalMaxSize)
+                .expireAfterWrite(negativeMaxTtlSeconds, TimeUnit.SECONDS)
+                .recordStats()
                 .build();
-        log.info("本地缓存初始化完成，最大容量：{}，过期时间：{}秒",
-                LOCAL_CACHE_MAX_SIZE, LOCAL_CACHE_EXPIRE_SECONDS);
+        hotTier = Caffeine.newBuilder()
+                .maximumSize(pinMaxSize)
+                .expireAfterWrite(pinTtlSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        hotKeyDetector.onPinChange(this::onHotKeyPinChange);
+        nearCacheTracker.onInvalidate(this::handleTrackingInvalidation);
+        nearCacheTracker.onStateChange(this::onTrackingStateChange);
+        log.info("本地缓存初始化完成，提前刷新：{}", refreshAhead);
         cacheMessageService.subscribeToChanges(this::handleCacheMessage);
     }
 
+    private Cache<String, LocalEntry> localCacheOf(String key) {
+        return localCaches.computeIfAbsent(cachePolicyRegistry.resolveBusiness(key), business -> {
+            CachePolicy policy = cachePolicyRegistry.getPolicy(business);
+            long expireSeconds = nearCacheTracker.localExpireSeconds(policy.getLocalExpireSeconds());
+            log.info("创建业务[{}]本地缓存，最大容量：{}，过期时间：{}秒",
+                    business, policy.getLocalMaxSize(), expireSeconds);
+            return Caffeine.newBuilder()
+                    .maximumSize(policy.getLocalMaxSize())
+                    .expireAfterWrite(expireSeconds, TimeUnit.SECONDS)
+                    .recordStats() // 开启统计
+                    .build();
+        });
+    }
 
+    /**
+     * 本地缓存所在的层：钉住的key在热点层，其余在业务本地缓存
+     */
+    private Cache<String, LocalEntry> tierOf(String key) {
+        return hotKeyDetector.isPinned(key) ? hotTier : localCacheOf(key);
+    }
 
-    private void handleCacheMessage(Map<String, String> message) {
-        String operation = message.get("operation");
-        String key = message.get("key");
-        if (key != null) {
-            if ("delete".equals(operation)) {
-                deleteFromLocalCache(key);
-                bloomFilter.deleteFromBloomFilter(key);
-                log.debug("收到删除缓存消息，key: {}", key);
-            } else if ("update".equals(operation)) {
+    /**
+     * 钉住时把已有条目移入热点层，取消时移回业务本地缓存
+     */
+    private void onHotKeyPinChange(String key, boolean pinned) {
+        Cache<String, LocalEntry> from = pinned ? localCacheOf(key) : hotTier;
+        Cache<String, LocalEntry> to = pinned ? hotTier : localCacheOf(key);
+        LocalEntry entry = from.asMap().remove(key);
+        if (entry != null) {
+            to.put(key, newLocalEntry(key, entry.value, entry.type, entry.expireTime));
+        }
+    }
+
+    private void applyLocalCachePolicies() {
+        localCaches.forEach((business, cache) -> {
+            CachePolicy policy = cachePolicyRegistry.getPolicy(business);
+            long expireSeconds = nearCacheTracker.localExpireSeconds(policy.getLocalExpireSeconds());
+            cache.policy().eviction().ifPresent(eviction -> eviction.setMaximum(policy.getLocalMaxSize()));
+            cache.policy().expireAfterWrite().ifPresent(expiration ->
+                    expiration.setExpiresAfter(Duration.ofSeconds(expireSeconds)));
+            log.info("业务[{}]本地缓存策略已更新，最大容量：{}，过期时间：{}秒",
+                    business, policy.getLocalMaxSize(), expireSeconds);
+        });
+    }
+
+
+
+    private void handleCacheMessage(Map<String, List<String>> changes) {
+        // 缓存删除不代表数据删除，布隆过滤器的删除由数据变更消息统一处理
+        int count = 0;
+        for (String operation : new String[]{"update", "delete"}) {
+            List<String> keys = changes.get(operation);
+            if (keys == null) {
+                continue;
+            }
+            for (String key : keys) {
                 deleteFromLocalCache(key);
-                log.debug("收到更新缓存消息，key: {}", key);
             }
+            count += keys.size();
+        }
+        // 其他节点新加入布隆过滤器的key说明数据已存在，清除本地空值缓存
+        List<String> bloomAdded = changes.get(BloomFilter.BLOOM_ADD_OPERATION);
+        if (bloomAdded != null) {
+            bloomAdded.forEach(negativeCache::invalidate);
+        }
+        if (count > 0) {
+            log.debug("收到缓存变更消息，失效本地缓存{}条", count);
         }
     }
 
-    private <R> R getFromLocalCache(String key, Class<R> type) {
-        Object value = localCache.getIfPresent(key);
-        if (value != null) {
-            if (value instanceof String && ((String) value).isEmpty()) {
-                return null;
+    /**
+     * Redis推送的失效通知，keys为null表示全部失效
+     */
+    private void handleTrackingInvalidation(List<String> keys) {
+        if (keys == null) {
+            invalidateAllLocal();
+            return;
+        }
+        for (String key : keys) {
+            deleteFromLocalCache(key);
+        }
+    }
+
+    /**
+     * 跟踪开启或断开时，期间可能漏掉失效通知，清空本地缓存并切换本地过期时间
+     */
+    private void onTrackingStateChange(boolean active) {
+        invalidateAllLocal();
+        applyLocalCachePolicies();
+        log.info("客户端缓存跟踪{}，已清空本地缓存", active ? "生效" : "失效");
+    }
+
+    private void invalidateAllLocal() {
+        localCaches.values().forEach(Cache::invalidateAll);
+        negativeCache.invalidateAll();
+        hotTier.invalidateAll();
+    }
+
+    /**
+     * 本地缓存条目
+     * value为null表示空值缓存；refreshAt之后的首次访问触发异步刷新
+     */
+    private static class LocalEntry {
+        private final Object value;
+        private final JavaType type;
+        private final LocalDateTime expireTime;
+        private final long refreshAtMillis;
+
+        LocalEntry(Object value, JavaType type, LocalDateTime expireTime, long refreshAtMillis) {
+            this.value = value;
+            this.type = type;
+            this.expireTime = expireTime;
+            this.refreshAtMillis = refreshAtMillis;
+        }
+    }
+
+    /**
+     * 查询本地缓存，返回null表示未命中，条目的value为null表示空值缓存
+     */
+    private LocalEntry getFromLocalCache(String key) {
+        Long negativeExpireAt = negativeCache.getIfPresent(key);
+        if (negativeExpireAt != null) {
+            if (negativeExpireAt > System.currentTimeMillis()) {
+                return NEGATIVE_ENTRY;
             }
-            return (R) value;
+            negativeCache.invalidate(key);
         }
-        return null;
+        LocalEntry entry = tierOf(key).getIfPresent(key);
+        if (entry != null && refreshAhead && entry.value != null
+                && System.currentTimeMillis() >= entry.refreshAtMillis) {
+            scheduleLocalRefresh(key, entry);
+        }
+        return entry;
     }
 
-    private <R> void putToLocalCache(String key, R value) {
-        if (value == null) {
-            localCache.put(key, "");
-        } else {
-            localCache.put(key, value);
+    /**
+     * 本地记录空值
+     * @param seconds 空值缓存时间，与Redis中的空值缓存一致
+     */
+    private void putNegative(String key, long seconds) {
+        // 同一个key不会同时存在真实数据和空值
+        tierOf(key).invalidate(key);
+        negativeCache.put(key, System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(seconds));
+    }
+
+    private void putNegative(String key) {
+        putNegative(key, cachePolicyRegistry.getPolicyByKey(key).getNullTtlSeconds());
+    }
+
+    /**
+     * 写入本地缓存
+     * @param type 数据类型，刷新时用于解码，为null时不刷新
+     * @param expireTime Redis中的逻辑过期时间，物理过期的缓存为null
+     */
+    private void putToLocalCache(String key, Object value, JavaType type, LocalDateTime expireTime) {
+        negativeCache.invalidate(key);
+        tierOf(key).put(key, newLocalEntry(key, value, type, expireTime));
+    }
+
+    private LocalEntry newLocalEntry(String key, Object value, JavaType type, LocalDateTime expireTime) {
+        long now = System.currentTimeMillis();
+        long localExpireMillis = TimeUnit.SECONDS.toMillis(hotKeyDetector.isPinned(key) ? pinTtlSeconds
+                : nearCacheTracker.localExpireSeconds(cachePolicyRegistry.getPolicyByKey(key).getLocalExpireSeconds()));
+        long refreshAt = now + (long) (localExpireMillis * refreshRatio);
+        if (expireTime != null) {
+            // 逻辑过期缓存由软截止时间决定刷新时机，保证在Redis数据过期前完成重建
+            long softDeadline = expireTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()
+                    - TimeUnit.SECONDS.toMillis(refreshLeadSeconds);
+            refreshAt = Math.min(refreshAt, Math.max(softDeadline, now));
+        }
+        return new LocalEntry(value, type, expireTime, refreshAt);
+    }
+
+    /**
+     * 异步刷新本地缓存条目：重新读取Redis，逻辑过期缓存临近软截止时间时提前重建
+     */
+    private void scheduleLocalRefresh(String key, LocalEntry entry) {
+        if (entry.type == null) {
+            return;
+        }
+        // 队列已满时放弃刷新，继续返回旧值直到本地过期
+        cacheExecutors.rebuild().submitKeyed(REFRESH_TASK_PREFIX + key, () -> {
+            try {
+                refreshLocalEntry(key, entry);
+            } catch (Exception e) {
+                log.warn("刷新本地缓存失败, key={}", key, e);
+            }
+        });
+    }
+
+    private void refreshLocalEntry(String key, LocalEntry entry) {
+        localRefreshes.increment();
+        byte[] raw = getRaw(key);
+        if (raw == null || raw.length == 0) {
+            // Redis中已不存在，保留旧值直到本地过期，由下一次查询走完整路径
+            return;
         }
+        CacheEnvelope<Object> envelope = cacheCodecs.decode(key, raw, entry.type);
+        LocalDateTime expireTime = envelope.getExpireTime();
+        if (expireTime != null
+                && expireTime.minusSeconds(refreshLeadSeconds).isBefore(LocalDateTime.now())) {
+            // 临近逻辑过期，提前重建，避免请求读到过期数据后才触发
+            localRefreshRebuilds.increment();
+            triggerLogicalRebuild(key);
+        }
+        // 条目在刷新期间被失效时不写回，避免覆盖更新后的数据
+        tierOf(key).asMap().replace(key, entry, newLocalEntry(key, envelope.getData(), entry.type, expireTime));
     }
 
     private void deleteFromLocalCache(String key) {
-        localCache.invalidate(key);
+        localCacheOf(key).invalidate(key);
+        hotTier.invalidate(key);
+        negativeCache.invalidate(key);
         log.debug("删除本地缓存，key: {}", key);
     }
 
+    /**
+     * 数据变更后写入缓存，并通知其他节点失效本地缓存
+     */
     public <T> void setWithRandomExpire(String key, T value, long time, TimeUnit unit) {
-        long seconds = unit.toSeconds(time);
+        setWithRandomExpire(key, value, time, unit, true);
+    }
+
+    /**
+     * @param updateBloom 是否确保key在布隆过滤器中，调用方自行计数(如新增事件)时传false
+     */
+    public <T> void setWithRandomExpire(String key, T value, long time, TimeUnit unit, boolean updateBloom) {
+        fillWithRandomExpire(key, value, time, unit, updateBloom);
+        notifyChanged("update", key);
+    }
+
+    /**
+     * 数据变更后写入逻辑过期缓存，并通知其他节点失效本地缓存
+     */
+    public <T> void setWithLogicalExpire(String key, T value, long time, TimeUnit unit) {
+        setWithLogicalExpire(key, value, time, unit, true);
+    }
+
+    /**
+     * @param updateBloom 是否确保key在布隆过滤器中，调用方自行计数(如新增事件)时传false
+     */
+    public <T> void setWithLogicalExpire(String key, T value, long time, TimeUnit unit, boolean updateBloom) {
+        fillWithLogicalExpire(key, value, time, unit, updateBloom);
+        notifyChanged("update", key);
+    }
+
+    /**
+     * 回源填充缓存，数据本身没有变化，不通知其他节点
+     * @param updateBloom 是否同时计入布隆过滤器
+     * @return 是否写入，Redis中已有更新版本时返回false
+     */
+    private <T> boolean fillWithRandomExpire(String key, T value, long time, TimeUnit unit, boolean updateBloom) {
         // 添加随机偏移量，防止缓存雪崩
-        long randomOffset = (long) (Math.random() * 0.2 * seconds);
-        stringRedisTemplate.opsForValue().set(
-                key,
-                JSONUtil.toJsonStr(value),
-                seconds + randomOffset,
-                TimeUnit.SECONDS
-        );
-        log.debug("设置缓存，key: {}，过期时间: {}秒", key, seconds + randomOffset);
+        long seconds = cachePolicyRegistry.getPolicyByKey(key).withJitter(unit.toSeconds(time));
+        if (!writeVersioned(key, cacheCodecs.encode(key, value, null), seconds, versionOf(value))) {
+            return false;
+        }
+        log.debug("设置缓存，key: {}，过期时间: {}秒", key, seconds);
         BusinessType businessType = BusinessType.getByKey(key);
-        if (businessType != null) {
-            bloomFilter.addBloomFilter(businessType.getCode(), key);
+        if (updateBloom && businessType != null) {
+            bloomFilter.ensureInBloomFilter(businessType.getCode(), key);
         }
-        cacheMessageService.publishCacheChange("update", key);
+        return true;
     }
 
-    public <T> void setWithLogicalExpire(String key, T value, long time, TimeUnit unit) {
-        RedisData redisData = new RedisData();
-        redisData.setData(value);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+    private <T> boolean fillWithLogicalExpire(String key, T value, long time, TimeUnit unit, boolean updateBloom) {
+        LocalDateTime expireTime = LocalDateTime.now().plusSeconds(unit.toSeconds(time));
+        if (!writeVersioned(key, cacheCodecs.encode(key, value, expireTime), -1, versionOf(value))) {
+            return false;
+        }
         log.debug("设置逻辑过期缓存，key: {}", key);
         BusinessType businessType = BusinessType.getByKey(key);
-        if (businessType != null) {
-            bloomFilter.addBloomFilter(businessType.getCode(), key);
+        if (updateBloom && businessType != null) {
+            bloomFilter.ensureInBloomFilter(businessType.getCode(), key);
+        }
+        return true;
+    }
+
+    /**
+     * 按版本写入缓存，版本号为0(数据没有更新时间)时直接写入
+     * @param seconds 过期时间，小于等于0表示不过期
+     * @return 是否写入
+     */
+    private boolean writeVersioned(String key, byte[] value, long seconds, long version) {
+        if (!versionEnabled || version <= 0) {
+            setRaw(key, value, seconds);
+            return true;
         }
-        cacheMessageService.publishCacheChange("update", key);
+        Long written = stringRedisTemplate.execute((RedisCallback<Long>) connection ->
+                evalScript(connection, VERSIONED_SET_SCRIPT, versionedSetArgs(key, value, seconds, version)));
+        if (written != null && written == 1L) {
+            return true;
+        }
+        staleWritesRejected.increment();
+        log.info("缓存已有更新版本，拒绝写入旧数据，key: {}，版本: {}", key, version);
+        return false;
     }
 
-    public void setCacheNull(String key) {
-        stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.SECONDS);
-        log.debug("设置空值缓存，key: {}", key);
-        cacheMessageService.publishCacheChange("update", key);
+    private byte[][] versionedSetArgs(String key, byte[] value, long seconds, long version) {
+        long versionTtl = Math.max(seconds > 0 ? seconds : versionRetainSeconds, versionTombstoneSeconds);
+        return new byte[][]{
+                rawKey(key),
+                rawKey(VERSION_PREFIX + key),
+                value,
+                rawKey(String.valueOf(version)),
+                rawKey(String.valueOf(seconds)),
+                rawKey(String.valueOf(versionTtl))
+        };
     }
 
-    public void deleteCache(String key) {
-        stringRedisTemplate.delete(key);
-        log.debug("删除缓存，key: {}", key);
+    private Long evalScript(RedisConnection connection, DefaultRedisScript<Long> script, byte[][] keysAndArgs) {
+        try {
+            return connection.evalSha(script.getSha1(), ReturnType.INTEGER, 2, keysAndArgs);
+        } catch (RuntimeException e) {
+            if (!isNoScriptError(e)) {
+                throw e;
+            }
+            return connection.eval(rawKey(script.getScriptAsString()), ReturnType.INTEGER, 2, keysAndArgs);
+        }
+    }
+
+    private static boolean isNoScriptError(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause.getMessage() != null && cause.getMessage().contains("NOSCRIPT")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 数据版本：实体的更新时间(毫秒)，没有更新时间的数据返回0
+     */
+    public static long versionOf(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        Optional<Method> accessor = VERSION_ACCESSORS.computeIfAbsent(value.getClass(), clazz -> {
+            try {
+                return Optional.of(clazz.getMethod("getUpdateTime"));
+            } catch (NoSuchMethodException e) {
+                return Optional.empty();
+            }
+        });
+        if (!accessor.isPresent()) {
+            return 0;
+        }
+        try {
+            Object updateTime = accessor.get().invoke(value);
+            if (updateTime instanceof LocalDateTime) {
+                return ((LocalDateTime) updateTime).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            }
+            if (updateTime instanceof Date) {
+                return ((Date) updateTime).getTime();
+            }
+        } catch (ReflectiveOperationException e) {
+            log.warn("读取数据版本失败: {}", value.getClass().getName(), e);
+        }
+        return 0;
+    }
+
+    /**
+     * 缓存空值，防止缓存穿透；空值只是查询结果，不通知其他节点。
+     * 同一个key连续未命中时缓存时间逐次翻倍，数据新增时由 resetNegative 重置
+     * @return 本次空值缓存时间(秒)
+     */
+    public long setCacheNull(String key) {
+        long nullTtlSeconds = cachePolicyRegistry.getPolicyByKey(key).getNullTtlSeconds();
+        byte[][] keysAndArgs = negativeSetArgs(key, nullTtlSeconds);
+        Long ttl = stringRedisTemplate.execute((RedisCallback<Long>) connection ->
+                evalScript(connection, NEGATIVE_SET_SCRIPT, keysAndArgs));
+        long seconds = ttl != null ? ttl : nullTtlSeconds;
+        if (seconds > nullTtlSeconds) {
+            negativeBackoffs.increment();
+        }
+        log.debug("设置空值缓存，key: {}，缓存时间: {}秒", key, seconds);
+        return seconds;
+    }
+
+    private byte[][] negativeSetArgs(String key, long nullTtlSeconds) {
+        return new byte[][]{
+                rawKey(key),
+                rawKey(MISS_COUNT_PREFIX + key),
+                rawKey(String.valueOf(nullTtlSeconds)),
+                rawKey(String.valueOf(Math.max(negativeMaxTtlSeconds, nullTtlSeconds)))
+        };
+    }
+
+    /**
+     * 数据新增后重置空值缓存：清除未命中计数和各节点的本地空值
+     * 新数据的写入会覆盖Redis中的空值，这里不删除缓存本身
+     */
+    public void resetNegative(String key) {
+        stringRedisTemplate.delete(MISS_COUNT_PREFIX + key);
+        negativeCache.invalidate(key);
         cacheMessageService.publishCacheChange("delete", key);
     }
 
+    public void deleteCache(String key) {
+        deleteCache(key, 0);
+    }
+
+    /**
+     * 删除缓存并记录版本下限，并发回源读到的严格更旧的数据不会再写回，同版本的回填不受影响
+     * @param version 变更后的数据版本(更新时间毫秒)，调用方应传入真实版本；未知时传0，只删除不设下限
+     */
+    public void deleteCache(String key, long version) {
+        if (versionEnabled) {
+            byte[][] keysAndArgs = {
+                    rawKey(key),
+                    rawKey(VERSION_PREFIX + key),
+                    rawKey(String.valueOf(version)),
+                    rawKey(String.valueOf(versionTombstoneSeconds))
+            };
+            stringRedisTemplate.execute((RedisCallback<Long>) connection ->
+                    evalScript(connection, VERSIONED_DELETE_SCRIPT, keysAndArgs));
+        } else {
+            stringRedisTemplate.delete(key);
+        }
+        log.debug("删除缓存，key: {}，版本: {}", key, version);
+        notifyChanged("delete", key);
+    }
+
+    /**
+     * 失效本节点的本地缓存并广播给其他节点，广播按批合并发送
+     */
+    private void notifyChanged(String operation, String key) {
+        deleteFromLocalCache(key);
+        cacheMessageService.publishCacheChange(operation, key);
+    }
+
     public <R> R getFromLogicalCache(String key, Class<R> type) {
-        String json = stringRedisTemplate.opsForValue().get(key);
-        if (json == null) {
+        hotKeyDetector.record(key);
+        String business = cachePolicyRegistry.resolveBusiness(key);
+        // 本地缓存命中直接返回，临近软截止时间由提前刷新负责重建
+        LocalEntry entry = getFromLocalCache(key);
+        if (entry != null && entry.value != null) {
+            cacheMetrics.record(business, Event.LOCAL_HIT);
+            return (R) entry.value;
+        }
+        cacheMetrics.record(business, Event.LOCAL_MISS);
+
+        long redisStart = System.nanoTime();
+        byte[] raw = getRaw(key);
+        cacheMetrics.recordLatency(business, Stage.REDIS, redisStart);
+        if (raw == null || raw.length == 0) {
+            cacheMetrics.record(business, raw == null ? Event.REDIS_MISS : Event.REDIS_NULL_HIT);
             return null;
         }
+        cacheMetrics.record(business, Event.REDIS_HIT);
 
-        // 反序列化RedisData
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        // 使用JSONUtil的转换而非强制类型转换
-        R data = JSONUtil.toBean((JSONObject) redisData.getData(), type);
+        // 一次解析出逻辑过期时间和业务数据
+        JavaType javaType = CacheCodecs.type(type);
+        CacheEnvelope<R> envelope = cacheCodecs.decode(key, raw, javaType);
+        R data = envelope.getData();
+        putToLocalCache(key, data, javaType, envelope.getExpireTime());
 
         // 判断是否逻辑过期
-        if (redisData.getExpireTime().isAfter(LocalDateTime.now())) {
+        if (!envelope.isLogicalExpired()) {
             // 未过期
             return data;
         }
 
-        // 已过期，尝试获取锁异步更新
-        String lockKey = LOCK_PREFIX + key;
-        boolean isLockSuccess = distributedLock.tryLock(lockKey, 10);
-        // 返回旧数据
-        if (isLockSuccess) {
-            // 成功获取锁，启动异步更新
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
+        // 已过期，异步更新并返回旧数据
+        triggerLogicalRebuild(key);
+        return data;
+    }
+
+    /**
+     * 异步重建逻辑过期缓存，本节点内同一个key只提交一次，
+     * 跨节点由分布式锁保证只有一个节点回源（锁在执行线程内获取和释放）
+     */
+    private void triggerLogicalRebuild(String key) {
+        // 同一个key已在重建或队列已满时直接放弃，调用方继续返回旧数据
+        boolean submitted = cacheExecutors.rebuild().submitKeyed(REBUILD_TASK_PREFIX + key, () -> {
+            String lockKey = LOCK_PREFIX + key;
+            try {
+                if (!distributedLock.tryLock(lockKey, 10)) {
+                    return;
+                }
                 try {
                     // 重建缓存的逻辑
                     this.rebuildCache(key, 20L, TimeUnit.MINUTES);
-
-                } catch (Exception e) {
-                    log.error("异步重建缓存失败, key={}", key, e);
                 } finally {
                     // 释放锁
                     distributedLock.unlock(lockKey);
                 }
-            });
+            } catch (Exception e) {
+                log.error("异步重建缓存失败, key={}", key, e);
+            }
+        });
+        if (submitted) {
             log.info("缓存已逻辑过期，已启动异步更新，key={}", key);
         }
-
-        return data;
     }
 
     // 重建缓存的方法
@@ -214,8 +729,9 @@ public class UnifiedCache {
                 Object entity = ((BaseMapper<?>)mapper).selectById(id);
                 if (entity != null) {
                     // 更新缓存
-                    this.setWithLogicalExpire(key, entity, timeout, timeUnit);
-                    log.info("异步重建缓存成功, key={}", key);
+                    if (this.fillWithLogicalExpire(key, entity, timeout, timeUnit, true)) {
+                        log.info("异步重建缓存成功, key={}", key);
+                    }
                 } else {
                     // 数据库中数据不存在，删除缓存
                     this.deleteCache(key);
@@ -235,12 +751,11 @@ public class UnifiedCache {
             Function<ID, R> dbFallback, // 数据库查询函数
             boolean isHot             // 是否热点数据
     ) {
-        String actualKeyPrefix = isHot ? keyPrefix + ":hot:" : keyPrefix;
-        String key = actualKeyPrefix + id;
-        boolean useLogicalExpire = isHot;
-        long timeout = isHot ? 10 : 30;
-        TimeUnit timeUnit = TimeUnit.MINUTES;
-        return queryWithBloomFilter(business, keyPrefix, id, type, dbFallback, useLogicalExpire, timeout, timeUnit);
+        // 热点数据使用逻辑过期，过期时间由业务缓存策略决定
+        CachePolicy policy = cachePolicyRegistry.getPolicy(business);
+        boolean useLogicalExpire = isHot || policy.isLogicalExpire();
+        long timeout = isHot ? policy.getHotTtlSeconds() : policy.getTtlSeconds();
+        return queryWithBloomFilter(business, keyPrefix, id, type, dbFallback, useLogicalExpire, timeout, TimeUnit.SECONDS);
     }
 
 
@@ -254,120 +769,443 @@ public class UnifiedCache {
             long timeout,               // 超时时间
             TimeUnit timeUnit           // 时间单位
     ) {
+        return queryWithBloomFilter(business, keyPrefix, id, CacheCodecs.type(type), dbFallback, useLogicalExpire, timeout, timeUnit);
+    }
+
+    /**
+     * 泛型返回值的查询，如 new TypeReference<List<Voucher>>() {}
+     */
+    public <R, ID> R queryWithBloomFilter(
+            String business,
+            String keyPrefix,
+            ID id,
+            TypeReference<R> typeReference,
+            Function<ID, R> dbFallback,
+            boolean useLogicalExpire,
+            long timeout,
+            TimeUnit timeUnit
+    ) {
+        return queryWithBloomFilter(business, keyPrefix, id, CacheCodecs.type(typeReference.getType()), dbFallback, useLogicalExpire, timeout, timeUnit);
+    }
+
+    private <R, ID> R queryWithBloomFilter(String business, String keyPrefix, ID id, JavaType type, Function<ID, R> dbFallback,
+                                           boolean useLogicalExpire, long timeout, TimeUnit timeUnit) {
         String key = keyPrefix + id;
+        hotKeyDetector.record(key);
 
         // 1. 先查本地缓存
-        R localResult = getFromLocalCache(key, type);
-        if (localResult != null) {
-            return localResult;
+        LocalEntry localEntry = getFromLocalCache(key);
+        if (localEntry != null) {
+            singleFlightHits.increment();
+            cacheMetrics.record(business, localEntry.value != null ? Event.LOCAL_HIT : Event.LOCAL_NULL_HIT);
+            return (R) localEntry.value;
         }
+        cacheMetrics.record(business, Event.LOCAL_MISS);
 
         // 2. 布隆过滤器检查
         if (!bloomFilter.mightContain(business, key)) {
             log.debug("布隆过滤器判断键[{}]不存在，直接返回null", key);
-            putToLocalCache(key, null); // 在本地缓存中记录不存在
+            cacheMetrics.record(business, Event.BLOOM_REJECT);
+            putNegative(key); // 在本地缓存中记录不存在
             return null;
         }
 
         // 3. 查询Redis缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
-        if (json != null) {
-            if (StrUtil.isNotBlank(json)) {
+        long redisStart = System.nanoTime();
+        byte[] raw = getRaw(key);
+        cacheMetrics.recordLatency(business, Stage.REDIS, redisStart);
+        if (raw != null) {
+            if (raw.length > 0) {
+                cacheMetrics.record(business, Event.REDIS_HIT);
                 try {
-                    // 检查JSON格式
-                    if (!json.startsWith("{") && !json.startsWith("[")) {
-                        log.error("Redis中键[{}]的数据格式不是有效JSON: {}", key, json);
-                        // 删除无效数据
-                        stringRedisTemplate.delete(key);
-                        // 查询数据库并重建缓存
-                        R result = dbFallback.apply(id);
-                        if (result != null) {
-                            if (useLogicalExpire) {
-                                setWithLogicalExpire(key, result, timeout, timeUnit);
-                            } else {
-                                setWithRandomExpire(key, result, timeout, timeUnit);
-                            }
-                            bloomFilter.addBloomFilter(business, key);
-                            putToLocalCache(key, result);
-                        } else {
-                            setCacheNull(key);
-                            putToLocalCache(key, null);
-                        }
-                        return result;
+                    CacheEnvelope<R> envelope = cacheCodecs.decode(key, raw, type);
+                    R result = envelope.getData();
+                    if (result == null) {
+                        return null;
                     }
-                    
-                    // JSON格式正确，解析对象
-                    R result;
-                    if (json.startsWith("[")) {
-                        // 数组类型处理
-                        if (List.class.isAssignableFrom(type)) {
-                            // 如果期望的类型是List，直接解析为List
-                            result = (R) JSONUtil.toList(new JSONArray(json), getListGenericType(type));
-                        } else {
-                            // 如果期望单个对象但数据是数组，可以尝试以下策略：
-                            // 1. 取第一个元素
-                            JSONArray array = new JSONArray(json);
-                            if (array.size() > 0) {
-                                result = JSONUtil.toBean(array.getJSONObject(0), type);
-                                log.warn("键[{}]存储了数组但期望单个对象，已提取第一个元素", key);
-                            } else {
-                                log.warn("键[{}]存储了空数组但期望单个对象，返回null", key);
-                                return null;
-                            }
-                        }
-                    } else {
-                        // 对象类型直接解析
-                        result = JSONUtil.toBean(json, type);
-                    }
-
-                    bloomFilter.addBloomFilter(business, key);
-                    putToLocalCache(key, result);
+                    singleFlightHits.increment();
+                    bloomFilter.ensureInBloomFilter(business, key);
+                    putToLocalCache(key, result, type, envelope.getExpireTime());
                     return result;
                 } catch (Exception e) {
-                    log.error("解析Redis缓存数据异常，key: {}, json: {}", key, json, e);
-                    // 删除无效数据并走数据库查询
+                    log.error("解析Redis缓存数据异常，key: {}", key, e);
+                    // 删除无效数据，查询数据库并重建缓存
                     stringRedisTemplate.delete(key);
+                    return loadWithSingleFlight(business, key, id, type, dbFallback, useLogicalExpire, timeout, timeUnit);
                 }
             }
-            putToLocalCache(key, null);
+            cacheMetrics.record(business, Event.REDIS_NULL_HIT);
+            putNegative(key);
             return null;
         }
-        // 4. 查询数据库
-        R result = dbFallback.apply(id);
+        cacheMetrics.record(business, Event.REDIS_MISS);
+        // 4. 查询数据库（同一个key的并发请求合并为一次加载）
+        return loadWithSingleFlight(business, key, id, type, dbFallback, useLogicalExpire, timeout, timeUnit);
+    }
+
+    /**
+     * 单飞加载：同一JVM内同一个key同时只有一个线程回源数据库，
+     * 其余线程等待同一个Future的结果
+     */
+    private <R, ID> R loadWithSingleFlight(String business, String key, ID id, JavaType type, Function<ID, R> dbFallback,
+                                           boolean useLogicalExpire, long timeout, TimeUnit timeUnit) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> inFlight = inFlightLoads.putIfAbsent(key, future);
+        if (inFlight != null) {
+            singleFlightWaits.increment();
+            return (R) awaitInFlightLoad(key, inFlight, id, dbFallback);
+        }
+
+        try {
+            R result = loadAndCache(business, key, id, type, dbFallback, useLogicalExpire, timeout, timeUnit);
+            future.complete(result);
+            return result;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlightLoads.remove(key, future);
+        }
+    }
+
+    private <R, ID> Object awaitInFlightLoad(String key, CompletableFuture<Object> inFlight,
+                                             ID id, Function<ID, R> dbFallback) {
+        try {
+            return inFlight.get(singleFlightWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            log.warn("等待键[{}]的并发加载超时，直接查询数据库", key);
+            return dbFallback.apply(id);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return dbFallback.apply(id);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException("加载缓存数据失败, key=" + key, cause);
+        }
+    }
+
+    /**
+     * 查询数据库并写回缓存。开启跨节点模式时，先抢占一个短租约，
+     * 只有拿到租约的节点回源，其余节点短暂轮询Redis等待结果
+     */
+    private <R, ID> R loadAndCache(String business, String key, ID id, JavaType type, Function<ID, R> dbFallback,
+                                   boolean useLogicalExpire, long timeout, TimeUnit timeUnit) {
+        if (!singleFlightDistributed) {
+            return loadFromDb(business, key, id, type, dbFallback, useLogicalExpire, timeout, timeUnit);
+        }
+
+        String leaseKey = LEASE_PREFIX + key;
+        if (distributedLock.tryLock(leaseKey, singleFlightLeaseSeconds)) {
+            try {
+                return loadFromDb(business, key, id, type, dbFallback, useLogicalExpire, timeout, timeUnit);
+            } finally {
+                distributedLock.unlock(leaseKey);
+            }
+        }
+
+        // 其他节点正在重建，轮询等待其写回Redis
+        singleFlightLeaseWaits.increment();
+        long deadline = System.currentTimeMillis() + singleFlightWaitMillis;
+        while (System.currentTimeMillis() < deadline) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(LEASE_POLL_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            byte[] raw = getRaw(key);
+            if (raw == null) {
+                continue;
+            }
+            if (raw.length == 0) {
+                putNegative(key);
+                return null;
+            }
+            try {
+                CacheEnvelope<R> envelope = cacheCodecs.decode(key, raw, type);
+                R result = envelope.getData();
+                if (result != null) {
+                    putToLocalCache(key, result, type, envelope.getExpireTime());
+                    return result;
+                }
+            } catch (Exception e) {
+                log.warn("解析其他节点重建的缓存失败，key: {}", key, e);
+            }
+            break;
+        }
+        return loadFromDb(business, key, id, type, dbFallback, useLogicalExpire, timeout, timeUnit);
+    }
+
+    private <R, ID> R loadFromDb(String business, String key, ID id, JavaType type, Function<ID, R> dbFallback,
+                                 boolean useLogicalExpire, long timeout, TimeUnit timeUnit) {
+        singleFlightLoads.increment();
+        cacheMetrics.record(business, Event.DB_LOAD);
+        long dbStart = System.nanoTime();
+        R result;
+        try {
+            result = dbFallback.apply(id);
+        } catch (RuntimeException e) {
+            cacheMetrics.record(business, Event.DB_ERROR);
+            throw e;
+        } finally {
+            cacheMetrics.recordLatency(business, Stage.DB, dbStart);
+        }
 
-        // 5. 缓存结果
+        // 缓存结果
         if (result != null) {
             // 根据策略选择缓存方式
-            if (useLogicalExpire) {
-                setWithLogicalExpire(key, result, timeout, timeUnit);
-            } else {
-                setWithRandomExpire(key, result, timeout, timeUnit);
-            }
+            boolean written = useLogicalExpire
+                    ? fillWithLogicalExpire(key, result, timeout, timeUnit, true)
+                    : fillWithRandomExpire(key, result, timeout, timeUnit, true);
             // 确保数据在布隆过滤器中
-            bloomFilter.addBloomFilter(business, key);
+            bloomFilter.ensureInBloomFilter(business, key);
+            if (!written) {
+                // 读到的数据已被更新的版本取代，不放入本地缓存
+                return result;
+            }
             // 存入本地缓存
-            putToLocalCache(key, result);
+            LocalDateTime expireTime = useLogicalExpire
+                    ? LocalDateTime.now().plusSeconds(timeUnit.toSeconds(timeout)) : null;
+            putToLocalCache(key, result, type, expireTime);
         } else {
-            // 缓存空值，防止缓存穿透
-            setCacheNull(key);
-            // 本地也缓存空值
-            putToLocalCache(key, null);
+            cacheMetrics.record(business, Event.DB_NULL);
+            // 缓存空值，防止缓存穿透，连续未命中时缓存时间逐次延长
+            long nullSeconds = setCacheNull(key);
+            // 本地也缓存空值，时间与Redis一致
+            putNegative(key, nullSeconds);
         }
-
         return result;
     }
 
     /**
-     * 获取List类型的泛型参数类型
+     * 获取单飞加载统计：缓存命中、等待合并、实际回源次数
      */
-    private Class<?> getListGenericType(Class<?> type) {
-        try {
-            // 默认使用Voucher类型（根据实际业务调整）
-            return Class.forName("com.travelshop.entity.Voucher");
-        } catch (ClassNotFoundException e) {
-            log.error("无法确定List泛型类型", e);
-            return Object.class;
+    public Map<String, Object> getSingleFlightStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("hits", singleFlightHits.sum());
+        stats.put("waits", singleFlightWaits.sum());
+        stats.put("loads", singleFlightLoads.sum());
+        stats.put("leaseWaits", singleFlightLeaseWaits.sum());
+        stats.put("inFlight", inFlightLoads.size());
+        stats.put("distributed", singleFlightDistributed);
+        stats.put("staleWritesRejected", staleWritesRejected.sum());
+        return stats;
+    }
+
+    /**
+     * 获取本地缓存统计：命中率、提前刷新和提前重建次数
+     */
+    public Map<String, Object> getLocalCacheStats() {
+        Map<String, Object> stats = new HashMap<>();
+        Map<String, Object> business = new HashMap<>();
+        localCaches.forEach((code, cache) -> {
+            Map<String, Object> cacheStats = new HashMap<>();
+            cacheStats.put("size", cache.estimatedSize());
+            cacheStats.put("hitCount", cache.stats().hitCount());
+            cacheStats.put("missCount", cache.stats().missCount());
+            cacheStats.put("hitRate", cache.stats().hitRate());
+            cacheStats.put("evictions", cache.stats().evictionCount());
+            business.put(code, cacheStats);
+        });
+        stats.put("business", business);
+        Map<String, Object> hotTierStats = new HashMap<>();
+        hotTierStats.put("size", hotTier.estimatedSize());
+        hotTierStats.put("hitRate", hotTier.stats().hitRate());
+        hotTierStats.put("evictions", hotTier.stats().evictionCount());
+        stats.put("hotTier", hotTierStats);
+        stats.put("nearCache", nearCacheTracker.getStats());
+        Map<String, Object> negativeStats = new HashMap<>();
+        negativeStats.put("size", negativeCache.estimatedSize());
+        negativeStats.put("hitRate", negativeCache.stats().hitRate());
+        negativeStats.put("evictions", negativeCache.stats().evictionCount());
+        negativeStats.put("backoffs", negativeBackoffs.sum());
+        stats.put("negative", negativeStats);
+        stats.put("refreshAhead", refreshAhead);
+        stats.put("refreshes", localRefreshes.sum());
+        stats.put("refreshRebuilds", localRefreshRebuilds.sum());
+        stats.put("executor", cacheExecutors.rebuild().getStats());
+        return stats;
+    }
+
+    /**
+     * 批量查询，缓存时间使用业务缓存策略
+     */
+    public <R, ID> Map<ID, R> queryBatch(
+            String business,
+            String keyPrefix,
+            Collection<ID> ids,
+            Class<R> type,
+            Function<Collection<ID>, Map<ID, R>> dbBatchFallback
+    ) {
+        long ttlSeconds = cachePolicyRegistry.getPolicy(business).getTtlSeconds();
+        return queryBatch(business, keyPrefix, ids, type, dbBatchFallback, ttlSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 批量查询：本地缓存 -> 布隆过滤器 -> 一次MGET -> 一次批量回源，
+     * 回源结果通过一个管道写回Redis，往返次数与ID数量无关
+     *
+     * @param dbBatchFallback 批量回源函数，参数为未命中的ID，返回ID到数据的映射，不存在的ID不放入
+     * @return 按入参顺序排列的查询结果，不存在的数据不包含在结果中
+     */
+    public <R, ID> Map<ID, R> queryBatch(
+            String business,                                  // 业务类型编码
+            String keyPrefix,                                 // 缓存键前缀
+            Collection<ID> ids,                               // 数据ID集合
+            Class<R> type,                                    // 返回类型
+            Function<Collection<ID>, Map<ID, R>> dbBatchFallback, // 批量数据库查询函数
+            long timeout,                                     // 超时时间
+            TimeUnit timeUnit                                 // 时间单位
+    ) {
+        JavaType javaType = CacheCodecs.type(type);
+        Map<ID, R> found = new HashMap<>();
+        if (ids == null || ids.isEmpty()) {
+            return new LinkedHashMap<>();
         }
+
+        // 1. 先查本地缓存，再用布隆过滤器排除不存在的数据
+        List<ID> redisMissIds = new ArrayList<>();
+        List<String> redisMissKeys = new ArrayList<>();
+        for (ID id : ids) {
+            String key = keyPrefix + id;
+            LocalEntry entry = getFromLocalCache(key);
+            if (entry != null) {
+                if (entry.value != null) {
+                    found.put(id, (R) entry.value);
+                }
+                cacheMetrics.record(business, entry.value != null ? Event.LOCAL_HIT : Event.LOCAL_NULL_HIT);
+                continue;
+            }
+            cacheMetrics.record(business, Event.LOCAL_MISS);
+            if (!bloomFilter.mightContain(business, key)) {
+                cacheMetrics.record(business, Event.BLOOM_REJECT);
+                putNegative(key);
+                continue;
+            }
+            redisMissIds.add(id);
+            redisMissKeys.add(key);
+        }
+
+        // 2. 一次MGET查询Redis
+        List<ID> dbMissIds = new ArrayList<>();
+        if (!redisMissKeys.isEmpty()) {
+            long redisStart = System.nanoTime();
+            List<byte[]> values = multiGetRaw(redisMissKeys);
+            cacheMetrics.recordLatency(business, Stage.REDIS, redisStart);
+            for (int i = 0; i < redisMissKeys.size(); i++) {
+                String key = redisMissKeys.get(i);
+                byte[] raw = values != null ? values.get(i) : null;
+                if (raw == null) {
+                    cacheMetrics.record(business, Event.REDIS_MISS);
+                    dbMissIds.add(redisMissIds.get(i));
+                    continue;
+                }
+                if (raw.length == 0) {
+                    // 空值缓存
+                    cacheMetrics.record(business, Event.REDIS_NULL_HIT);
+                    putNegative(key);
+                    continue;
+                }
+                cacheMetrics.record(business, Event.REDIS_HIT);
+                try {
+                    CacheEnvelope<R> envelope = cacheCodecs.decode(key, raw, javaType);
+                    R result = envelope.getData();
+                    if (result != null) {
+                        found.put(redisMissIds.get(i), result);
+                        // 与单个查询一致：本地缓存带上逻辑过期时间，已逻辑过期的返回旧数据并异步重建
+                        putToLocalCache(key, result, javaType, envelope.getExpireTime());
+                        if (envelope.isLogicalExpired()) {
+                            triggerLogicalRebuild(key);
+                        }
+                    }
+                } catch (Exception e) {
+                    log.error("解析Redis缓存数据异常，key: {}", key, e);
+                    dbMissIds.add(redisMissIds.get(i));
+                }
+            }
+        }
+
+        // 3. 一次批量回源，结果通过管道写回Redis
+        if (!dbMissIds.isEmpty()) {
+            singleFlightLoads.increment();
+            cacheMetrics.record(business, Event.DB_LOAD);
+            long dbStart = System.nanoTime();
+            Map<ID, R> loaded = dbBatchFallback.apply(dbMissIds);
+            cacheMetrics.recordLatency(business, Stage.DB, dbStart);
+            if (loaded == null) {
+                loaded = Collections.emptyMap();
+            }
+            Map<String, byte[]> toCache = new HashMap<>();
+            Map<String, Long> versions = new HashMap<>();
+            for (ID id : dbMissIds) {
+                String key = keyPrefix + id;
+                R result = loaded.get(id);
+                if (result != null) {
+                    found.put(id, result);
+                    putToLocalCache(key, result, javaType, null);
+                    toCache.put(key, cacheCodecs.encode(key, result, null));
+                    versions.put(key, versionEnabled ? versionOf(result) : 0L);
+                } else {
+                    putNegative(key);
+                    toCache.put(key, new byte[0]);
+                }
+            }
+            CachePolicy policy = cachePolicyRegistry.getPolicy(business);
+            Set<String> rejected = writePipelined(policy, toCache, versions, timeUnit.toSeconds(timeout));
+            toCache.forEach((key, value) -> {
+                if (rejected.contains(key)) {
+                    // Redis中已有更新版本，本地不保留旧数据
+                    deleteFromLocalCache(key);
+                } else if (value.length > 0) {
+                    bloomFilter.ensureInBloomFilter(business, key);
+                }
+            });
+            log.debug("批量回源并写回缓存，业务: {}，数量: {}", business, dbMissIds.size());
+        }
+
+        // 按入参顺序返回
+        Map<ID, R> result = new LinkedHashMap<>();
+        for (ID id : ids) {
+            R value = found.get(id);
+            if (value != null) {
+                result.put(id, value);
+            }
+        }
+        return result;
+    }
+
+    private static byte[] rawKey(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 读取原始字节，编码格式由CacheCodecs识别，空数组表示空值缓存
+     */
+    private byte[] getRaw(String key) {
+        return stringRedisTemplate.execute((RedisCallback<byte[]>) connection -> connection.get(rawKey(key)));
+    }
+
+    /**
+     * 写入原始字节
+     * @param seconds 过期时间，小于等于0表示不过期（逻辑过期）
+     */
+    private void setRaw(String key, byte[] value, long seconds) {
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+            if (seconds > 0) {
+                connection.setEx(rawKey(key), seconds, value);
+            } else {
+                connection.set(rawKey(key), value);
+            }
+            return null;
+        });
+    }
+
+    private List<byte[]> multiGetRaw(List<String> keys) {
+        byte[][] rawKeys = keys.stream().map(UnifiedCache::rawKey).toArray(byte[][]::new);
+        return stringRedisTemplate.execute((RedisCallback<List<byte[]>>) connection -> connection.mGet(rawKeys));
     }
 
     public void delete(String cacheKey) {
@@ -375,73 +1213,183 @@ public class UnifiedCache {
         deleteCache(cacheKey);
     }
 
-    public Set<String> cleanupExpiredLogicKeys(String pattern) {
-        // 获取所有匹配的键
-        Set<String> keys = stringRedisTemplate.keys(pattern);
-        Set<String> expiredKeys = new HashSet<>();
-        if (keys != null && !keys.isEmpty()) {
-            for (String key : keys) {
-                // 从 Redis 中获取缓存值
-                String json = stringRedisTemplate.opsForValue().get(key);
-                if (json != null && !json.trim().isEmpty()) {
+    /**
+     * 清理已逻辑过期的缓存
+     * 用SCAN游标分页扫描，每页一次MGET读取、只解析数据头中的过期时间、一次UNLINK批量删除。
+     * 超出时间预算后保存游标并返回，下次执行从游标处继续扫描
+     *
+     * @param pattern 匹配模式
+     * @param budgetMillis 本次执行的时间预算(毫秒)，小于等于0使用默认配置
+     * @return 本次执行的扫描结果和累计进度
+     */
+    public Map<String, Object> cleanupExpiredLogicKeys(String pattern, long budgetMillis) {
+        long budget = budgetMillis > 0 ? budgetMillis : cleanupBudgetMillis;
+        long startTime = System.currentTimeMillis();
+        String progressKey = CLEANUP_PROGRESS_PREFIX + pattern;
+
+        // 上次未扫描完则从保存的游标继续
+        Map<Object, Object> progress = stringRedisTemplate.opsForHash().entries(progressKey);
+        boolean resumed = STATUS_RUNNING.equals(progress.get("status"));
+        String cursor = resumed ? String.valueOf(progress.getOrDefault("cursor", RedisKeyScanner.START)) : RedisKeyScanner.START;
+        if (!resumed) {
+            stringRedisTemplate.delete(progressKey);
+            stringRedisTemplate.opsForHash().put(progressKey, "startTime", String.valueOf(startTime));
+        }
+
+        long scanned = 0;
+        long expired = 0;
+        long unrecognized = 0;
+        long pages = 0;
+        boolean finished = false;
+        while (System.currentTimeMillis() - startTime < budget) {
+            RedisKeyScanner.Page page = redisKeyScanner.scan(cursor, pattern, cleanupScanCount);
+            cursor = page.getCursor();
+            List<String> keys = page.getKeys();
+            pages++;
+            scanned += keys.size();
+
+            if (!keys.isEmpty()) {
+                List<byte[]> values = multiGetRaw(keys);
+                List<String> expiredKeys = new ArrayList<>();
+                LocalDateTime now = LocalDateTime.now();
+                for (int i = 0; i < keys.size(); i++) {
+                    byte[] raw = values == null ? null : values.get(i);
+                    // 已不存在、非字符串类型、空值缓存(有物理过期时间)都跳过
+                    if (raw == null || raw.length == 0) {
+                        continue;
+                    }
                     try {
-                        // 反序列化成 RedisData 对象
-                        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-                        if (redisData != null && redisData.getExpireTime().isBefore(LocalDateTime.now())) {
-                            // 已经过期则删除缓存键并记录
-                            stringRedisTemplate.delete(key);
-                            expiredKeys.add(key);
+                        LocalDateTime expireTime = cacheCodecs.readExpireTime(keys.get(i), raw);
+                        if (expireTime != null && expireTime.isBefore(now)) {
+                            expiredKeys.add(keys.get(i));
                         }
                     } catch (Exception e) {
-                        log.error("解析缓存键 {} 的内容失败", key, e);
+                        // 锁、租约等非缓存值的key
+                        unrecognized++;
                     }
-                } else {
-                    // 空值或空字符串直接删除
-                    stringRedisTemplate.delete(key);
-                    expiredKeys.add(key);
                 }
+                if (!expiredKeys.isEmpty()) {
+                    byte[][] rawKeys = expiredKeys.stream().map(UnifiedCache::rawKey).toArray(byte[][]::new);
+                    // UNLINK在后台线程释放内存，不阻塞Redis主线程
+                    stringRedisTemplate.execute((RedisCallback<Long>) connection -> connection.unlink(rawKeys));
+                    expired += expiredKeys.size();
+                }
+            }
+            if (page.isFinished()) {
+                finished = true;
+                break;
             }
         }
-        return expiredKeys;
-    }
 
-    /**
-     * 热点数据预热方法
-     * 支持按业务类型预热不同类型的热点数据，并支持分片处理
-     *
-     * @param businessType 业务类型，如"shop","ticket","voucher","blog"等
-     * @param shardIndex 当前分片索引
-     * @param shardTotal 总分片数
-     * @return 预热的数据条数
-     */
-    public int prewarmHotData(String businessType, int shardIndex, int shardTotal) {
-        return 0;
+        // 保存游标和累计进度
+        Map<String, String> update = new HashMap<>();
+        update.put("status", finished ? STATUS_DONE : STATUS_RUNNING);
+        update.put("cursor", finished ? "0" : cursor);
+        update.put("updateTime", String.valueOf(System.currentTimeMillis()));
+        stringRedisTemplate.opsForHash().putAll(progressKey, update);
+        stringRedisTemplate.opsForHash().increment(progressKey, "scanned", scanned);
+        stringRedisTemplate.opsForHash().increment(progressKey, "expired", expired);
+        stringRedisTemplate.opsForHash().increment(progressKey, "runs", 1);
+        stringRedisTemplate.expire(progressKey, CLEANUP_PROGRESS_TTL_HOURS, TimeUnit.HOURS);
+
+        long costMillis = Math.max(System.currentTimeMillis() - startTime, 1);
+        Map<String, Object> result = new HashMap<>();
+        result.put("pattern", pattern);
+        result.put("resumed", resumed);
+        result.put("finished", finished);
+        result.put("cursor", finished ? "0" : cursor);
+        result.put("pages", pages);
+        result.put("scanned", scanned);
+        result.put("expired", expired);
+        result.put("unrecognized", unrecognized);
+        result.put("costMillis", costMillis);
+        result.put("keysPerSecond", scanned * 1000 / costMillis);
+        result.put("progress", stringRedisTemplate.opsForHash().entries(progressKey));
+        log.info("清理逻辑过期缓存, pattern={}, 扫描{}个, 清理{}个, 耗时{}ms, {}",
+                pattern, scanned, expired, costMillis, finished ? "已扫描完成" : "超出时间预算，下次继续");
+        return result;
     }
 
     /**
-     * 预热热门商铺数据
+     * 获取清理任务的累计进度
      */
-    private int prewarmHotShops(int shardIndex, int shardTotal) {
-        return 0;
+    public Map<Object, Object> getCleanupProgress(String pattern) {
+        return stringRedisTemplate.opsForHash().entries(CLEANUP_PROGRESS_PREFIX + pattern);
     }
 
     /**
-     * 预热热门优惠券数据
+     * 预热写入：一个管道批量写入Redis并加入布隆过滤器，预热不是数据变更，不通知其他节点
+     *
+     * @param business 业务编码，决定缓存策略和布隆过滤器
+     * @param values 缓存键到数据的映射
+     * @param useLogicalExpire 是否使用逻辑过期
+     * @param ttlSeconds 缓存时间(秒)
+     * @return 实际写入的条数，已有更新版本的key不计入
      */
-    private int prewarmHotVouchers(int shardIndex, int shardTotal) {
-        // 实际业务中的热门优惠券预热逻辑
-        // ...
-        return 0;
+    public int prewarmFill(String business, Map<String, ?> values, boolean useLogicalExpire, long ttlSeconds) {
+        if (values.isEmpty()) {
+            return 0;
+        }
+        LocalDateTime expireTime = useLogicalExpire ? LocalDateTime.now().plusSeconds(ttlSeconds) : null;
+        Map<String, byte[]> toCache = new HashMap<>();
+        Map<String, Long> versions = new HashMap<>();
+        values.forEach((key, value) -> {
+            toCache.put(key, cacheCodecs.encode(key, value, expireTime));
+            versions.put(key, versionEnabled ? versionOf(value) : 0L);
+        });
+        CachePolicy policy = cachePolicyRegistry.getPolicy(business);
+        Set<String> rejected = writePipelined(policy, toCache, versions, useLogicalExpire ? -1 : ttlSeconds);
+        int written = 0;
+        for (String key : toCache.keySet()) {
+            if (rejected.contains(key)) {
+                continue;
+            }
+            written++;
+            BusinessType businessType = BusinessType.getByKey(key);
+            if (businessType != null) {
+                bloomFilter.ensureInBloomFilter(businessType.getCode(), key);
+            }
+        }
+        return written;
     }
 
     /**
-     * 预热热门博客数据
+     * 通过一个管道批量写入，空数组写为空值缓存，带版本的数据使用版本化写入
+     * @param seconds 缓存时间，小于等于0表示不过期(逻辑过期)
+     * @return 因版本落后被拒绝写入的key
      */
-    private int prewarmHotBlogs(int shardIndex, int shardTotal) {
-        // 实际业务中的热门博客预热逻辑
-        // ...
-        return 0;
+    private Set<String> writePipelined(CachePolicy policy, Map<String, byte[]> toCache, Map<String, Long> versions, long seconds) {
+        List<String> orderedKeys = new ArrayList<>(toCache.keySet());
+        List<Object> replies = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String key : orderedKeys) {
+                byte[] value = toCache.get(key);
+                long version = versions.getOrDefault(key, 0L);
+                // 添加随机偏移量，防止缓存雪崩
+                long ttl = policy.withJitter(seconds);
+                if (value.length == 0) {
+                    connection.eval(rawKey(NEGATIVE_SET_SCRIPT.getScriptAsString()), ReturnType.INTEGER, 2,
+                            negativeSetArgs(key, policy.getNullTtlSeconds()));
+                } else if (version > 0) {
+                    // 管道内不能处理NOSCRIPT，直接发送脚本内容
+                    connection.eval(rawKey(VERSIONED_SET_SCRIPT.getScriptAsString()), ReturnType.INTEGER, 2,
+                            versionedSetArgs(key, value, ttl, version));
+                } else if (ttl > 0) {
+                    connection.setEx(rawKey(key), ttl, value);
+                } else {
+                    connection.set(rawKey(key), value);
+                }
+            }
+            return null;
+        });
+        Set<String> rejected = new HashSet<>();
+        for (int i = 0; i < orderedKeys.size(); i++) {
+            Object reply = i < replies.size() ? replies.get(i) : null;
+            // 空值缓存的返回值是缓存时间，不参与版本判断
+            if (toCache.get(orderedKeys.get(i)).length > 0 && reply instanceof Long && (Long) reply == 0L) {
+                staleWritesRejected.increment();
+                rejected.add(orderedKeys.get(i));
+            }
+        }
+        return rejected;
     }
 }
-
-
@@ -0,0 +1,156 @@
+package com.travelshop.utils.codec;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.type.TypeFactory;
+import com.travelshop.enums.BusinessType;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.lang.reflect.Type;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 缓存编解码器注册表
+ * 写入使用 cache.codec 指定的编解码器，读取根据数据头自动识别，
+ * 切换编解码器后旧格式的缓存仍可读取，随过期或重建逐步替换
+ */
+@Slf4j
+@Component
+public class CacheCodecs {
+
+    private static final TypeFactory TYPE_FACTORY = TypeFactory.defaultInstance();
+
+    private final List<CacheValueCodec> codecs = Arrays.asList(new SmileCacheCodec(), new JsonCacheCodec());
+
+    // 写入缓存使用的编解码器：json / smile
+    @Value("${cache.codec:json}")
+    private String codecName;
+
+    private CacheValueCodec writer;
+
+    // 按业务统计的编解码次数、耗时、字节数
+    private final Map<String, CodecStats> stats = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        writer = codecs.stream()
+                .filter(codec -> codec.name().equalsIgnoreCase(codecName))
+                .findFirst()
+                .orElseGet(() -> {
+                    log.warn("未知的缓存编解码器[{}]，使用json", codecName);
+                    return new JsonCacheCodec();
+                });
+        log.info("缓存编解码器初始化完成，写入格式：{}", writer.name());
+    }
+
+    public static JavaType type(Type type) {
+        return TYPE_FACTORY.constructType(type);
+    }
+
+    /**
+     * 编码缓存值
+     * @param key 缓存键，用于按业务统计
+     * @param expireTime 逻辑过期时间，物理过期传null
+     */
+    public byte[] encode(String key, Object data, LocalDateTime expireTime) {
+        long start = System.nanoTime();
+        byte[] raw = writer.encode(data, expireTime);
+        CodecStats codecStats = statsOf(key);
+        codecStats.encodeCount.increment();
+        codecStats.encodeNanos.add(System.nanoTime() - start);
+        codecStats.encodeBytes.add(raw.length);
+        return raw;
+    }
+
+    /**
+     * 解码缓存值，根据数据头选择编解码器
+     */
+    public <T> CacheEnvelope<T> decode(String key, byte[] raw, JavaType type) {
+        long start = System.nanoTime();
+        CacheValueCodec codec = codecOf(raw);
+        if (codec == null) {
+            throw new IllegalArgumentException("无法识别的缓存数据格式, key=" + key);
+        }
+        CacheEnvelope<T> envelope = codec.decode(raw, type);
+        CodecStats codecStats = statsOf(key);
+        codecStats.decodeCount.increment();
+        codecStats.decodeNanos.add(System.nanoTime() - start);
+        codecStats.decodeBytes.add(raw.length);
+        return envelope;
+    }
+
+    /**
+     * 只读取逻辑过期时间，物理过期的缓存返回null
+     */
+    public LocalDateTime readExpireTime(String key, byte[] raw) {
+        CacheValueCodec codec = codecOf(raw);
+        if (codec == null) {
+            throw new IllegalArgumentException("无法识别的缓存数据格式, key=" + key);
+        }
+        return codec.readExpireTime(raw);
+    }
+
+    private CacheValueCodec codecOf(byte[] raw) {
+        for (CacheValueCodec codec : codecs) {
+            if (codec.supports(raw)) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    private CodecStats statsOf(String key) {
+        return stats.computeIfAbsent(businessOf(key), k -> new CodecStats());
+    }
+
+    private String businessOf(String key) {
+        BusinessType businessType = BusinessType.getByKey(key);
+        if (businessType != null) {
+            return businessType.getCode();
+        }
+        int index = key.lastIndexOf(':');
+        return index > 0 ? key.substring(0, index) : key;
+    }
+
+    /**
+     * 获取编解码统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("writer", writer.name());
+        Map<String, Object> business = new HashMap<>();
+        stats.forEach((code, codecStats) -> business.put(code, codecStats.toMap()));
+        result.put("business", business);
+        return result;
+    }
+
+    private static class CodecStats {
+        private final LongAdder encodeCount = new LongAdder();
+        private final LongAdder encodeNanos = new LongAdder();
+        private final LongAdder encodeBytes = new LongAdder();
+        private final LongAdder decodeCount = new LongAdder();
+        private final LongAdder decodeNanos = new LongAdder();
+        private final LongAdder decodeBytes = new LongAdder();
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new HashMap<>();
+            long encodes = encodeCount.sum();
+            long decodes = decodeCount.sum();
+            map.put("encodeCount", encodes);
+            map.put("decodeCount", decodes);
+            map.put("avgEncodeMicros", encodes == 0 ? 0 : encodeNanos.sum() / encodes / 1000.0);
+            map.put("avgDecodeMicros", decodes == 0 ? 0 : decodeNanos.sum() / decodes / 1000.0);
+            map.put("avgEncodeBytes", encodes == 0 ? 0 : encodeBytes.sum() / encodes);
+            map.put("avgDecodeBytes", decodes == 0 ? 0 : decodeBytes.sum() / decodes);
+            return map;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.travelshop.utils.codec;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * 缓存值信封
+ * 物理过期的缓存expireTime为null，逻辑过期的缓存携带逻辑过期时间
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CacheEnvelope<T> {
+    private T data;
+    private LocalDateTime expireTime;
+
+    public boolean isLogicalExpired() {
+        return expireTime != null && expireTime.isBefore(LocalDateTime.now());
+    }
+}
@@ -0,0 +1,42 @@
+package com.travelshop.utils.codec;
+
+import com.fasterxml.jackson.databind.JavaType;
+
+import java.time.LocalDateTime;
+
+/**
+ * 缓存值编解码器
+ * 编码结果直接写入Redis，解码时一次完成逻辑过期信封和业务数据的解析
+ */
+public interface CacheValueCodec {
+
+    /**
+     * 编解码器名称，对应配置项 cache.codec
+     */
+    String name();
+
+    /**
+     * 根据数据头判断是否由当前编解码器写入
+     */
+    boolean supports(byte[] raw);
+
+    /**
+     * 编码
+     * @param data 业务数据
+     * @param expireTime 逻辑过期时间，物理过期的缓存传null
+     */
+    byte[] encode(Object data, LocalDateTime expireTime);
+
+    /**
+     * 解码
+     * @param raw Redis中的原始数据
+     * @param type 业务数据类型，支持泛型
+     */
+    <T> CacheEnvelope<T> decode(byte[] raw, JavaType type);
+
+    /**
+     * 只读取逻辑过期时间，不解析业务数据，用于批量判断是否过期
+     * @return 逻辑过期时间，物理过期的缓存返回null
+     */
+    LocalDateTime readExpireTime(byte[] raw);
+}
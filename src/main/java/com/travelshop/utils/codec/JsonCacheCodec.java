@@ -0,0 +1,89 @@
+package com.travelshop.utils.codec;
+
+import cn.hutool.json.JSONArray;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.fasterxml.jackson.databind.JavaType;
+import com.travelshop.utils.RedisData;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+
+/**
+ * JSON编解码器，兼容旧版本写入的缓存
+ * 物理过期的缓存直接存储业务数据JSON，逻辑过期的缓存存储RedisData的JSON
+ */
+@Slf4j
+public class JsonCacheCodec implements CacheValueCodec {
+
+    public static final String NAME = "json";
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public boolean supports(byte[] raw) {
+        return raw.length > 0 && (raw[0] == '{' || raw[0] == '[');
+    }
+
+    @Override
+    public byte[] encode(Object data, LocalDateTime expireTime) {
+        if (expireTime == null) {
+            return JSONUtil.toJsonStr(data).getBytes(StandardCharsets.UTF_8);
+        }
+        RedisData redisData = new RedisData();
+        redisData.setData(data);
+        redisData.setExpireTime(expireTime);
+        return JSONUtil.toJsonStr(redisData).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> CacheEnvelope<T> decode(byte[] raw, JavaType type) {
+        String json = new String(raw, StandardCharsets.UTF_8);
+        if (json.startsWith("[")) {
+            return new CacheEnvelope<>((T) convert(new JSONArray(json), type), null);
+        }
+        JSONObject object = JSONUtil.parseObj(json);
+        // 逻辑过期的缓存
+        if (object.containsKey("expireTime") && object.containsKey("data")) {
+            RedisData redisData = object.toBean(RedisData.class);
+            return new CacheEnvelope<>((T) convert(object.get("data"), type), redisData.getExpireTime());
+        }
+        return new CacheEnvelope<>((T) convert(object, type), null);
+    }
+
+    @Override
+    public LocalDateTime readExpireTime(byte[] raw) {
+        if (raw[0] == '[') {
+            return null;
+        }
+        JSONObject object = JSONUtil.parseObj(new String(raw, StandardCharsets.UTF_8));
+        if (object.containsKey("expireTime") && object.containsKey("data")) {
+            return object.get("expireTime", LocalDateTime.class);
+        }
+        return null;
+    }
+
+    private Object convert(Object value, JavaType type) {
+        if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            if (type.isCollectionLikeType()) {
+                return JSONUtil.toList(array, type.getContentType().getRawClass());
+            }
+            // 期望单个对象但数据是数组，取第一个元素
+            if (array.isEmpty()) {
+                return null;
+            }
+            log.warn("缓存存储了数组但期望单个对象[{}]，已提取第一个元素", type);
+            return JSONUtil.toBean(array.getJSONObject(0), type.getRawClass());
+        }
+        if (value instanceof JSONObject) {
+            return JSONUtil.toBean((JSONObject) value, type.getRawClass());
+        }
+        return value;
+    }
+}
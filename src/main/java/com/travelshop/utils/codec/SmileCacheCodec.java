@@ -0,0 +1,90 @@
+package com.travelshop.utils.codec;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * Smile二进制编解码器
+ * 数据格式：魔数(1字节) + 版本(1字节) + 逻辑过期时间毫秒(8字节，-1表示无) + Smile数据
+ * 逻辑过期信封和业务数据一次解析完成，泛型类型由JavaType描述
+ */
+public class SmileCacheCodec implements CacheValueCodec {
+
+    public static final String NAME = "smile";
+    // 魔数，不会与JSON的 '{' '[' 冲突
+    private static final byte MAGIC = (byte) 0xCB;
+    private static final byte VERSION = 1;
+    private static final int HEADER_LENGTH = 2 + Long.BYTES;
+    private static final long NO_EXPIRE = -1L;
+
+    private final ObjectMapper mapper = new ObjectMapper(new SmileFactory())
+            .registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public boolean supports(byte[] raw) {
+        return raw.length >= HEADER_LENGTH && raw[0] == MAGIC;
+    }
+
+    @Override
+    public byte[] encode(Object data, LocalDateTime expireTime) {
+        try {
+            byte[] payload = mapper.writeValueAsBytes(data);
+            long expireMillis = expireTime != null
+                    ? expireTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()
+                    : NO_EXPIRE;
+            return ByteBuffer.allocate(HEADER_LENGTH + payload.length)
+                    .put(MAGIC)
+                    .put(VERSION)
+                    .putLong(expireMillis)
+                    .put(payload)
+                    .array();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Smile编码失败", e);
+        }
+    }
+
+    @Override
+    public <T> CacheEnvelope<T> decode(byte[] raw, JavaType type) {
+        ByteBuffer buffer = ByteBuffer.wrap(raw);
+        buffer.get();
+        byte version = buffer.get();
+        if (version != VERSION) {
+            throw new IllegalStateException("不支持的缓存数据版本: " + version);
+        }
+        long expireMillis = buffer.getLong();
+        try {
+            T data = mapper.readValue(raw, HEADER_LENGTH, raw.length - HEADER_LENGTH, type);
+            LocalDateTime expireTime = expireMillis == NO_EXPIRE ? null
+                    : LocalDateTime.ofInstant(Instant.ofEpochMilli(expireMillis), ZoneId.systemDefault());
+            return new CacheEnvelope<>(data, expireTime);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Smile解码失败", e);
+        }
+    }
+
+    @Override
+    public LocalDateTime readExpireTime(byte[] raw) {
+        // 过期时间在固定位置的数据头中，无需解析Smile数据
+        long expireMillis = ByteBuffer.wrap(raw, 2, Long.BYTES).getLong();
+        return expireMillis == NO_EXPIRE ? null
+                : LocalDateTime.ofInstant(Instant.ofEpochMilli(expireMillis), ZoneId.systemDefault());
+    }
+}
@@ -0,0 +1,31 @@
+-- 计数布隆过滤器添加元素，每次调用都累加计数，同一元素只能在插入时调用一次
+-- (按是否已存在跳过计数会让误判的元素没有计数，删除共享计数器的元素后漏判)
+-- KEYS[1]: 计数器key(BITFIELD u4)
+-- KEYS[2]: 元数据key(hash: size, hashes, count)
+-- KEYS[3]: 影子计数器key
+-- KEYS[4]: 影子元数据key，存在表示正在重建
+-- ARGV[1], ARGV[2]: 元素的两个哈希值
+-- 返回: 1 已添加, -1 过滤器未初始化
+
+local h1 = tonumber(ARGV[1])
+local h2 = tonumber(ARGV[2])
+
+local function add(counterKey, metaKey)
+    local meta = redis.call('hmget', metaKey, 'size', 'hashes')
+    if not meta[1] then
+        return -1
+    end
+    local size = tonumber(meta[1])
+    local hashes = tonumber(meta[2])
+    for i = 0, hashes - 1 do
+        local offset = (h1 + i * h2) % size
+        redis.call('bitfield', counterKey, 'overflow', 'sat', 'incrby', 'u4', '#' .. offset, 1)
+    end
+    redis.call('hincrby', metaKey, 'count', 1)
+    return 1
+end
+
+local result = add(KEYS[1], KEYS[2])
+-- 重建期间同时写入影子过滤器，任何节点的新增都不会在切换时丢失
+add(KEYS[3], KEYS[4])
+return result
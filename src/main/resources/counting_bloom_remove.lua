@@ -0,0 +1,46 @@
+-- 计数布隆过滤器删除元素
+-- KEYS[1]: 计数器key(BITFIELD u4)
+-- KEYS[2]: 元数据key(hash: size, hashes, count)
+-- KEYS[3]: 影子计数器key
+-- KEYS[4]: 影子元数据key，存在表示正在重建
+-- ARGV[1], ARGV[2]: 元素的两个哈希值
+-- 返回: 1 删除成功, 0 元素不存在, -1 过滤器未初始化
+
+local h1 = tonumber(ARGV[1])
+local h2 = tonumber(ARGV[2])
+
+local function remove(counterKey, metaKey)
+    local meta = redis.call('hmget', metaKey, 'size', 'hashes')
+    if not meta[1] then
+        return -1
+    end
+    local size = tonumber(meta[1])
+    local hashes = tonumber(meta[2])
+
+    local offsets = {}
+    local values = {}
+    for i = 0, hashes - 1 do
+        local offset = (h1 + i * h2) % size
+        local value = redis.call('bitfield', counterKey, 'get', 'u4', '#' .. offset)[1]
+        -- 任一计数器为0说明元素不存在
+        if value == 0 then
+            return 0
+        end
+        offsets[i + 1] = offset
+        values[i + 1] = value
+    end
+
+    for i = 1, #offsets do
+        -- 饱和的计数器保持不变，只会多误判而不会漏判
+        if values[i] < 15 then
+            redis.call('bitfield', counterKey, 'overflow', 'sat', 'incrby', 'u4', '#' .. offsets[i], -1)
+        end
+    end
+    redis.call('hincrby', metaKey, 'count', -1)
+    return 1
+end
+
+local result = remove(KEYS[1], KEYS[2])
+-- 重建期间同时从影子过滤器删除，任何节点的删除都不会在切换时丢失
+remove(KEYS[3], KEYS[4])
+return result
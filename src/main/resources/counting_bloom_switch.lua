@@ -0,0 +1,22 @@
+-- 影子布隆过滤器原子切换为正式过滤器
+-- 重建期间的新增/删除已由添加、删除脚本同时写入影子过滤器，切换后影子元数据不再存在，双写随之停止
+-- KEYS[1]: 影子计数器key
+-- KEYS[2]: 影子元数据key
+-- KEYS[3]: 正式计数器key
+-- KEYS[4]: 正式元数据key
+-- 返回: 1 切换成功, 0 影子过滤器不存在
+
+if redis.call('exists', KEYS[2]) == 0 then
+    return 0
+end
+
+-- 没有任何元素时影子计数器key不存在，直接清空正式计数器
+if redis.call('exists', KEYS[1]) == 1 then
+    redis.call('rename', KEYS[1], KEYS[3])
+else
+    redis.call('del', KEYS[3])
+end
+redis.call('rename', KEYS[2], KEYS[4])
+-- 影子元数据带有过期时间(重建节点宕机时停止双写)，切换后改为永久
+redis.call('persist', KEYS[4])
+return 1
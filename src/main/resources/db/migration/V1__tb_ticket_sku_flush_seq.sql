@@ -0,0 +1,10 @@
+-- 门票库存写回：记录每个SKU已应用的最后一条扣减记录序号(Stream ID换算)，崩溃后重放时跳过已应用的记录
+-- 可重复执行，字段已存在时不做修改
+SET @column_exists := (SELECT COUNT(*) FROM information_schema.COLUMNS
+                       WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'tb_ticket_sku' AND COLUMN_NAME = 'flush_seq');
+SET @ddl := IF(@column_exists = 0,
+               'ALTER TABLE tb_ticket_sku ADD COLUMN flush_seq BIGINT NOT NULL DEFAULT 0 COMMENT ''已写回的最后一条库存扣减记录序号''',
+               'SELECT 1');
+PREPARE stmt FROM @ddl;
+EXECUTE stmt;
+DEALLOCATE PREPARE stmt;
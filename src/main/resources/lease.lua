@@ -0,0 +1,16 @@
+-- 获取或续期租约
+-- KEYS[1]: 租约key
+-- ARGV[1]: 持有者标识
+-- ARGV[2]: 租约时长(毫秒)
+-- 返回值: 1 持有租约; 0 租约被其他持有者占用
+
+local owner = redis.call('get', KEYS[1])
+if not owner then
+    redis.call('set', KEYS[1], ARGV[1], 'PX', ARGV[2])
+    return 1
+end
+if owner == ARGV[1] then
+    redis.call('pexpire', KEYS[1], ARGV[2])
+    return 1
+end
+return 0
@@ -0,0 +1,15 @@
+-- 写入空值缓存，缓存时间随连续未命中次数指数增长
+-- KEYS[1]: 缓存key
+-- KEYS[2]: 未命中计数key
+-- ARGV[1]: 首次未命中的缓存时间(秒)
+-- ARGV[2]: 最长缓存时间(秒)
+-- 返回: 本次空值缓存时间(秒)
+
+local misses = redis.call('incr', KEYS[2])
+local maxTtl = tonumber(ARGV[2])
+local ttl = math.min(tonumber(ARGV[1]) * 2 ^ math.min(misses - 1, 30), maxTtl)
+ttl = math.max(math.floor(ttl), 1)
+redis.call('set', KEYS[1], '', 'EX', ttl)
+-- 计数保留到最长缓存时间的两倍，长时间没有未命中后重新从首次缓存时间开始
+redis.call('expire', KEYS[2], maxTtl * 2)
+return ttl
@@ -0,0 +1,12 @@
+-- 写入一条库存预留记录，释放失败写回时同时删除释放记录
+-- KEYS[1]: 过期时间索引(ZSET)，成员为预留记录，分数为过期时间戳(毫秒)
+-- KEYS[2]: 预留数量(HASH)，字段为预留记录
+-- KEYS[3]: 释放记录(ZSET)
+-- ARGV[1]: 预留记录(订单ID:规格ID)
+-- ARGV[2]: 预留数量
+-- ARGV[3]: 过期时间戳(毫秒)
+
+redis.call('hincrby', KEYS[2], ARGV[1], ARGV[2])
+redis.call('zadd', KEYS[1], ARGV[3], ARGV[1])
+redis.call('zrem', KEYS[3], ARGV[1])
+return 1
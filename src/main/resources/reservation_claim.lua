@@ -0,0 +1,24 @@
+-- 认领指定的库存预留记录(支付确认或取消订单时)
+-- 已被过期释放的记录返回数量0，既没有预留也没有释放记录的不返回
+-- 释放记录不删除，支付确认回滚后重试仍能识别为已过期释放
+-- KEYS[1]: 过期时间索引(ZSET)
+-- KEYS[2]: 预留数量(HASH)
+-- KEYS[3]: 释放记录(ZSET)
+-- ARGV: 预留记录列表
+-- 返回: {记录1, 数量1, 记录2, 数量2, ...}
+
+local reply = {}
+for _, member in ipairs(ARGV) do
+    if redis.call('zrem', KEYS[1], member) == 1 then
+        local count = redis.call('hget', KEYS[2], member)
+        redis.call('hdel', KEYS[2], member)
+        if count then
+            reply[#reply + 1] = member
+            reply[#reply + 1] = count
+        end
+    elseif redis.call('zscore', KEYS[3], member) then
+        reply[#reply + 1] = member
+        reply[#reply + 1] = '0'
+    end
+end
+return reply
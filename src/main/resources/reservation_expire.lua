@@ -0,0 +1,24 @@
+-- 取出一批已过期的库存预留记录，取出即删除，多个节点并发执行时每条记录只会被一个节点取到
+-- 取出的记录同时写入释放记录，支付确认和取消订单据此区分"已过期释放"和"没有预留"
+-- KEYS[1]: 过期时间索引(ZSET)
+-- KEYS[2]: 预留数量(HASH)
+-- KEYS[3]: 释放记录(ZSET)，分数为释放时间戳(毫秒)
+-- ARGV[1]: 当前时间戳(毫秒)
+-- ARGV[2]: 每批最多取出的数量
+-- ARGV[3]: 释放记录保留的截止时间戳(毫秒)，更早的释放记录删除
+-- 返回: {记录1, 数量1, 记录2, 数量2, ...}
+
+local members = redis.call('zrangebyscore', KEYS[1], '-inf', ARGV[1], 'limit', 0, tonumber(ARGV[2]))
+local reply = {}
+for _, member in ipairs(members) do
+    redis.call('zrem', KEYS[1], member)
+    local count = redis.call('hget', KEYS[2], member)
+    redis.call('hdel', KEYS[2], member)
+    if count then
+        redis.call('zadd', KEYS[3], ARGV[1], member)
+        reply[#reply + 1] = member
+        reply[#reply + 1] = count
+    end
+end
+redis.call('zremrangebyscore', KEYS[3], '-inf', '(' .. ARGV[3])
+return reply
@@ -16,9 +16,17 @@ local stockKey = 'seckill:stock:' .. voucherId
 --订单key
 local orderKey = 'seckill:order:' .. voucherId
 
+--下单结果key
+local resultKey = 'seckill:result:' .. id
+
+--库存是否已加载
+local stock = tonumber(redis.call('get', stockKey))
+if (stock == nil) then
+    return 3
+end
 --库存是否充足
 --库存不足
-if (tonumber(redis.call('get', stockKey)) <= 0) then
+if (stock <= 0) then
     return 1
 end
 
@@ -32,6 +40,9 @@ end
 redis.call('incrby',stockKey,-1)
 --下单（保存用户）
 redis.call('sadd',orderKey,userId)
+--记录下单结果，订单写入数据库后由消费者更新
+redis.call('hset', resultKey, 'status', 'PENDING', 'userId', userId, 'voucherId', voucherId)
+redis.call('expire', resultKey, 86400)
 --发送消息
 redis.call('xadd','stream.orders','*','userId',userId,'voucherId',voucherId,'id',id)
 return 0
@@ -0,0 +1,10 @@
+-- 退回从分段扣减的库存，分段已被合并删除时不重建分段key，返回0由调用方退回单key
+-- KEYS[1]: 分段库存key
+-- ARGV[1]: 退回数量
+-- 返回: 1 已退回分段; 0 分段不存在
+
+if redis.call('exists', KEYS[1]) == 0 then
+    return 0
+end
+redis.call('incrby', KEYS[1], ARGV[1])
+return 1
@@ -0,0 +1,15 @@
+-- 从一个库存分段扣减，分段库存不足时扣减该分段的全部剩余库存，由调用方向其他分段补足
+-- KEYS[1]: 分段库存key
+-- ARGV[1]: 需要扣减的数量
+-- 返回: {实际扣减数量, 扣减后剩余库存}; 库存未加载返回 {-3, 0}
+
+local stock = redis.call('get', KEYS[1])
+if not stock then
+    return {-3, 0}
+end
+stock = tonumber(stock)
+local taken = math.min(stock, tonumber(ARGV[1]))
+if taken <= 0 then
+    return {0, stock}
+end
+return {taken, redis.call('decrby', KEYS[1], taken)}
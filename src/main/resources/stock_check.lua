@@ -1,12 +1,20 @@
 -- 库存检查和预减的Lua脚本
 -- KEYS[1]: 库存key
 -- ARGV[1]: 要扣减的数量
+-- 返回值: 剩余库存; -1 已售罄; -2 库存不足以扣减本次数量; -3 库存未加载
 
 local stock = redis.call('get', KEYS[1])
-if not stock or tonumber(stock) < tonumber(ARGV[1]) then
-    -- 库存不足
+if not stock then
+    return -3
+end
+if tonumber(stock) <= 0 then
+    -- 已售罄
     return -1
 end
+if tonumber(stock) < tonumber(ARGV[1]) then
+    -- 库存不足
+    return -2
+end
 
 -- 库存充足，减库存
 redis.call('decrby', KEYS[1], ARGV[1])
@@ -0,0 +1,9 @@
+-- 记录一次库存预扣，同时累加该SKU未写回的扣减数量
+-- KEYS[1]: 扣减记录Stream
+-- KEYS[2]: 未写回数量(hash，field为skuId)
+-- ARGV[1]: skuId
+-- ARGV[2]: 扣减数量
+-- 返回: 该SKU未写回的扣减数量
+
+redis.call('xadd', KEYS[1], '*', 'skuId', ARGV[1], 'count', ARGV[2])
+return redis.call('hincrby', KEYS[2], ARGV[1], ARGV[2])
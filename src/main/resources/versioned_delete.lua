@@ -0,0 +1,21 @@
+-- 删除缓存并保留版本下限，防止并发的旧数据重新写回
+-- KEYS[1]: 缓存key
+-- KEYS[2]: 版本key
+-- ARGV[1]: 变更后的版本号，0表示未知
+-- ARGV[2]: 版本key保留时间(秒)
+-- 返回: 删除的缓存key数量
+
+local deleted = redis.call('del', KEYS[1])
+local version = tonumber(ARGV[1])
+if version > 0 then
+    -- 已知新版本：只有严格低于新版本的写入被拒绝，新版本本身(含同一秒内的回填)可以写入
+    local currentVersion = tonumber(redis.call('hget', KEYS[2], 'v'))
+    if currentVersion == nil or version > currentVersion then
+        redis.call('hset', KEYS[2], 'v', ARGV[1])
+    end
+end
+-- 未知新版本时不设置下限，避免把当前版本的回填也拒绝掉导致持续穿透到数据库
+if redis.call('exists', KEYS[2]) == 1 then
+    redis.call('expire', KEYS[2], ARGV[2])
+end
+return deleted
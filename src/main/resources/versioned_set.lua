@@ -0,0 +1,25 @@
+-- 带版本号的缓存写入，版本号只能前进
+-- KEYS[1]: 缓存key
+-- KEYS[2]: 版本key(hash: v 当前版本)
+-- ARGV[1]: 缓存值
+-- ARGV[2]: 版本号
+-- ARGV[3]: 缓存过期时间(秒)，小于等于0表示不过期(逻辑过期)
+-- ARGV[4]: 版本key过期时间(秒)
+-- 返回: 1 写入成功, 0 版本落后拒绝写入
+
+local version = tonumber(ARGV[2])
+local currentVersion = tonumber(redis.call('hget', KEYS[2], 'v'))
+-- 只拒绝严格更旧的版本，同版本的回填可以写入
+if currentVersion and version < currentVersion then
+    return 0
+end
+
+local ttl = tonumber(ARGV[3])
+if ttl > 0 then
+    redis.call('set', KEYS[1], ARGV[1], 'EX', ttl)
+else
+    redis.call('set', KEYS[1], ARGV[1])
+end
+redis.call('hset', KEYS[2], 'v', ARGV[2])
+redis.call('expire', KEYS[2], ARGV[4])
+return 1
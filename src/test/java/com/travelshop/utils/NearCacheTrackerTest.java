@@ -0,0 +1,190 @@
+package com.travelshop.utils;
+
+import io.lettuce.core.KillArgs;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.sync.RedisCommands;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * NearCacheTracker 客户端缓存跟踪测试
+ * 需要本地 redis-server(6.0及以上)，地址可用 REDIS_TEST_HOST / REDIS_TEST_PORT 指定，
+ * 默认使用 15 号库(REDIS_TEST_DATABASE)，测试会清空该库。连接不上时跳过
+ */
+class NearCacheTrackerTest {
+
+    private static final String HOST = System.getenv().getOrDefault("REDIS_TEST_HOST", "127.0.0.1");
+    private static final int PORT = Integer.parseInt(System.getenv().getOrDefault("REDIS_TEST_PORT", "6379"));
+    private static final int DATABASE = Integer.parseInt(System.getenv().getOrDefault("REDIS_TEST_DATABASE", "15"));
+
+    private RedisClient writerClient;
+    private StatefulRedisConnection<String, String> writerConnection;
+    private RedisCommands<String, String> writer;
+    private NearCacheTracker tracker;
+
+    @BeforeEach
+    void setUp() {
+        writerClient = RedisClient.create(RedisURI.builder().withHost(HOST).withPort(PORT).withDatabase(DATABASE).build());
+        try {
+            writerConnection = writerClient.connect();
+        } catch (Exception e) {
+            writerClient.shutdown();
+            writerClient = null;
+            assumeTrue(false, "本地redis-server不可用: " + e.getMessage());
+        }
+        writer = writerConnection.sync();
+        String version = writer.info("server").lines()
+                .filter(line -> line.startsWith("redis_version:"))
+                .map(line -> line.substring("redis_version:".length()).trim())
+                .findFirst().orElse("0");
+        assumeTrue(Integer.parseInt(version.split("\\.")[0]) >= 6, "客户端缓存跟踪需要Redis 6.0及以上");
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (tracker != null) {
+            tracker.shutdown();
+        }
+        if (writerConnection != null) {
+            writerConnection.close();
+        }
+        if (writerClient != null) {
+            writerClient.shutdown();
+        }
+    }
+
+    @Test
+    void trackingExtendsLocalExpireWhenActive() {
+        tracker = newTracker("tracking");
+        tracker.init();
+
+        assertTrue(tracker.isActive());
+        assertEquals(600, tracker.localExpireSeconds(30));
+        assertEquals(1200, tracker.localExpireSeconds(1200));
+    }
+
+    @Test
+    void pubsubModeDoesNotTrack() {
+        tracker = newTracker("pubsub");
+        tracker.init();
+
+        assertFalse(tracker.isActive());
+        assertEquals(30, tracker.localExpireSeconds(30));
+    }
+
+    @Test
+    void writeFromAnotherClientInvalidatesTrackedKey() throws InterruptedException {
+        BlockingQueue<List<String>> received = new LinkedBlockingQueue<>();
+        tracker = newTracker("tracking");
+        tracker.onInvalidate(received::add);
+        tracker.init();
+
+        writer.set("cache:shop:1", "v1");
+
+        List<String> keys = received.poll(5, TimeUnit.SECONDS);
+        assertNotNull(keys, "未收到失效通知");
+        assertTrue(keys.contains("cache:shop:1"));
+        assertEquals(1L, tracker.getStats().get("invalidations"));
+    }
+
+    @Test
+    void untrackedPrefixIsIgnored() throws InterruptedException {
+        BlockingQueue<List<String>> received = new LinkedBlockingQueue<>();
+        tracker = newTracker("tracking");
+        tracker.onInvalidate(received::add);
+        tracker.init();
+
+        writer.set("other:1", "v1");
+        // 再写一个跟踪前缀的key作为参照，收到它之前不应有其它通知
+        writer.set("cache:shop:2", "v2");
+
+        List<String> keys = received.poll(5, TimeUnit.SECONDS);
+        assertNotNull(keys, "未收到失效通知");
+        assertFalse(keys.contains("other:1"));
+        assertTrue(keys.contains("cache:shop:2"));
+    }
+
+    @Test
+    void flushInvalidatesAllLocalEntries() throws InterruptedException {
+        BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+        tracker = newTracker("tracking");
+        tracker.onInvalidate(keys -> received.add(keys == null ? "ALL" : keys));
+        tracker.init();
+
+        writer.flushdb();
+
+        Object notification = received.poll(5, TimeUnit.SECONDS);
+        assertEquals("ALL", notification);
+        assertEquals(1L, tracker.getStats().get("flushes"));
+    }
+
+    @Test
+    void disconnectFallsBackAndReconnectReenablesTracking() throws InterruptedException {
+        BlockingQueue<Boolean> states = new LinkedBlockingQueue<>();
+        tracker = newTracker("tracking");
+        tracker.onStateChange(states::add);
+        tracker.init();
+        assertTrue(tracker.isActive());
+        states.clear();
+
+        // 断开跟踪连接，客户端自动重连后应重新开启跟踪
+        @SuppressWarnings("unchecked")
+        StatefulRedisConnection<String, String> trackingConnection =
+                (StatefulRedisConnection<String, String>) ReflectionTestUtils.getField(tracker, "connection");
+        assertNotNull(trackingConnection);
+        writer.clientKill(KillArgs.Builder.id(trackingConnection.sync().clientId()));
+
+        assertEquals(Boolean.FALSE, states.poll(5, TimeUnit.SECONDS));
+        assertEquals(Boolean.TRUE, states.poll(10, TimeUnit.SECONDS));
+        assertTrue(tracker.isActive());
+
+        BlockingQueue<List<String>> received = new LinkedBlockingQueue<>();
+        tracker.onInvalidate(received::add);
+        writer.set("cache:shop:3", "v3");
+        List<String> keys = received.poll(5, TimeUnit.SECONDS);
+        assertNotNull(keys, "重连后未收到失效通知");
+        assertTrue(keys.contains("cache:shop:3"));
+    }
+
+    @Test
+    void unreachableRedisFallsBackToPubsub() {
+        tracker = newTracker("tracking");
+        RedisProperties properties = (RedisProperties) ReflectionTestUtils.getField(tracker, "redisProperties");
+        assertNotNull(properties);
+        // 不监听的端口
+        properties.setPort(1);
+        tracker.init();
+
+        assertFalse(tracker.isActive());
+        assertNull(ReflectionTestUtils.getField(tracker, "connection"));
+    }
+
+    private NearCacheTracker newTracker(String mode) {
+        RedisProperties properties = new RedisProperties();
+        properties.setHost(HOST);
+        properties.setPort(PORT);
+        properties.setDatabase(DATABASE);
+        NearCacheTracker nearCacheTracker = new NearCacheTracker(properties);
+        ReflectionTestUtils.setField(nearCacheTracker, "mode", mode);
+        ReflectionTestUtils.setField(nearCacheTracker, "trackingPrefixes", new String[]{"cache:", "shop:"});
+        ReflectionTestUtils.setField(nearCacheTracker, "trackingLocalExpireSeconds", 600L);
+        return nearCacheTracker;
+    }
+}
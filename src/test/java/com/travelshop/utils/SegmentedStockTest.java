@@ -0,0 +1,248 @@
+package com.travelshop.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * 分段库存扣减测试和单key/分段并发扣减压测
+ * 需要本地 redis-server，地址可用 REDIS_TEST_HOST / REDIS_TEST_PORT 指定，默认使用 15 号库(REDIS_TEST_DATABASE)，
+ * 连接不上时跳过。压测用例标记为benchmark，默认构建不执行
+ */
+@Slf4j
+class SegmentedStockTest {
+
+    private static final String HOST = System.getenv().getOrDefault("REDIS_TEST_HOST", "127.0.0.1");
+    private static final int PORT = Integer.parseInt(System.getenv().getOrDefault("REDIS_TEST_PORT", "6379"));
+    private static final int DATABASE = Integer.parseInt(System.getenv().getOrDefault("REDIS_TEST_DATABASE", "15"));
+
+    private static final long SKU_ID = 900001L;
+    private static final long BENCH_SKU_ID = 900002L;
+    private static final int SEGMENTS = 4;
+
+    private LettuceConnectionFactory connectionFactory;
+    private StringRedisTemplate redisTemplate;
+    private SegmentedStock segmentedStock;
+    private final List<String> usedKeys = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        RedisStandaloneConfiguration config = new RedisStandaloneConfiguration(HOST, PORT);
+        config.setDatabase(DATABASE);
+        connectionFactory = new LettuceConnectionFactory(config);
+        connectionFactory.afterPropertiesSet();
+        redisTemplate = new StringRedisTemplate(connectionFactory);
+        try {
+            redisTemplate.execute(RedisConnection::ping, true);
+        } catch (Exception e) {
+            connectionFactory.destroy();
+            connectionFactory = null;
+            assumeTrue(false, "本地redis-server不可用: " + e.getMessage());
+        }
+        segmentedStock = new SegmentedStock(redisTemplate, null, null, new DistributedLock(redisTemplate), null);
+        redisTemplate.opsForHash().put(SegmentedStock.SEGMENTS_KEY, String.valueOf(SKU_ID), String.valueOf(SEGMENTS));
+        segmentedStock.refresh(SKU_ID);
+        usedKeys.add(SegmentedStock.SINGLE_KEY_PREFIX + SKU_ID);
+        for (int i = 0; i < SEGMENTS; i++) {
+            usedKeys.add(SegmentedStock.segmentKey(SKU_ID, i));
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (connectionFactory == null) {
+            return;
+        }
+        redisTemplate.opsForHash().delete(SegmentedStock.SEGMENTS_KEY, String.valueOf(SKU_ID));
+        redisTemplate.delete(usedKeys);
+        connectionFactory.destroy();
+    }
+
+    @Test
+    void multiCountOrderIsFilledFromSeveralSegments() {
+        setSegments(2, 2, 2, 2);
+
+        long remaining = segmentedStock.decrease(SKU_ID, 5, 0);
+
+        assertTrue(remaining >= 0);
+        assertEquals(3, totalStock());
+        assertEquals(1L, segmentedStock.getStats().get("borrows"));
+    }
+
+    @Test
+    void insufficientTotalRefundsTakenSegments() {
+        setSegments(1, 1, 0, 1);
+
+        long result = segmentedStock.decrease(SKU_ID, 5, 0);
+
+        assertEquals(SegmentedStock.INSUFFICIENT, result);
+        assertEquals(Arrays.asList(1L, 1L, 0L, 1L), segmentStocks());
+    }
+
+    @Test
+    void allSegmentsEmptyIsSoldOut() {
+        setSegments(0, 0, 0, 0);
+
+        assertEquals(SegmentedStock.SOLD_OUT, segmentedStock.decrease(SKU_ID, 1, 3));
+    }
+
+    @Test
+    void missingSegmentReturnsNotLoadedWithoutLosingStock() {
+        setSegments(1, 1, 1, 1);
+        // 模拟合并进行中：第三个分段已被取走并累加到单key
+        redisTemplate.delete(SegmentedStock.segmentKey(SKU_ID, 2));
+        redisTemplate.opsForValue().set(SegmentedStock.SINGLE_KEY_PREFIX + SKU_ID, "1");
+
+        long result = segmentedStock.decrease(SKU_ID, 4, 0);
+
+        assertEquals(SegmentedStock.NOT_LOADED, result);
+        assertEquals(4, totalStock());
+    }
+
+    @Test
+    void concurrentDecreasesNeverOversell() throws InterruptedException {
+        setSegments(25, 25, 25, 25);
+        int threads = 16;
+        LongAdder sold = new LongAdder();
+        runConcurrently(threads, 20, (thread, request) -> {
+            int count = request % 3 + 1;
+            if (segmentedStock.decrease(SKU_ID, count, thread * 31L + request) >= 0) {
+                sold.add(count);
+            }
+        });
+
+        assertEquals(100, sold.sum() + totalStock());
+        assertTrue(segmentStocks().stream().allMatch(stock -> stock >= 0));
+    }
+
+    /**
+     * 单key与分段的并发扣减对比，只输出吞吐和耗时分布，不做断言
+     * 单key走门票扣减使用的stock_check.lua，分段走SegmentedStock.decrease，包含分段路由和借用的开销。
+     * 单机Redis串行执行命令，分段的收益主要体现在集群下热点分片的负载分散，单机结果用于观察额外往返的开销
+     */
+    @Test
+    @Tag("benchmark")
+    void benchmarkSingleKeyAgainstSegments() throws InterruptedException {
+        DefaultRedisScript<Long> stockScript = new DefaultRedisScript<>();
+        stockScript.setLocation(new ClassPathResource("stock_check.lua"));
+        stockScript.setResultType(Long.class);
+        int threads = 32;
+        int requestsPerThread = 500;
+        long total = (long) threads * requestsPerThread;
+
+        String singleKey = SegmentedStock.SINGLE_KEY_PREFIX + BENCH_SKU_ID;
+        usedKeys.add(singleKey);
+        redisTemplate.opsForValue().set(singleKey, String.valueOf(total));
+        long[][] single = new long[threads][requestsPerThread];
+        long singleElapsed = runConcurrently(threads, requestsPerThread, (thread, request) -> {
+            long begin = System.nanoTime();
+            redisTemplate.execute(stockScript, Collections.singletonList(singleKey), "1");
+            single[thread][request] = System.nanoTime() - begin;
+        });
+
+        long[] stocks = new long[SEGMENTS];
+        Arrays.fill(stocks, total / SEGMENTS);
+        setSegments(stocks);
+        long[][] segmented = new long[threads][requestsPerThread];
+        long segmentedElapsed = runConcurrently(threads, requestsPerThread, (thread, request) -> {
+            long begin = System.nanoTime();
+            segmentedStock.decrease(SKU_ID, 1, thread * 31L + request);
+            segmented[thread][request] = System.nanoTime() - begin;
+        });
+
+        log.info("single:    {}", describe(single, singleElapsed));
+        log.info("segmented: {}, borrows={}", describe(segmented, segmentedElapsed),
+                segmentedStock.getStats().get("borrows"));
+    }
+
+    private interface Request {
+        void run(int thread, int request);
+    }
+
+    /**
+     * 所有线程同时开始执行，返回总耗时(纳秒)
+     */
+    private static long runConcurrently(int threads, int requestsPerThread, Request request) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            pool.execute(() -> {
+                try {
+                    start.await();
+                    for (int r = 0; r < requestsPerThread; r++) {
+                        request.run(thread, r);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - begin;
+        pool.shutdownNow();
+        return elapsed;
+    }
+
+    private static String describe(long[][] latencies, long elapsed) {
+        long[] all = Arrays.stream(latencies).flatMapToLong(Arrays::stream).sorted().toArray();
+        return String.format("ops/s=%.0f p50=%.3fms p99=%.3fms max=%.3fms",
+                all.length * 1_000_000_000.0 / Math.max(elapsed, 1),
+                percentile(all, 0.50), percentile(all, 0.99), all[all.length - 1] / 1_000_000.0);
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(sorted.length * percentile) - 1);
+        return sorted[Math.max(index, 0)] / 1_000_000.0;
+    }
+
+    private void setSegments(long... stocks) {
+        for (int i = 0; i < stocks.length; i++) {
+            redisTemplate.opsForValue().set(SegmentedStock.segmentKey(SKU_ID, i), String.valueOf(stocks[i]));
+        }
+    }
+
+    private List<Long> segmentStocks() {
+        List<Long> stocks = new ArrayList<>();
+        for (int i = 0; i < SEGMENTS; i++) {
+            String value = redisTemplate.opsForValue().get(SegmentedStock.segmentKey(SKU_ID, i));
+            stocks.add(value == null ? 0 : Long.parseLong(value));
+        }
+        return stocks;
+    }
+
+    private long totalStock() {
+        String single = redisTemplate.opsForValue().get(SegmentedStock.SINGLE_KEY_PREFIX + SKU_ID);
+        long total = single == null ? 0 : Long.parseLong(single);
+        for (Long stock : segmentStocks()) {
+            total += stock;
+        }
+        return total;
+    }
+}